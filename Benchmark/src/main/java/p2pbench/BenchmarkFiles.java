@@ -0,0 +1,54 @@
+package p2pbench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Temp files and directories shared by the benchmarks.
+ */
+public final class BenchmarkFiles {
+
+    private BenchmarkFiles() {}
+
+    public static File randomFile(long size) throws IOException {
+        File file = Files.createTempFile("p2pbench-", ".bin").toFile();
+        byte[] buffer = new byte[1 << 20];
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            long remaining = size;
+            while (remaining > 0) {
+                ThreadLocalRandom.current().nextBytes(buffer);
+                int n = (int) Math.min(buffer.length, remaining);
+                os.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+        return file;
+    }
+
+    public static Path tempDirectory() throws IOException {
+        return Files.createTempDirectory("p2pbench-");
+    }
+
+    public static void delete(File file) {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    public static void deleteRecursively(Path dir) {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + dir + ": " + e.getMessage());
+        }
+    }
+}
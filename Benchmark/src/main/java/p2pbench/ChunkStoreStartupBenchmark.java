@@ -0,0 +1,66 @@
+package p2pbench;
+
+import org.openjdk.jmh.annotations.*;
+import p2pclient.store.ChunkId;
+import p2pclient.store.ChunkStore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChunkStoreStartupBenchmark - Opening a ChunkStore of N chunks from its index (snapshot plus journal) and by listing
+ * the uploads directory, as before there was an index. The chunk files are empty; only their names are read.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkStoreStartupBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int chunks;
+
+    @Param({"index", "listing"})
+    public String source;
+
+    private Path dataDirectory;
+
+    @Setup
+    public void setup() throws IOException {
+        dataDirectory = BenchmarkFiles.tempDirectory();
+        try (ChunkStore store = new ChunkStore(dataDirectory.toString())) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < chunks; i++) {
+                ChunkId chunkId = new ChunkId(random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong());
+                if (!store.getChunkFile(chunkId).createNewFile()) {
+                    throw new IOException("Chunk file exists: " + chunkId);
+                }
+                store.added(chunkId);
+            }
+        }
+    }
+
+    // opening by listing writes a new index; remove it so every invocation lists again
+    @Setup(Level.Invocation)
+    public void dropIndex() {
+        if (source.equals("listing")) {
+            BenchmarkFiles.deleteRecursively(dataDirectory.resolve(".index"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteRecursively(dataDirectory);
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        try (ChunkStore store = new ChunkStore(dataDirectory.toString())) {
+            return store.size();
+        }
+    }
+}
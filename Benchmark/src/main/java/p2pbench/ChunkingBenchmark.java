@@ -0,0 +1,70 @@
+package p2pbench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import p2pclient.utils.ChunkReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChunkingBenchmark - The read/hash loop of P2PUploader.run (ChunkReader.readChunks) over a 64 MB file,
+ * for different chunk sizes and upload pool sizes. Each iteration is one full pass over the file; the
+ * pool stands in for the per-chunk upload tasks, which here only touch the data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkingBenchmark {
+
+    @Param({"262144", "1048576", "4194304"})
+    public int chunkSize;
+
+    @Param({"1", "5", "16"})
+    public int threads;
+
+    @Param({"67108864"})
+    public long fileSize;
+
+    private File file;
+    private ExecutorService threadPool;
+
+    @Setup
+    public void setup() throws IOException {
+        file = BenchmarkFiles.randomFile(fileSize);
+        threadPool = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        threadPool.shutdownNow();
+        BenchmarkFiles.delete(file);
+    }
+
+    @Benchmark
+    public int readChunks(Blackhole bh) throws IOException, NoSuchAlgorithmException {
+        return ChunkReader.readChunks(file, chunkSize, (index, data, hash) -> bh.consume(hash));
+    }
+
+    @Benchmark
+    public int readChunksAndFanOut(Blackhole bh) throws IOException, NoSuchAlgorithmException, ExecutionException, InterruptedException {
+        List<Future<?>> futures = new ArrayList<>();
+        int chunks = ChunkReader.readChunks(file, chunkSize, (index, data, hash) ->
+                futures.add(threadPool.submit(() -> bh.consume(data[data.length - 1]))));
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return chunks;
+    }
+}
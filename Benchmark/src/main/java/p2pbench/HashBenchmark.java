@@ -0,0 +1,66 @@
+package p2pbench;
+
+import org.openjdk.jmh.annotations.*;
+import p2pclient.store.ChunkId;
+import p2pclient.utils.HashUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HashBenchmark - HashUtils.computeHash for single chunks (byte[]) and whole files, and the
+ * allocation-light HashUtils.hash path that returns a ChunkId instead of a hex string.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+
+    @Param({"65536", "262144", "1048576", "4194304"})
+    public int chunkSize;
+
+    @Param({"67108864"})
+    public long fileSize;
+
+    private byte[] chunk;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        chunk = new byte[chunkSize];
+        ThreadLocalRandom.current().nextBytes(chunk);
+        file = BenchmarkFiles.randomFile(fileSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.delete(file);
+    }
+
+    @Benchmark
+    public String hashChunk() throws IOException, NoSuchAlgorithmException {
+        return HashUtils.computeHash(chunk);
+    }
+
+    @Benchmark
+    public ChunkId hashChunkId() {
+        return HashUtils.hash(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Whole-file hash; independent of chunkSize, so run it with -p chunkSize=1048576 to avoid repeats.
+     */
+    @Benchmark
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public String hashFile() throws IOException, NoSuchAlgorithmException {
+        return HashUtils.computeHash(file);
+    }
+}
@@ -0,0 +1,80 @@
+package p2pbench;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import p2pclient.dto.ReqChunkDto;
+import p2pclient.dto.ReqFileDto;
+import p2pclient.dto.ReqPeerDto;
+import p2pclient.dto.ResFileDto;
+import p2pclient.utils.MetadataCodec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonBenchmark - Jackson (de)serialization of large chunk manifests, configured like P2PClientConfig's mapper, as
+ * JSON or as Smile (MetadataCodec). Both work on bytes, as the tracker requests and responses do; the size of the
+ * encoded response is printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int chunkCount;
+
+    @Param({"json", "smile"})
+    public String encoding;
+
+    private final ObjectMapper json = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private ObjectMapper mapper;
+    private ReqFileDto fileDto;
+    private byte[] response;
+
+    @Setup
+    public void setup() throws IOException {
+        mapper = encoding.equals("smile") ? MetadataCodec.smileMapper(json) : json;
+        fileDto = new ReqFileDto("bench.bin", randomHash(), (long) chunkCount << 20, false);
+        List<ReqChunkDto> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            ReqChunkDto chunk = new ReqChunkDto((long) i, randomHash(), 1 << 20);
+            chunk.setChunk_peers(List.of(new ReqPeerDto("10.0.0." + (i % 250), 5000), new ReqPeerDto("10.0.1." + (i % 250), 5001)));
+            chunks.add(chunk);
+        }
+        fileDto.setFile_chunks(chunks);
+
+        // tracker response shape (ResFileDto) for the same manifest
+        String request = json.writeValueAsString(fileDto);
+        String responseJson = "{\"file_id\":1," + request.substring(1).replace("\"chunk_index\"", "\"chunk_id\":1,\"chunk_index\"");
+        response = mapper.writeValueAsBytes(json.readValue(responseJson, ResFileDto.class));
+        System.out.printf("%n%s response: %d bytes%n", encoding, response.length);
+    }
+
+    @Benchmark
+    public byte[] serializeRequest() throws IOException {
+        return mapper.writeValueAsBytes(fileDto);
+    }
+
+    @Benchmark
+    public ResFileDto parseResponse() throws IOException {
+        return mapper.readValue(response, ResFileDto.class);
+    }
+
+    private static String randomHash() {
+        byte[] bytes = new byte[32];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
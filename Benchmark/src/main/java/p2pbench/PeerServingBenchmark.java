@@ -0,0 +1,134 @@
+package p2pbench;
+
+import org.openjdk.jmh.annotations.*;
+import p2pclient.config.P2PClientConfig;
+import p2pclient.config.P2PSettings;
+import p2pclient.net.P2PServer;
+import p2pclient.store.ChunkId;
+import p2pclient.transport.Connection;
+import p2pclient.transport.InMemoryTransport;
+import p2pclient.transport.Transport;
+import p2pclient.utils.HashUtils;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PeerServingBenchmark - P2PServer's chunk download (sendChunk) and upload (receiveChunk) paths, with 8 concurrent
+ * clients against different server pool sizes, over loopback sockets ("tcp", "nio") or the in-memory transport
+ * ("memory"), which leaves out the kernel's network stack.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class PeerServingBenchmark {
+    private static final int STORED_CHUNKS = 16;
+
+    @Param({"262144", "1048576", "4194304"})
+    public int chunkSize;
+
+    @Param({"1", "5", "16"})
+    public int serverThreads;
+
+    @Param({"tcp", "nio", "memory"})
+    public String transport;
+
+    private Path dataDirectory;
+    private P2PClientConfig config;
+    private P2PServer server;
+    private String[] storedHashes;
+
+    @Setup
+    public void setup() throws IOException, NoSuchAlgorithmException {
+        dataDirectory = BenchmarkFiles.tempDirectory();
+        Transport nodeTransport = "memory".equals(transport) ? new InMemoryTransport() : Transport.named(transport);
+        config = new P2PClientConfig(new P2PSettings("http://localhost", 1, 0, dataDirectory.toString()), nodeTransport);
+        server = new P2PServer(config.getPortManager().getListener(), serverThreads, config);
+        Thread serverThread = new Thread(server::start, "p2p-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        storedHashes = new String[STORED_CHUNKS];
+        for (int i = 0; i < STORED_CHUNKS; i++) {
+            byte[] data = new byte[chunkSize];
+            ThreadLocalRandom.current().nextBytes(data);
+            storedHashes[i] = HashUtils.computeHash(data);
+            config.getChunkStore().put(ChunkId.fromHex(storedHashes[i]), data);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+        config.getPortManager().close();
+        BenchmarkFiles.deleteRecursively(dataDirectory);
+    }
+
+    @State(Scope.Thread)
+    public static class UploadState {
+        byte[] data;
+        String hash;
+
+        @Setup
+        public void setup(PeerServingBenchmark benchmark) throws IOException, NoSuchAlgorithmException {
+            data = new byte[benchmark.chunkSize];
+            ThreadLocalRandom.current().nextBytes(data);
+            hash = HashUtils.computeHash(data);
+        }
+
+        // the peer skips chunks it already holds; forget this one so every upload is written and verified again
+        @TearDown(Level.Invocation)
+        public void forget(PeerServingBenchmark benchmark) {
+            benchmark.config.getChunkStore().removed(ChunkId.fromHex(hash));
+        }
+    }
+
+    @Benchmark
+    public long downloadChunk() throws IOException {
+        String hash = storedHashes[ThreadLocalRandom.current().nextInt(STORED_CHUNKS)];
+        try (Connection connection = connect();
+             OutputStream os = new BufferedOutputStream(connection.getOutputStream());
+             InputStream is = connection.getInputStream()) {
+            os.write("download  ".getBytes());
+            os.write(hash.getBytes());
+            os.flush();
+            return drain(is);
+        }
+    }
+
+    @Benchmark
+    public long uploadChunk(UploadState state) throws IOException {
+        try (Connection connection = connect();
+             OutputStream os = new BufferedOutputStream(connection.getOutputStream());
+             InputStream is = connection.getInputStream()) {
+            os.write("upload    ".getBytes());
+            os.write(state.hash.getBytes());
+            new DataOutputStream(os).writeInt(state.data.length);
+            os.write(state.data);
+            os.flush();
+            connection.shutdownOutput();
+            return drain(is); // wait for the peer to finish and close
+        }
+    }
+
+    private Connection connect() throws IOException {
+        return config.getTransport().connect("127.0.0.1", config.getListeningPort(), 0);
+    }
+
+    private static long drain(InputStream is) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,95 @@
+package p2pbench.swarm;
+
+import p2pclient.transport.Connection;
+import p2pclient.transport.Listener;
+import p2pclient.transport.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * FaultInjectingProxy - Relay placed in front of a simulated peer, on the swarm's transport. The tracker advertises the
+ * proxy's port, so every connection to the peer pays the configured latency, fails with the configured
+ * probability (connection dropped before any byte is relayed), or is refused outright once the peer is killed.
+ */
+public class FaultInjectingProxy {
+    private final Transport transport;
+    private final Listener listener;
+    private final int targetPort;
+    private final long latencyMillis;
+    private final double failureRate;
+    private volatile boolean dead = false;
+
+    public FaultInjectingProxy(Transport transport, int targetPort, long latencyMillis, double failureRate) throws IOException {
+        this.transport = transport;
+        this.listener = transport.listen(0);
+        this.targetPort = targetPort;
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+    }
+
+    public int getPort() {
+        return listener.getPort();
+    }
+
+    public void start() {
+        Thread.ofVirtual().name("proxy-" + getPort()).start(this::acceptLoop);
+    }
+
+    /**
+     * Simulates a crashed peer: every later connection is dropped.
+     */
+    public void kill() {
+        dead = true;
+    }
+
+    public void stop() {
+        try {
+            listener.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void acceptLoop() {
+        while (!listener.isClosed()) {
+            try {
+                Connection client = listener.accept();
+                Thread.ofVirtual().start(() -> relay(client));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void relay(Connection client) {
+        try (client) {
+            if (dead || ThreadLocalRandom.current().nextDouble() < failureRate) {
+                client.abort();
+                return;
+            }
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            try (Connection target = transport.connect("127.0.0.1", targetPort, 0)) {
+                Thread upstream = Thread.ofVirtual().start(() -> pump(client, target));
+                pump(target, client);
+                upstream.join();
+            }
+        } catch (IOException | InterruptedException ignored) {
+        }
+    }
+
+    // copies until EOF, then forwards the half-close (the upload protocol relies on it)
+    private static void pump(Connection from, Connection to) {
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            in.transferTo(out);
+            out.flush();
+            to.shutdownOutput();
+        } catch (IOException ignored) {
+        }
+    }
+}
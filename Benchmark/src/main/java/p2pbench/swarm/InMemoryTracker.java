@@ -0,0 +1,302 @@
+package p2pbench.swarm;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import p2pclient.dto.*;
+import p2pclient.utils.MetadataCodec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+
+/**
+ * InMemoryTracker - Stand-in for the tracker REST API (Server/main.py) living inside the simulator JVM.
+ * Same routes, JSON shapes and de-duplication rules, but everything is kept in memory and served on loopback.
+ * Like the real tracker, placements are only returned for peers that are currently in the active set.
+ * Like the Java tracker, it also reads and answers Smile when a client's MetadataCodec asks for it.
+ */
+public class InMemoryTracker {
+    private final ObjectMapper mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private final ObjectMapper smileMapper = MetadataCodec.smileMapper(mapper);
+    private final HttpServer server;
+
+    private final Set<String> activePeers = new LinkedHashSet<>();
+    private final Map<Integer, ResFileDto> files = new LinkedHashMap<>();
+    private final Map<Integer, List<ResChunkDto>> chunksByFile = new HashMap<>();
+    private int nextFileId = 1;
+    private int nextChunkId = 1;
+
+    public InMemoryTracker() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/peers", this::handlePeers);
+        server.createContext("/files", this::handleFiles);
+        server.createContext("/chunks", this::handleChunks);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public String getBaseAddress() {
+        return "http://" + server.getAddress().getHostString();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public synchronized boolean addPeer(String ip, int port) {
+        return activePeers.add(ip + ":" + port);
+    }
+
+    public synchronized boolean removePeer(String ip, int port) {
+        return activePeers.remove(ip + ":" + port);
+    }
+
+    public synchronized Integer findFileId(String fileHash) {
+        for (ResFileDto file : files.values()) {
+            if (file.file_hash.equals(fileHash)) {
+                return file.file_id;
+            }
+        }
+        return null;
+    }
+
+    // =======================
+    //  Routes
+    // =======================
+
+    private void handlePeers(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        switch (exchange.getRequestMethod() + " " + path) {
+            case "GET /peers" -> respond(exchange, 200, listPeers());
+            case "POST /peers/add" -> {
+                ReqPeerDto peer = requestMapper(exchange).readValue(exchange.getRequestBody(), ReqPeerDto.class);
+                if (addPeer(peer.peer_ip, peer.peer_port)) {
+                    respond(exchange, 200, status("success", "Peer " + peer.peer_ip + ":" + peer.peer_port + " added."));
+                } else {
+                    respond(exchange, 409, status("error", "Peer " + peer.peer_ip + ":" + peer.peer_port + " already exists."));
+                }
+            }
+            case "POST /peers/remove" -> {
+                ReqPeerDto peer = requestMapper(exchange).readValue(exchange.getRequestBody(), ReqPeerDto.class);
+                if (removePeer(peer.peer_ip, peer.peer_port)) {
+                    respond(exchange, 200, status("success", "Peer " + peer.peer_ip + ":" + peer.peer_port + " removed."));
+                } else {
+                    respond(exchange, 404, status("error", "Peer " + peer.peer_ip + ":" + peer.peer_port + " not found."));
+                }
+            }
+            default -> respond(exchange, 404, Map.of("detail", "Not Found"));
+        }
+    }
+
+    private void handleFiles(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        if ("GET".equals(method) && path.equals("/files")) {
+            respond(exchange, 200, listFiles());
+        } else if ("POST".equals(method) && path.equals("/files/upload_file")) {
+            ReqFileDto file = requestMapper(exchange).readValue(exchange.getRequestBody(), ReqFileDto.class);
+            respond(exchange, 200, uploadFile(file));
+        } else if ("POST".equals(method) && path.equals("/files/upload_files")) {
+            List<ReqFileDto> batch = requestMapper(exchange).readValue(exchange.getRequestBody(), new TypeReference<List<ReqFileDto>>() {});
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (ReqFileDto file : batch) {
+                results.add(uploadFile(file));
+            }
+            respond(exchange, 200, results);
+        } else if ("GET".equals(method) && path.startsWith("/files/download_file/")) {
+            int fileId = Integer.parseInt(path.substring("/files/download_file/".length()));
+            ResFileDto file = downloadFile(fileId);
+            if (file == null) {
+                respond(exchange, 404, Map.of("detail", "File with ID " + fileId + " not found"));
+            } else {
+                respond(exchange, 200, file);
+            }
+        } else {
+            respond(exchange, 404, Map.of("detail", "Not Found"));
+        }
+    }
+
+    private void handleChunks(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod()) && path.equals("/chunks/placements")) {
+            List<ReqPeerDto> placements = requestMapper(exchange).readValue(exchange.getRequestBody(), new TypeReference<List<ReqPeerDto>>() {});
+            respond(exchange, 200, Map.of("status", "success", "added", addPlacements(placements)));
+        } else if ("POST".equals(exchange.getRequestMethod()) && path.equals("/chunks/placements/remove")) {
+            List<ReqPeerDto> placements = requestMapper(exchange).readValue(exchange.getRequestBody(), new TypeReference<List<ReqPeerDto>>() {});
+            respond(exchange, 200, Map.of("status", "success", "removed", removePlacements(placements)));
+        } else {
+            respond(exchange, 404, Map.of("detail", "Not Found"));
+        }
+    }
+
+    private synchronized int addPlacements(List<ReqPeerDto> placements) {
+        int added = 0;
+        for (ReqPeerDto placement : placements) {
+            for (ResChunkDto chunk : placed(placement)) {
+                boolean known = chunk.chunk_peers.stream()
+                        .anyMatch(p -> p.peer_ip.equals(placement.peer_ip) && p.peer_port.equals(placement.peer_port));
+                if (!known) {
+                    chunk.chunk_peers.add(new ResPeerDto(null, placement.peer_ip, placement.peer_port));
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    // keeps the last placement of a chunk, like the trackers
+    private synchronized int removePlacements(List<ReqPeerDto> placements) {
+        int removed = 0;
+        for (ReqPeerDto placement : placements) {
+            for (ResChunkDto chunk : placed(placement)) {
+                if (chunk.chunk_peers.size() > 1
+                        && chunk.chunk_peers.removeIf(p -> p.peer_ip.equals(placement.peer_ip) && p.peer_port.equals(placement.peer_port))) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    // the chunks a placement names: by chunk_id, or every chunk with its chunk_hash
+    private List<ResChunkDto> placed(ReqPeerDto placement) {
+        List<ResChunkDto> placed = new ArrayList<>();
+        for (List<ResChunkDto> chunks : chunksByFile.values()) {
+            for (ResChunkDto chunk : chunks) {
+                boolean match = placement.getChunk_id() != null
+                        ? chunk.chunk_id == placement.getChunk_id().intValue()
+                        : chunk.chunk_hash.equals(placement.getChunk_hash());
+                if (match) {
+                    placed.add(chunk);
+                }
+            }
+        }
+        return placed;
+    }
+
+    public synchronized List<ResPeerDto> listPeers() {
+        List<ResPeerDto> peers = new ArrayList<>();
+        for (String peer : activePeers) {
+            int split = peer.lastIndexOf(':');
+            peers.add(new ResPeerDto(null, peer.substring(0, split), Integer.parseInt(peer.substring(split + 1))));
+        }
+        return peers;
+    }
+
+    private synchronized List<ResFileDto> listFiles() {
+        return new ArrayList<>(files.values());
+    }
+
+    private synchronized Map<String, Object> uploadFile(ReqFileDto request) {
+        ResFileDto file = null;
+        for (ResFileDto existing : files.values()) {
+            if (existing.file_name.equals(request.file_name) && existing.file_hash.equals(request.file_hash)
+                    && existing.file_size.equals(request.file_size) && existing.file_enc == Boolean.TRUE.equals(request.file_enc)
+                    && Objects.equals(existing.file_data_shards, request.file_data_shards)
+                    && Objects.equals(existing.file_parity_shards, request.file_parity_shards)) {
+                file = existing;
+            }
+        }
+        if (file == null) {
+            file = new ResFileDto(nextFileId++, request.file_name, request.file_hash, request.file_size, Boolean.TRUE.equals(request.file_enc));
+            file.file_data_shards = request.file_data_shards;
+            file.file_parity_shards = request.file_parity_shards;
+            files.put(file.file_id, file);
+            chunksByFile.put(file.file_id, new ArrayList<>());
+        }
+
+        List<ResChunkDto> chunks = chunksByFile.get(file.file_id);
+        for (ReqChunkDto requestChunk : request.file_chunks != null ? request.file_chunks : List.<ReqChunkDto>of()) {
+            ResChunkDto chunk = null;
+            for (ResChunkDto existing : chunks) {
+                if (existing.chunk_index.equals(requestChunk.chunk_index) && existing.chunk_hash.equals(requestChunk.chunk_hash)) {
+                    chunk = existing;
+                }
+            }
+            if (chunk == null) {
+                chunk = new ResChunkDto();
+                chunk.chunk_id = nextChunkId++;
+                chunk.chunk_index = requestChunk.chunk_index;
+                chunk.chunk_hash = requestChunk.chunk_hash;
+                chunk.chunk_size = requestChunk.chunk_size;
+                chunk.chunk_offset = requestChunk.chunk_offset;
+                chunk.chunk_length = requestChunk.chunk_length;
+                chunk.chunk_peers = new ArrayList<>();
+                chunks.add(chunk);
+            }
+            for (ReqPeerDto peer : requestChunk.chunk_peers != null ? requestChunk.chunk_peers : List.<ReqPeerDto>of()) {
+                boolean known = chunk.chunk_peers.stream()
+                        .anyMatch(p -> p.peer_ip.equals(peer.peer_ip) && p.peer_port.equals(peer.peer_port));
+                if (!known) {
+                    chunk.chunk_peers.add(new ResPeerDto(null, peer.peer_ip, peer.peer_port));
+                }
+            }
+        }
+        chunks.sort(Comparator.comparing(c -> c.chunk_index));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("file_id", file.file_id);
+        result.put("file_name", file.file_name);
+        result.put("file_hash", file.file_hash);
+        result.put("message", "File and chunks uploaded successfully");
+        return result;
+    }
+
+    private synchronized ResFileDto downloadFile(int fileId) {
+        ResFileDto file = files.get(fileId);
+        if (file == null) {
+            return null;
+        }
+        List<ResChunkDto> chunks = new ArrayList<>();
+        for (ResChunkDto stored : chunksByFile.get(fileId)) {
+            ResChunkDto chunk = new ResChunkDto();
+            chunk.chunk_id = stored.chunk_id;
+            chunk.chunk_index = stored.chunk_index;
+            chunk.chunk_hash = stored.chunk_hash;
+            chunk.chunk_size = stored.chunk_size;
+            chunk.chunk_offset = stored.chunk_offset;
+            chunk.chunk_length = stored.chunk_length;
+            chunk.chunk_peers = stored.chunk_peers.stream()
+                    .filter(p -> activePeers.contains(p.peer_ip + ":" + p.peer_port))
+                    .toList();
+            chunks.add(chunk);
+        }
+        ResFileDto manifest = new ResFileDto(file.file_id, file.file_name, file.file_hash, file.file_size, file.file_enc, chunks);
+        manifest.file_data_shards = file.file_data_shards;
+        manifest.file_parity_shards = file.file_parity_shards;
+        return manifest;
+    }
+
+    private static Map<String, String> status(String status, String message) {
+        return Map.of("status", status, "message", message);
+    }
+
+    private ObjectMapper requestMapper(HttpExchange exchange) {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        return contentType != null && contentType.startsWith(MetadataCodec.SMILE) ? smileMapper : mapper;
+    }
+
+    private void respond(HttpExchange exchange, int statusCode, Object body) throws IOException {
+        try (exchange) {
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean smile = accept != null && accept.contains(MetadataCodec.SMILE);
+            byte[] bytes = (smile ? smileMapper : mapper).writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", smile ? MetadataCodec.SMILE : MetadataCodec.JSON);
+            exchange.sendResponseHeaders(statusCode, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,741 @@
+package p2pbench.swarm;
+
+import p2pbench.BenchmarkFiles;
+import p2pclient.config.P2PClientConfig;
+import p2pclient.config.P2PSettings;
+import p2pclient.metrics.Counter;
+import p2pclient.metrics.LatencyHistogram;
+import p2pclient.metrics.Meter;
+import p2pclient.metrics.Metric;
+import p2pclient.metrics.MetricKey;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.metrics.Tracer;
+import p2pclient.net.GossipService;
+import p2pclient.net.P2PServer;
+import p2pclient.net.RemoteFileReader;
+import p2pclient.net.ReplicationService;
+import p2pclient.net.UploadPipeline;
+import p2pclient.dto.ResFileDto;
+import p2pclient.service.FileService;
+import p2pclient.service.PeerService;
+import p2pclient.service.RepairService;
+import p2pclient.service.Reseeder;
+import p2pclient.service.TransferManager;
+import p2pclient.transport.InMemoryTransport;
+import p2pclient.transport.Transport;
+import p2pclient.utils.HashUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * SwarmSimulator - Runs a whole swarm inside one JVM: an in-memory tracker, N storage peers (P2PServer each)
+ * and C client nodes that upload and then download files through the regular FileService code path.
+ * Peers can be given extra latency, a connection failure rate, and some of them can be killed between the
+ * upload and download phases. Prints aggregate throughput and latency percentiles at the end.
+ *
+ * Usage:
+ *   java -cp Benchmark/target/benchmarks.jar p2pbench.swarm.SwarmSimulator [options]
+ *     --peers N          storage peers (default 8)
+ *     --clients C        client nodes uploading/downloading concurrently (default 2)
+ *     --files F          files uploaded per client (default 2)
+ *     --file-size S      bytes per file, k/m/g suffix allowed (default 16m)
+ *     --downloads D      downloads per client, picked at random from all uploaded files (default 4)
+ *     --latency-ms L     added latency per peer connection (default 0)
+ *     --failure-rate P   probability a peer connection is dropped (default 0.0)
+ *     --dead-peers K     peers killed after the upload phase (default 0)
+ *     --gossip           nodes exchange gossip digests before each phase and download with them
+ *     --batch            each client uploads all its files with one FileService.uploadFiles call
+ *     --pack             like --batch, packing small files into shared chunks
+ *     --ec K+M           store K data + M parity shards per chunk group instead of full replicas
+ *     --jobs             each client queues all its downloads at once on a TransferManager (distinct files)
+ *     --concurrency N    fixed number of concurrent transfers per node instead of the adaptive limit
+ *     --chunk-size S     fixed chunk size instead of one picked by file size
+ *     --virtual          serve connections and run chunk transfers on virtual threads
+ *     --reseed           clients keep, serve and announce the chunks they download (Reseeder)
+ *     --repair           the first client repairs the chunks of killed peers before the download phase
+ *                        (RepairService); killed peers are dropped from the tracker as its heartbeat would
+ *     --restart K        K peers are stopped after the upload phase and started again on their data directory
+ *                        with new ports; they load their chunk index and announce what they hold to the tracker
+ *     --replicate N      every node pushes chunks it serves more than N times per second to more peers
+ *                        (ReplicationService, one round per second during the download phase)
+ *     --per-client N     connections each peer handles or queues per remote IP before answering "busy";
+ *                        all nodes share 127.0.0.1 here, so this caps the whole swarm's load on one peer
+ *     --stream           download through RemoteFileReader: stream each file and compare a random range read with it
+ *     --update-rate P    after the upload phase, each client publishes files and then new versions with a
+ *                        fraction P of their chunks changed (FileService.uploadFileVersion); default 0 = off
+ *     --transport T      how nodes connect: tcp (default), nio, or memory (one in-process network, no sockets)
+ *     --link-mbps B      memory transport: bandwidth of each direction of each connection in megabits per second
+ *     --link-latency-ms L  memory transport: one-way delay of each connection; unlike --latency-ms it also delays
+ *                        every reply, and the bandwidth makes it a bandwidth-delay product
+ *     --metadata E       how clients encode file metadata for the tracker: smile (default) or json
+ *     --verbose          keep the client's console output
+ */
+public class SwarmSimulator {
+
+    private record Options(int peers, int clients, int files, long fileSize, int downloads,
+                           long latencyMillis, double failureRate, int deadPeers, boolean gossip, boolean batch, boolean pack,
+                           int dataShards, int parityShards, double updateRate, boolean stream, boolean jobs, int concurrency, int chunkSize, boolean virtual, int perClient, boolean reseed, boolean repair, int replicate, int restart,
+                           String transport, double linkMbps, long linkLatencyMillis, String metadata, boolean verbose) {
+        boolean injectsFaults() {
+            return latencyMillis > 0 || failureRate > 0 || deadPeers > 0;
+        }
+
+        /**
+         * @return the transport all nodes share
+         */
+        Transport newTransport() {
+            if ("memory".equals(transport)) {
+                return new InMemoryTransport((long) (linkMbps * 1_000_000 / 8), linkLatencyMillis);
+            }
+            if (linkMbps > 0 || linkLatencyMillis > 0) {
+                throw new IllegalArgumentException("--link-mbps and --link-latency-ms need --transport memory");
+            }
+            return Transport.named(transport);
+        }
+    }
+
+    private record Node(P2PClientConfig config, P2PServer server, FaultInjectingProxy proxy, GossipService gossip,
+                        ReplicationService replication) {
+        int advertisedPort() {
+            return proxy != null ? proxy.getPort() : config.getListeningPort();
+        }
+
+        void stop() {
+            if (replication != null) replication.stop();
+            if (gossip != null) gossip.stop();
+            if (proxy != null) proxy.stop();
+            server.stop();
+            config.getPortManager().close();
+            try {
+                config.getChunkStore().close();
+            } catch (IOException e) {
+                System.err.println("Failed to close chunk store: " + e.getMessage());
+            }
+        }
+    }
+
+    private record Client(Node node, FileService fileService, Reseeder reseeder, RepairService repair) {}
+
+    private record UploadedFile(int fileId, String fileHash) {}
+
+    /**
+     * @param openNanos     the slowest restart, from stopping the node to its P2PServer accepting again
+     * @param announceNanos the slowest announcement of a restarted peer's chunks
+     */
+    private record Restart(int peers, long chunks, long openNanos, int placements, long announceNanos) {}
+
+    private static class Phase {
+        final LatencyHistogram fileLatency = new LatencyHistogram();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        long startNanos;
+        long wallNanos;
+
+        void succeeded(long startNanos, long transferredBytes) {
+            fileLatency.recordSince(startNanos);
+            bytes.addAndGet(transferredBytes);
+            succeeded.incrementAndGet();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = parse(args);
+        PrintStream report = System.out;
+        if (!options.verbose()) {
+            // the client logs every request and chunk; keep the report readable
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        Transport transport = options.newTransport();
+        Path workDirectory = BenchmarkFiles.tempDirectory();
+        InMemoryTracker tracker = new InMemoryTracker();
+        tracker.start();
+        List<Node> peers = new ArrayList<>();
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < options.peers(); i++) {
+                Node peer = startNode(tracker, transport, workDirectory.resolve("peer-" + i), options);
+                tracker.addPeer(peer.config().getLocalIPAddress(), peer.advertisedPort());
+                peers.add(peer);
+            }
+            for (int i = 0; i < options.clients(); i++) {
+                Node node = startNode(tracker, transport, workDirectory.resolve("client-" + i), options);
+                PeerService peerService = new PeerService(node.config()); // registers itself with the tracker
+                Reseeder reseeder = options.reseed()
+                        ? new Reseeder(node.config(), node.config().getLocalIPAddress(), node.config().getListeningPort()) : null;
+                if (reseeder != null) {
+                    reseeder.start();
+                }
+                FileService fileService = new FileService(node.config(), peerService, node.gossip(), reseeder);
+                RepairService repair = options.repair() && i == 0
+                        ? new RepairService(node.config(), fileService, tracker::listPeers, node.gossip()) : null;
+                clients.add(new Client(node, fileService, reseeder, repair));
+            }
+            gossipRounds(peers, clients);
+
+            List<UploadedFile> uploaded = Collections.synchronizedList(new ArrayList<>());
+            Phase upload = runPhase(clients, (client, index, phase) -> {
+                if (options.batch() || options.pack()) {
+                    uploadBatch(client, index, options, tracker, uploaded, phase);
+                    return;
+                }
+                for (int f = 0; f < options.files(); f++) {
+                    File file = BenchmarkFiles.randomFile(options.fileSize());
+                    File named = new File(file.getParentFile(), "swarm-" + index + "-" + f + ".bin");
+                    if (!file.renameTo(named)) named = file;
+                    String fileHash = HashUtils.computeHash(named);
+                    long start = System.nanoTime();
+                    boolean ok = client.fileService().uploadFile(named, null);
+                    Integer fileId = tracker.findFileId(fileHash);
+                    named.delete();
+                    if (ok && fileId != null) {
+                        uploaded.add(new UploadedFile(fileId, fileHash));
+                        phase.succeeded(start, options.fileSize());
+                    } else {
+                        phase.failed.incrementAndGet();
+                    }
+                }
+            });
+
+            Phase update = options.updateRate() <= 0 ? null : runPhase(clients, (client, index, phase) ->
+                    uploadVersions(client, index, options, tracker, uploaded, phase));
+
+            Restart restart = options.restart() > 0 ? restartPeers(tracker, transport, peers, workDirectory, options) : null;
+
+            Collections.shuffle(peers);
+            for (int i = 0; i < Math.min(options.deadPeers(), peers.size()); i++) {
+                peers.get(i).proxy().kill();
+                if (options.repair()) {
+                    tracker.removePeer(peers.get(i).config().getLocalIPAddress(), peers.get(i).advertisedPort());
+                }
+            }
+            gossipRounds(peers, clients);
+            if (options.repair()) {
+                clients.getFirst().repair().repairNow();
+            }
+
+            ScheduledExecutorService replicationRounds = replicationRounds(peers, clients);
+            Phase download = uploaded.isEmpty() ? new Phase() : runPhase(clients, (client, index, phase) -> {
+                if (options.jobs()) {
+                    downloadJobs(client, options, uploaded, phase);
+                    return;
+                }
+                for (int d = 0; d < options.downloads(); d++) {
+                    UploadedFile target = uploaded.get(ThreadLocalRandom.current().nextInt(uploaded.size()));
+                    if (options.stream()) {
+                        streamFile(client, target, phase);
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    File file = client.fileService().downloadFile(target.fileId());
+                    if (file != null && target.fileHash().equals(HashUtils.computeHash(file))) {
+                        phase.succeeded(start, file.length());
+                        file.delete();
+                    } else {
+                        phase.failed.incrementAndGet();
+                    }
+                }
+            });
+            if (replicationRounds != null) replicationRounds.shutdownNow();
+
+            printReport(report, options, upload, update, download, restart, peers, clients);
+        } finally {
+            clients.forEach(client -> {
+                if (client.reseeder() != null) client.reseeder().close();
+                client.node().stop();
+            });
+            peers.forEach(Node::stop);
+            tracker.stop();
+            BenchmarkFiles.deleteRecursively(workDirectory);
+            System.setOut(report);
+        }
+    }
+
+    // =======================
+    //  Swarm setup
+    // =======================
+
+    private static Node startNode(InMemoryTracker tracker, Transport transport, Path dataDirectory, Options options) throws Exception {
+        P2PSettings settings = new P2PSettings(tracker.getBaseAddress(), tracker.getPort(), 0, dataDirectory.toString(),
+                options.dataShards(), options.parityShards());
+        settings.setConcurrencyLimit(options.concurrency());
+        settings.setChunkSize(options.chunkSize());
+        settings.setVirtualThreads(options.virtual());
+        settings.setMaxConnectionsPerClient(options.perClient());
+        settings.setReplicationThreshold(options.replicate());
+        settings.setMetadataEncoding(options.metadata());
+        P2PClientConfig config = new P2PClientConfig(settings, transport);
+
+        FaultInjectingProxy proxy = null;
+        if (options.injectsFaults()) {
+            proxy = new FaultInjectingProxy(transport, config.getListeningPort(), options.latencyMillis(), options.failureRate());
+            proxy.start();
+        }
+        GossipService gossip = null;
+        if (options.gossip()) {
+            // gossip must hand out the proxied port, or faults would be bypassed
+            int advertisedPort = proxy != null ? proxy.getPort() : config.getListeningPort();
+            gossip = new GossipService(config, tracker::listPeers, advertisedPort);
+        }
+
+        P2PServer server = new P2PServer(config.getPortManager().getListener(), config.getMaxConnections(), config, gossip);
+        ReplicationService replication = null;
+        if (options.replicate() > 0) {
+            int advertisedPort = proxy != null ? proxy.getPort() : config.getListeningPort();
+            replication = new ReplicationService(config, tracker::listPeers, gossip, config.getLocalIPAddress(), advertisedPort);
+            server.setReplication(replication);
+        }
+        Thread serverThread = new Thread(server::start, "p2p-server-" + config.getListeningPort());
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return new Node(config, server, proxy, gossip, replication);
+    }
+
+    /**
+     * Stops the first options.restart() peers and starts them again on their data directories. The tracker forgets
+     * a stopped peer, as its heartbeat would, and a restarted one comes back on new ports, so its chunks are only
+     * found again through the announcement.
+     */
+    private static Restart restartPeers(InMemoryTracker tracker, Transport transport, List<Node> peers, Path workDirectory, Options options) throws Exception {
+        int count = Math.min(options.restart(), peers.size());
+        long chunks = 0;
+        long openNanos = 0;
+        int placements = 0;
+        long announceNanos = 0;
+        for (int i = 0; i < count; i++) {
+            Node old = peers.get(i);
+            long start = System.nanoTime();
+            old.stop();
+            tracker.removePeer(old.config().getLocalIPAddress(), old.advertisedPort());
+            Node peer = startNode(tracker, transport, workDirectory.resolve("peer-" + i), options); // not shuffled yet
+            openNanos = Math.max(openNanos, System.nanoTime() - start);
+            chunks += peer.config().getChunkStore().size();
+            peers.set(i, peer);
+
+            PeerService peerService = new PeerService(peer.config()); // registers the listening port
+            if (peer.proxy() != null) {
+                tracker.removePeer(peer.config().getLocalIPAddress(), peer.config().getListeningPort());
+                tracker.addPeer(peer.config().getLocalIPAddress(), peer.advertisedPort());
+            }
+            start = System.nanoTime();
+            placements += peerService.announceChunks(peer.config().getLocalIPAddress(), peer.advertisedPort());
+            announceNanos = Math.max(announceNanos, System.nanoTime() - start);
+        }
+        return new Restart(count, chunks, openNanos, placements, announceNanos);
+    }
+
+    /**
+     * Replication rounds on every node each second, instead of the 10 second schedule; null without --replicate.
+     */
+    private static ScheduledExecutorService replicationRounds(List<Node> peers, List<Client> clients) {
+        List<Node> nodes = new ArrayList<>(peers);
+        clients.forEach(client -> nodes.add(client.node()));
+        if (nodes.stream().allMatch(node -> node.replication() == null)) {
+            return null;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(() -> nodes.forEach(node -> node.replication().replicateNow()), 1, 1, TimeUnit.SECONDS);
+        return scheduler;
+    }
+
+    /**
+     * Two synchronous gossip rounds on every node, instead of waiting for the periodic schedule.
+     */
+    private static void gossipRounds(List<Node> peers, List<Client> clients) {
+        List<Node> nodes = new ArrayList<>(peers);
+        clients.forEach(client -> nodes.add(client.node()));
+        for (int round = 0; round < 2; round++) {
+            nodes.parallelStream().filter(node -> node.gossip() != null).forEach(node -> node.gossip().gossipNow());
+        }
+    }
+
+    // =======================
+    //  Workload
+    // =======================
+
+    private static void uploadBatch(Client client, int index, Options options, InMemoryTracker tracker,
+                                    List<UploadedFile> uploaded, Phase phase) throws Exception {
+        List<UploadPipeline.Source> sources = new ArrayList<>();
+        List<String> fileHashes = new ArrayList<>();
+        for (int f = 0; f < options.files(); f++) {
+            File file = BenchmarkFiles.randomFile(options.fileSize());
+            sources.add(new UploadPipeline.Source(file, "swarm-" + index + "-" + f + ".bin"));
+            fileHashes.add(HashUtils.computeHash(file));
+        }
+        long start = System.nanoTime();
+        client.fileService().uploadFiles(sources, options.pack());
+        for (int f = 0; f < sources.size(); f++) {
+            Integer fileId = tracker.findFileId(fileHashes.get(f));
+            sources.get(f).file().delete();
+            if (fileId != null) {
+                uploaded.add(new UploadedFile(fileId, fileHashes.get(f)));
+                phase.succeeded(start, options.fileSize());
+            } else {
+                phase.failed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Publishes each file once (not timed), changes one byte in a fraction updateRate of its chunks and times the
+     * upload of that new version.
+     */
+    private static void uploadVersions(Client client, int index, Options options, InMemoryTracker tracker,
+                                       List<UploadedFile> uploaded, Phase phase) throws Exception {
+        int chunkSize = client.node().config().getChunkSize(options.fileSize());
+        for (int f = 0; f < options.files(); f++) {
+            File file = BenchmarkFiles.randomFile(options.fileSize());
+            File named = new File(file.getParentFile(), "swarm-version-" + index + "-" + f + ".bin");
+            if (!file.renameTo(named)) named = file;
+            client.fileService().uploadFile(named, null);
+            Integer previousId = tracker.findFileId(HashUtils.computeHash(named));
+            if (previousId == null) {
+                named.delete();
+                phase.failed.incrementAndGet();
+                continue;
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(named, "rw")) {
+                for (long offset = 0; offset < options.fileSize(); offset += chunkSize) {
+                    if (ThreadLocalRandom.current().nextDouble() < options.updateRate()) {
+                        raf.seek(offset + ThreadLocalRandom.current().nextLong(Math.min(chunkSize, options.fileSize() - offset)));
+                        raf.write(ThreadLocalRandom.current().nextInt(256));
+                    }
+                }
+            }
+            String fileHash = HashUtils.computeHash(named);
+            long start = System.nanoTime();
+            boolean ok = client.fileService().uploadFileVersion(named, previousId);
+            Integer fileId = tracker.findFileId(fileHash);
+            named.delete();
+            if (ok && fileId != null) {
+                uploaded.add(new UploadedFile(fileId, fileHash));
+                phase.succeeded(start, options.fileSize());
+            } else {
+                phase.failed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Streams the whole file through a RemoteFileReader, checks its hash, then checks a random range read against it.
+     */
+    private static void streamFile(Client client, UploadedFile target, Phase phase) throws Exception {
+        long start = System.nanoTime();
+        try (RemoteFileReader reader = client.fileService().openFile(target.fileId())) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try (InputStream stream = reader.openStream(0)) {
+                stream.transferTo(content);
+            }
+            byte[] data = content.toByteArray();
+            boolean ok = target.fileHash().equals(HashUtils.computeHash(data));
+            if (ok && data.length > 0) {
+                int offset = ThreadLocalRandom.current().nextInt(data.length);
+                int length = ThreadLocalRandom.current().nextInt(data.length - offset) + 1;
+                ok = Arrays.equals(reader.read(offset, length), Arrays.copyOfRange(data, offset, offset + length));
+            }
+            if (ok) {
+                phase.succeeded(start, data.length);
+            } else {
+                phase.failed.incrementAndGet();
+            }
+        } catch (IOException e) {
+            phase.failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queues distinct files as concurrent background downloads sharing one TransferManager's pools.
+     */
+    private static void downloadJobs(Client client, Options options, List<UploadedFile> uploaded, Phase phase) throws Exception {
+        List<UploadedFile> targets = new ArrayList<>(uploaded);
+        Collections.shuffle(targets);
+        try (TransferManager transfers = new TransferManager(client.node().config())) {
+            List<TransferManager.Job> jobs = new ArrayList<>();
+            for (UploadedFile target : targets.subList(0, Math.min(options.downloads(), targets.size()))) {
+                long start = System.nanoTime();
+                ResFileDto fileMetaData = client.fileService().downloadFileMetadata(target.fileId());
+                if (fileMetaData == null) {
+                    phase.failed.incrementAndGet();
+                    continue;
+                }
+                jobs.add(transfers.submit("download " + target.fileId(), TransferManager.Priority.NORMAL, fileMetaData.file_size, context -> {
+                    File file = client.fileService().downloadFile(fileMetaData, context);
+                    boolean ok = file != null && target.fileHash().equals(HashUtils.computeHash(file));
+                    if (ok) {
+                        phase.succeeded(start, file.length());
+                    } else {
+                        phase.failed.incrementAndGet();
+                    }
+                    if (file != null) {
+                        file.delete();
+                    }
+                    return ok;
+                }));
+            }
+            for (TransferManager.Job job : jobs) {
+                job.await();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ClientScript {
+        void run(Client client, int clientIndex, Phase phase) throws Exception;
+    }
+
+    private static Phase runPhase(List<Client> clients, ClientScript script) throws InterruptedException {
+        Phase phase = new Phase();
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients.size());
+        long start = System.nanoTime();
+        phase.startNanos = start;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < clients.size(); i++) {
+            Client client = clients.get(i);
+            int index = i;
+            futures.add(executor.submit(() -> {
+                script.run(client, index, phase);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                phase.failed.incrementAndGet();
+                e.getCause().printStackTrace();
+            }
+        }
+        phase.wallNanos = System.nanoTime() - start;
+        executor.shutdown();
+        return phase;
+    }
+
+    // =======================
+    //  Report
+    // =======================
+
+    private static void printReport(PrintStream out, Options options, Phase upload, Phase update, Phase download,
+                                    Restart restart, List<Node> peers, List<Client> clients) {
+        out.printf("Swarm: %d peers, %d clients, %d files/client x %s, %d downloads/client%n",
+                options.peers(), options.clients(), options.files(), formatBytes(options.fileSize()), options.downloads());
+        out.printf("Faults: latency %d ms, failure rate %.2f, dead peers %d, gossip %s, erasure coding %s%n",
+                options.latencyMillis(), options.failureRate(), options.deadPeers(), options.gossip() ? "on" : "off",
+                options.dataShards() > 0 ? options.dataShards() + "+" + options.parityShards() : "off");
+        P2PClientConfig firstClient = clients.getFirst().node().config();
+        out.printf("Transfers: %s transport%s, %s metadata, chunk size %s, concurrency %s%n", options.transport(),
+                "memory".equals(options.transport()) && (options.linkMbps() > 0 || options.linkLatencyMillis() > 0)
+                        ? " (" + (options.linkMbps() > 0 ? options.linkMbps() + " Mbit/s" : "unlimited") + ", "
+                        + options.linkLatencyMillis() + " ms)" : "",
+                options.metadata(),
+                formatBytes(firstClient.getChunkSize(options.fileSize())),
+                options.concurrency() > 0 ? "fixed at " + options.concurrency() : "adaptive, final limits " + clients.stream()
+                        .map(client -> String.valueOf(client.node().config().getConcurrencyLimiter().getLimit()))
+                        .collect(Collectors.joining(", ")));
+        out.printf("Busy replies: %d to uploads, %d to downloads%n", sumCounters(clients, "upload.busy"), sumCounters(clients, "download.busy"));
+        if (options.reseed()) {
+            out.printf("Reseed: %d chunks kept by clients, %s served by clients%n", sumCounters(clients, "reseed.chunks"),
+                    formatBytes(sumCounters(clients, "server.bytes.sent")));
+        }
+        if (options.repair()) {
+            MetricsRegistry metrics = clients.getFirst().node().config().getMetrics();
+            out.printf("Repair: %d copies made of %d under-replicated chunks and shard groups, %d beyond repair%n",
+                    metrics.counter("repair.copies").getCount(), metrics.gauge("repair.under_replicated").getValue(),
+                    metrics.gauge("repair.lost").getValue());
+        }
+        if (restart != null) {
+            out.printf("Restart: %d peers reopened %d chunks, slowest in %.1f ms; %d placements announced, slowest in %.1f ms%n",
+                    restart.peers(), restart.chunks(), restart.openNanos() / 1e6, restart.placements(), restart.announceNanos() / 1e6);
+        }
+        if (options.replicate() > 0) {
+            List<Node> nodes = new ArrayList<>(peers);
+            clients.forEach(client -> nodes.add(client.node()));
+            long busiest = nodes.stream().mapToLong(node -> sumCounters(List.of(node), "server.bytes.sent")).max().orElse(0);
+            out.printf("Replication: %d replicas pushed, %d dropped; busiest node served %s of %s%n",
+                    sumCounters(nodes, "replication.pushes"), sumCounters(nodes, "replication.evictions"),
+                    formatBytes(busiest), formatBytes(sumCounters(nodes, "server.bytes.sent")));
+        }
+        out.println();
+        printPhase(out, "Upload", upload, mergeHistograms(clients, "upload.chunk.latency"));
+        if (update != null) {
+            printPhase(out, "Update", update, mergeHistograms(clients, "upload.chunk.latency"));
+            long reused = clients.stream().mapToLong(client -> client.node().config().getMetrics().counter("upload.chunks.reused").getCount()).sum();
+            out.printf("          chunks reused from previous versions: %d%n", reused);
+        }
+        printPhase(out, "Download", download, mergeHistograms(clients, "download.chunk.latency"));
+        printSpans(out, download, clients);
+    }
+
+    // where the download phase's chunk time went, from the clients' Tracer spans
+    private static void printSpans(PrintStream out, Phase phase, List<Client> clients) {
+        List<Tracer.Span> spans = new ArrayList<>();
+        for (Client client : clients) {
+            client.node().config().getTracer().snapshot().stream()
+                    .filter(span -> span.startNanos() >= phase.startNanos)
+                    .forEach(spans::add);
+        }
+        Map<Tracer.Phase, Long> totals = Tracer.totals(spans);
+        long all = totals.values().stream().mapToLong(Long::longValue).sum();
+        if (all == 0) {
+            return;
+        }
+        out.printf("          chunk time:%s%n", Arrays.stream(Tracer.Phase.values())
+                .map(p -> String.format(" %s %.0f%%", p.name().toLowerCase(), 100.0 * totals.getOrDefault(p, 0L) / all))
+                .collect(Collectors.joining(",")));
+    }
+
+    private static void printPhase(PrintStream out, String name, Phase phase, LatencyHistogram chunkLatency) {
+        double seconds = phase.wallNanos / 1e9;
+        double megabytes = phase.bytes.get() / (1024.0 * 1024.0);
+        out.printf("%-9s %d ok, %d failed, %.1f MB in %.2f s -> %.1f MB/s%n",
+                name + ":", phase.succeeded.get(), phase.failed.get(), megabytes, seconds,
+                seconds > 0 ? megabytes / seconds : 0.0);
+        printLatency(out, "file", phase.fileLatency);
+        printLatency(out, "chunk", chunkLatency);
+    }
+
+    private static void printLatency(PrintStream out, String label, LatencyHistogram h) {
+        out.printf("          %-5s latency (ms): n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f%n", label, h.getCount(),
+                h.getPercentile(0.50) / 1000.0, h.getPercentile(0.90) / 1000.0,
+                h.getPercentile(0.99) / 1000.0, h.getMax() / 1000.0);
+    }
+
+    // counters and meters, over all peers
+    private static long sumCounters(List<Client> clients, String name) {
+        return sumCounters(clients.stream().map(Client::node).toList(), name);
+    }
+
+    private static long sumCounters(Collection<Node> nodes, String name) {
+        long sum = 0;
+        for (Node node : nodes) {
+            for (Map.Entry<MetricKey, Metric> entry : node.config().getMetrics().getMetrics().entrySet()) {
+                if (entry.getKey().name().equals(name) && entry.getValue() instanceof Counter counter) {
+                    sum += counter.getCount();
+                } else if (entry.getKey().name().equals(name) && entry.getValue() instanceof Meter meter) {
+                    sum += meter.getCount();
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static LatencyHistogram mergeHistograms(List<Client> clients, String name) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (Client client : clients) {
+            MetricsRegistry metrics = client.node().config().getMetrics();
+            for (Map.Entry<MetricKey, Metric> entry : metrics.getMetrics().entrySet()) {
+                if (entry.getKey().name().equals(name) && entry.getValue() instanceof LatencyHistogram h) {
+                    merged.merge(h);
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes >= 1 << 30) return String.format("%.1f GB", bytes / (double) (1 << 30));
+        if (bytes >= 1 << 20) return String.format("%.1f MB", bytes / (double) (1 << 20));
+        if (bytes >= 1 << 10) return String.format("%.1f KB", bytes / (double) (1 << 10));
+        return bytes + " B";
+    }
+
+    // =======================
+    //  Arguments
+    // =======================
+
+    private static Options parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        boolean verbose = false;
+        boolean gossip = false;
+        boolean batch = false;
+        boolean pack = false;
+        boolean stream = false;
+        boolean jobs = false;
+        boolean virtual = false;
+        boolean reseed = false;
+        boolean repair = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--verbose")) {
+                verbose = true;
+            } else if (args[i].equals("--gossip")) {
+                gossip = true;
+            } else if (args[i].equals("--batch")) {
+                batch = true;
+            } else if (args[i].equals("--pack")) {
+                pack = true;
+            } else if (args[i].equals("--stream")) {
+                stream = true;
+            } else if (args[i].equals("--jobs")) {
+                jobs = true;
+            } else if (args[i].equals("--virtual")) {
+                virtual = true;
+            } else if (args[i].equals("--reseed")) {
+                reseed = true;
+            } else if (args[i].equals("--repair")) {
+                repair = true;
+            } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                values.put(args[i].substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+        String[] ec = values.getOrDefault("ec", "").split("\\+");
+        return new Options(
+                Integer.parseInt(values.getOrDefault("peers", "8")),
+                Integer.parseInt(values.getOrDefault("clients", "2")),
+                Integer.parseInt(values.getOrDefault("files", "2")),
+                parseSize(values.getOrDefault("file-size", "16m")),
+                Integer.parseInt(values.getOrDefault("downloads", "4")),
+                Long.parseLong(values.getOrDefault("latency-ms", "0")),
+                Double.parseDouble(values.getOrDefault("failure-rate", "0.0")),
+                Integer.parseInt(values.getOrDefault("dead-peers", "0")),
+                gossip,
+                batch,
+                pack,
+                ec.length == 2 ? Integer.parseInt(ec[0]) : 0,
+                ec.length == 2 ? Integer.parseInt(ec[1]) : 0,
+                Double.parseDouble(values.getOrDefault("update-rate", "0")),
+                stream,
+                jobs,
+                Integer.parseInt(values.getOrDefault("concurrency", "0")),
+                (int) parseSize(values.getOrDefault("chunk-size", "0")),
+                virtual,
+                Integer.parseInt(values.getOrDefault("per-client", "0")),
+                reseed,
+                repair,
+                Integer.parseInt(values.getOrDefault("replicate", "0")),
+                Integer.parseInt(values.getOrDefault("restart", "0")),
+                values.getOrDefault("transport", "tcp"),
+                Double.parseDouble(values.getOrDefault("link-mbps", "0")),
+                Long.parseLong(values.getOrDefault("link-latency-ms", "0")),
+                values.getOrDefault("metadata", "smile"),
+                verbose);
+    }
+
+    private static long parseSize(String value) {
+        String v = value.trim().toLowerCase();
+        long multiplier = switch (v.charAt(v.length() - 1)) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            default -> 1L;
+        };
+        String digits = multiplier == 1 ? v : v.substring(0, v.length() - 1);
+        return Long.parseLong(digits) * multiplier;
+    }
+}
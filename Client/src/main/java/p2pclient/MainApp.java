@@ -2,12 +2,18 @@ package p2pclient;
 
 import p2pclient.config.P2PClientConfig;
 import p2pclient.config.P2PSettings;
+import p2pclient.metrics.MetricsHttpServer;
+import p2pclient.metrics.MetricsMBean;
+import p2pclient.net.GossipService;
 import p2pclient.net.P2PServer;
+import p2pclient.net.ReplicationService;
 import p2pclient.service.*;
 import p2pclient.cli.MainCLI;
 import p2pclient.utils.PortManager;
 
+import javax.management.ObjectName;
 import java.io.File;
+import java.io.IOException;
 import java.util.Scanner;
 
 public class MainApp {
@@ -26,17 +32,76 @@ public class MainApp {
         System.out.println(config);
 
         PeerService peerService = new PeerService(config);
-        FileService fileService = new FileService(config, peerService);
+        GossipService gossipService = new GossipService(config, peerService::getPeers);
+        Reseeder reseeder = config.isReseed() ? new Reseeder(config, config.getLocalIPAddress(), config.getListeningPort()) : null;
+        FileService fileService = new FileService(config, peerService, gossipService, reseeder);
+        RepairService repair = config.isRepair() ? new RepairService(config, fileService, peerService::getPeers, gossipService) : null;
 
-        P2PServer p2pServer = new P2PServer(portManager.getServerSocket(), config.getMaxThreads(), config);
+        P2PServer p2pServer = new P2PServer(portManager.getListener(), config.getMaxConnections(), config, gossipService);
+        ReplicationService replication = null;
+        if (config.getReplicationThreshold() > 0) {
+            replication = new ReplicationService(config, peerService::getPeers, gossipService, config.getLocalIPAddress(), config.getListeningPort());
+            p2pServer.setReplication(replication);
+            replication.start();
+        }
         new Thread(p2pServer::start).start();
+        Thread announce = new Thread(() -> {
+            try {
+                peerService.announceChunks(config.getLocalIPAddress(), config.getListeningPort());
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "announce");
+        announce.setDaemon(true);
+        announce.start();
+        gossipService.start();
+        if (reseeder != null) {
+            reseeder.start();
+        }
+        if (repair != null) {
+            repair.start();
+        }
+
+        ObjectName metricsBean = MetricsMBean.register(config.getMetrics(), config.getListeningPort());
+        MetricsHttpServer metricsServer = null;
+        if (config.getMetricsPort() > 0) {
+            try {
+                metricsServer = new MetricsHttpServer(config.getMetrics(), config.getTracer(), config.getMetricsPort());
+                metricsServer.start();
+            } catch (IOException e) {
+                System.err.println("Failed to start metrics endpoint: " + e.getMessage());
+            }
+        }
 
-        MainCLI cli = new MainCLI(peerService, fileService, scanner);
+        TransferManager transfers = new TransferManager(config);
+        MainCLI cli = new MainCLI(peerService, fileService, transfers, config.getMetrics(), config.getTracer(), scanner);
         cli.startCLI();
 
         scanner.close();
+        transfers.close();
+        if (reseeder != null) {
+            reseeder.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        MetricsMBean.unregister(metricsBean);
+        if (replication != null) {
+            replication.stop();
+        }
+        if (repair != null) {
+            repair.stop();
+        }
+        gossipService.stop();
         p2pServer.stop();
         portManager.close();
+        try {
+            config.getChunkStore().close();
+        } catch (IOException e) {
+            System.err.println("Failed to close chunk store: " + e.getMessage());
+        }
     }
 
 }
\ No newline at end of file
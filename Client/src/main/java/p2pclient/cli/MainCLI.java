@@ -1,29 +1,47 @@
 package p2pclient.cli;
 
 import p2pclient.config.P2PClientConfig;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.metrics.Tracer;
 import p2pclient.service.*;
 import p2pclient.dto.*;
+import p2pclient.net.RemoteFileReader;
+import p2pclient.net.UploadPipeline;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
 import java.util.Scanner;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.List;
 
 public class MainCLI {
     private final PeerService peerService;
     private final FileService fileService;
+    private final TransferManager transfers;
+    private final MetricsRegistry metrics;
+    private final Tracer tracer;
     private final Scanner scanner;
     private Path currentDirectory;
 
-    public MainCLI(PeerService peerService, FileService fileService, Scanner scanner) {
+    public MainCLI(PeerService peerService, FileService fileService, TransferManager transfers, MetricsRegistry metrics, Tracer tracer,
+                   Scanner scanner) {
         this.peerService = peerService;
         this.fileService = fileService;
+        this.transfers = transfers;
+        this.metrics = metrics;
+        this.tracer = tracer;
         this.scanner = scanner;
         this.currentDirectory = Paths.get(System.getProperty("user.dir"));
     }
@@ -63,6 +81,21 @@ public class MainCLI {
                     case "download":
                         handleDownloadFile(tokens);
                         break;
+                    case "cat":
+                        handleCat(tokens);
+                        break;
+                    case "jobs":
+                        handleJobs();
+                        break;
+                    case "cancel":
+                        handleCancel(tokens);
+                        break;
+                    case "stats":
+                        handleStats();
+                        break;
+                    case "trace":
+                        handleTrace(tokens);
+                        break;
                     case "ls":
                         handleLS();
                         break;
@@ -132,20 +165,42 @@ public class MainCLI {
         } else {
             System.out.println("Available Files:");
             for (ResFileDto file : allFiles) {
-                System.out.printf(" - ID: %d | Name: %s | Hash: %s | Size: %d bytes | Enc: %b%n",
+                System.out.printf(" - ID: %d | Name: %s | Hash: %s | Size: %d bytes | Enc: %b%s%n",
                         file.file_id, file.file_name, file.file_hash,
-                        file.file_size, file.file_enc);
+                        file.file_size, file.file_enc,
+                        file.file_previous_id != null ? " | Version of: " + file.file_previous_id : "");
             }
         }
     }
 
-    private void handleUploadFile(String[] tokens) throws IOException, InterruptedException, NoSuchAlgorithmException {
+    private void handleUploadFile(String[] tokens) throws IOException, InterruptedException {
+        TransferManager.Priority priority = parsePriority(tokens);
+        if (priority == null) {
+            return;
+        }
+        tokens = withoutPriority(tokens);
         if (tokens.length < 2) {
             System.out.println("Usage: uploadFile <name>");
             return;
         }
 
+        if ("--pack".equals(tokens[1])) {
+            if (tokens.length < 3) {
+                System.out.println("Usage: upload --pack <dir | glob>");
+                return;
+            }
+            handleUploadMany(tokens[2], true, priority);
+            return;
+        }
+        if ("--update".equals(tokens[1])) {
+            handleUploadVersion(tokens, priority);
+            return;
+        }
         String fileName = tokens[1];
+        if (isGlob(fileName) || Files.isDirectory(currentDirectory.resolve(fileName))) {
+            handleUploadMany(fileName, false, priority);
+            return;
+        }
         File file = new File(System.getProperty("user.dir"), fileName);
 
         if (!file.exists() || !file.isFile()) {
@@ -191,23 +246,209 @@ public class MainCLI {
             }
         }
 
-        boolean success = fileService.uploadFile(file, password);
+        String filePassword = password;
+        submit("upload " + fileName, priority, fileSize, context -> fileService.uploadFile(file, filePassword, context));
+    }
+
+    /**
+     * Uploads every regular file under a directory (recursively) or matching a glob, relative to the current
+     * directory. Files are registered under their path relative to it, e.g. photos/2024/a.jpg. Not encrypted.
+     * With {@code pack}, small files share chunks instead of getting one each.
+     */
+    private void handleUploadMany(String pattern, boolean pack, TransferManager.Priority priority) throws IOException {
+        List<Path> files;
+        if (isGlob(pattern)) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            try (Stream<Path> paths = Files.walk(currentDirectory)) {
+                files = paths.filter(Files::isRegularFile)
+                        .filter(path -> matcher.matches(currentDirectory.relativize(path)))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        } else {
+            try (Stream<Path> paths = Files.walk(currentDirectory.resolve(pattern))) {
+                files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+        }
+        if (files.isEmpty()) {
+            System.out.println("No files match '" + pattern + "'.");
+            return;
+        }
+
+        List<UploadPipeline.Source> sources = new ArrayList<>(files.size());
+        long totalSize = 0;
+        for (Path path : files) {
+            String name = currentDirectory.relativize(path).toString().replace(File.separatorChar, '/');
+            sources.add(new UploadPipeline.Source(path.toFile(), name));
+            totalSize += path.toFile().length();
+        }
+        System.out.printf("Uploading %d files (Size: %d bytes)%n", sources.size(), totalSize);
+        submit("upload " + pattern + " (" + sources.size() + " files)", priority, totalSize,
+                context -> fileService.uploadFiles(sources, pack, context) == sources.size());
+    }
 
+    /**
+     * Uploads a new version of a file: {@code upload --update <fileName> [previousFileId]}. Without an id the newest
+     * catalog file of the same name is the previous version.
+     */
+    private void handleUploadVersion(String[] tokens, TransferManager.Priority priority) throws IOException, InterruptedException {
+        if (tokens.length < 3) {
+            System.out.println("Usage: upload --update <fileName> [previousFileId]");
+            return;
+        }
+        File file = currentDirectory.resolve(tokens[2]).toFile();
+        if (!file.isFile()) {
+            System.out.println("Error: File '" + tokens[2] + "' not found in current directory.");
+            return;
+        }
+
+        int previousFileId;
+        if (tokens.length > 3) {
+            previousFileId = Integer.parseInt(tokens[3]);
+        } else {
+            Optional<ResFileDto> latest = fileService.getAllFiles().stream()
+                    .filter(candidate -> candidate.file_name.equals(file.getName()))
+                    .max(Comparator.comparing(candidate -> candidate.file_id));
+            if (latest.isEmpty()) {
+                System.out.println("No previous version of '" + file.getName() + "' found; use upload instead.");
+                return;
+            }
+            previousFileId = latest.get().file_id;
+        }
+
+        System.out.printf("Uploading new version of file %d: %s (Size: %d bytes)%n", previousFileId, file.getName(), file.length());
+        int previous = previousFileId;
+        submit("upload " + file.getName() + " as new version of " + previous, priority, file.length(),
+                context -> fileService.uploadFileVersion(file, previous, context));
+    }
+
+    private static boolean isGlob(String pattern) {
+        return pattern.contains("*") || pattern.contains("?") || pattern.contains("[") || pattern.contains("{");
+    }
+
+    /**
+     * Writes a swarm file, or the range [offset, offset + length) of it, to stdout without downloading it first.
+     */
+    private void handleCat(String[] tokens) throws IOException, InterruptedException {
+        if (tokens.length < 2) {
+            System.out.println("Usage: cat <fileId> [offset] [length]");
+            return;
+        }
+        int fileId = Integer.parseInt(tokens[1]);
+        long offset = tokens.length > 2 ? Long.parseLong(tokens[2]) : 0;
+        try (RemoteFileReader reader = fileService.openFile(fileId)) {
+            if (reader == null) {
+                System.out.println("File " + fileId + " not found.");
+                return;
+            }
+            if (tokens.length > 3) {
+                System.out.write(reader.read(offset, Integer.parseInt(tokens[3])));
+            } else {
+                try (InputStream stream = reader.openStream(offset)) {
+                    stream.transferTo(System.out);
+                }
+            }
+            System.out.flush();
+        }
     }
 
     private void handleDownloadFile(String[] tokens) throws IOException, InterruptedException {
+        TransferManager.Priority priority = parsePriority(tokens);
+        if (priority == null) {
+            return;
+        }
+        tokens = withoutPriority(tokens);
         if (tokens.length < 2) {
             System.out.println("Usage: downloadFile <fileId>");
             return;
         }
         int fileId = Integer.parseInt(tokens[1]);
-        ResFileDto downloaded = fileService.downloadFileMetadata(fileId);
+        ResFileDto fileMetaData = fileService.downloadFileMetadata(fileId);
+        if (fileMetaData == null) {
+            System.out.println("Download of file " + fileId + " failed.");
+            return;
+        }
+        submit("download " + fileMetaData.file_name, priority, fileMetaData.file_size,
+                context -> fileService.downloadFile(fileMetaData, context) != null);
+    }
+
+    // =======================
+    //  Background transfers
+    // =======================
+
+    private void submit(String description, TransferManager.Priority priority, long totalBytes, TransferManager.Transfer transfer) {
+        TransferManager.Job job = transfers.submit(description, priority, totalBytes, transfer);
+        System.out.println("Job " + job.getId() + " queued: " + description + " (type 'jobs' for progress)");
+    }
+
+    /**
+     * Reads the optional {@code --priority <low|normal|high>} option.
+     *
+     * @return the priority, NORMAL if absent, or null (after printing why) if it is invalid
+     */
+    private static TransferManager.Priority parsePriority(String[] tokens) {
+        int flag = Arrays.asList(tokens).indexOf("--priority");
+        if (flag < 0) {
+            return TransferManager.Priority.NORMAL;
+        }
+        try {
+            return TransferManager.Priority.valueOf(tokens[flag + 1].toUpperCase());
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println("Usage: --priority <low | normal | high>");
+            return null;
+        }
+    }
 
-//        if (downloaded != null) {
-//            System.out.println("Downloaded File: " + downloaded.getFileName()
-//                    + " / #chunks=" + (downloaded.getFileChunks() != null ? downloaded.getFileChunks().size() : 0));
-//            fileService.parallelDownloadChunks(downloaded);
-//        }
+    private static String[] withoutPriority(String[] tokens) {
+        List<String> rest = new ArrayList<>(Arrays.asList(tokens));
+        int flag = rest.indexOf("--priority");
+        if (flag >= 0) {
+            rest.subList(flag, Math.min(flag + 2, rest.size())).clear();
+        }
+        return rest.toArray(new String[0]);
+    }
+
+    private void handleJobs() {
+        List<TransferManager.Job> jobs = transfers.getJobs();
+        if (jobs.isEmpty()) {
+            System.out.println("No transfers yet.");
+            return;
+        }
+        System.out.println("Transfers:");
+        for (TransferManager.Job job : jobs) {
+            long total = job.getTotalBytes();
+            double percent = total > 0 ? 100.0 * job.getTransferredBytes() / total : 100.0;
+            System.out.printf(" - Job %d | %s | %s | %s | %.1f%% of %d bytes | %.2f MB/s%n",
+                    job.getId(), job.getState(), job.getPriority(), job.getDescription(),
+                    Math.min(100.0, percent), total, job.getThroughput() / (1024 * 1024));
+        }
+    }
+
+    private void handleCancel(String[] tokens) {
+        if (tokens.length < 2) {
+            System.out.println("Usage: cancel <jobId>");
+            return;
+        }
+        int jobId = Integer.parseInt(tokens[1]);
+        if (transfers.cancel(jobId)) {
+            System.out.println("Cancelling job " + jobId + ".");
+        } else {
+            System.out.println("No running or queued job " + jobId + ".");
+        }
+    }
+
+    private void handleStats() {
+        System.out.print(metrics.renderText());
+    }
+
+    private void handleTrace(String[] tokens) throws IOException {
+        if (tokens.length < 2) {
+            System.out.print(tracer.renderSummary());
+            return;
+        }
+        Path target = currentDirectory.resolve(tokens[1]);
+        Files.writeString(target, tracer.renderJson());
+        System.out.println("Wrote chunk spans to " + target);
     }
 
     private void handleLS() {
@@ -280,8 +521,17 @@ public class MainCLI {
         System.out.println("  removePeer <ip> <port>   - Debug Only: Remove a peer");
         System.out.println("  listPeers                - List all active peers");
         System.out.println("  listFiles                - List available files");
-        System.out.println("  upload <fileName>        - Upload a file");
-        System.out.println("  download <fileId>        - Download a file");
+        System.out.println("  upload <fileName>        - Upload a file in the background");
+        System.out.println("  upload <dir | glob>      - Upload a directory (recursively) or all files matching a glob, e.g. **/*.csv");
+        System.out.println("  upload --pack <dir | glob> - Same, but small files are packed into shared chunks");
+        System.out.println("  upload --update <fileName> [fileId] - Upload a new version, sending only changed chunks");
+        System.out.println("  download <fileId>        - Download a file in the background");
+        System.out.println("  upload/download ... --priority <low|normal|high> - Run the transfer before or after others");
+        System.out.println("  jobs                     - Show transfers with their progress and throughput");
+        System.out.println("  cancel <jobId>           - Cancel a queued or running transfer");
+        System.out.println("  cat <fileId> [offset] [length] - Print a file or a byte range of it without downloading it");
+        System.out.println("  stats                    - Show transfer metrics (throughput, latency, failures)");
+        System.out.println("  trace [file]             - Show where recent chunk transfers spent their time, or save their spans as JSON");
         System.out.println("  reset                    - reset all settings");
         System.out.println("  exit / quit              - Exit CLI\n");
     }
@@ -2,37 +2,104 @@ package p2pclient.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.metrics.Tracer;
+import p2pclient.net.ConcurrencyLimiter;
+import p2pclient.store.ChunkStore;
+import p2pclient.transport.Transport;
+import p2pclient.utils.MetadataCodec;
 import p2pclient.utils.PortManager;
 
 import java.io.File;
 import java.net.http.HttpClient;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * P2PClientConfig - Server Address, HttpClient, ObjectMapper, listening Port, ...
+ * Unless p2pSettings.json fixes them, the chunk size is picked per file (about TARGET_CHUNKS_PER_FILE chunks,
+ * a power of two between the minimum and maximum chunk size) and the number of concurrent transfers adapts to the
+ * link through the shared {@link ConcurrencyLimiter}.
  */
 public class P2PClientConfig {
 
     private final String baseUrl;
+    private final Transport transport;
     private final PortManager portManager;
     private final HttpClient httpClient;
     private final ObjectMapper mapper;
-    private final int CHUNK_SIZE = 1024 * 1024; // 1 MB
+    private final MetadataCodec metadataCodec;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Tracer tracer;
+    private final int metricsPort;
+    private final String dataDirectory;
+    private final int erasureDataShards;
+    private final int erasureParityShards;
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024; // 1 MB, also the size of a pack of small files
+    private static final int DEFAULT_MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int DEFAULT_MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int TARGET_CHUNKS_PER_FILE = 32;
+    private static final int DEFAULT_MAX_THREADS = 16;
+    private static final int DEFAULT_MAX_CONCURRENCY_PER_PEER = 8;
+    private static final int DEFAULT_MAX_VIRTUAL_CONNECTIONS = 1024;
     private final int NUMBER_OF_COPIES = 2;
-    private final int MAX_THREADS = 5;
+    private final int fixedChunkSize; // 0 = by file size
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final int maxThreads;
+    private final boolean virtualThreads;
+    private final int maxConnections;
+    private final int maxPendingConnections;
+    private final int maxConnectionsPerClient;
+    private final boolean reseed;
+    private final boolean repair;
+    private final int replicationThreshold;
+    private final ConcurrencyLimiter concurrencyLimiter;
     private final Map<String, String> directories = new HashMap<>();
+    private final ChunkStore chunkStore;
 
     public P2PClientConfig(P2PSettings settings) {
+        this(settings, Transport.named(settings.getTransport()));
+    }
+
+    /**
+     * @param transport how this node listens for and connects to peers; simulated swarms pass one shared
+     *                  InMemoryTransport
+     */
+    public P2PClientConfig(P2PSettings settings, Transport transport) {
         this.baseUrl = settings.getBaseUrl();
-        this.portManager = new PortManager(settings.getListeningPort());
+        this.transport = transport;
+        this.portManager = new PortManager(settings.getListeningPort(), transport);
         this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
         this.mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        this.metadataCodec = new MetadataCodec(mapper, !"json".equalsIgnoreCase(settings.getMetadataEncoding()));
+        this.metricsPort = settings.getMetricsPort();
+        this.tracer = new Tracer(settings.getTraceSpans() == 0 ? Tracer.DEFAULT_CAPACITY : settings.getTraceSpans());
+        this.dataDirectory = settings.getDataDirectory();
+        this.erasureDataShards = settings.getErasureDataShards();
+        this.erasureParityShards = settings.getErasureParityShards();
+        this.fixedChunkSize = Math.max(0, settings.getChunkSize());
+        this.minChunkSize = settings.getMinChunkSize() > 0 ? settings.getMinChunkSize() : DEFAULT_MIN_CHUNK_SIZE;
+        this.maxChunkSize = Math.max(minChunkSize, settings.getMaxChunkSize() > 0 ? settings.getMaxChunkSize() : DEFAULT_MAX_CHUNK_SIZE);
+        this.maxThreads = settings.getMaxThreads() > 0 ? settings.getMaxThreads() : DEFAULT_MAX_THREADS;
+        this.virtualThreads = settings.isVirtualThreads();
+        this.maxConnections = settings.getMaxConnections() > 0 ? settings.getMaxConnections()
+                : virtualThreads ? DEFAULT_MAX_VIRTUAL_CONNECTIONS : maxThreads;
+        this.maxPendingConnections = settings.getMaxPendingConnections() > 0 ? settings.getMaxPendingConnections() : maxConnections;
+        this.maxConnectionsPerClient = settings.getMaxConnectionsPerClient() > 0 ? settings.getMaxConnectionsPerClient() : maxConnections;
+        this.reseed = settings.isReseed();
+        this.repair = settings.isRepair();
+        this.replicationThreshold = Math.max(0, settings.getReplicationThreshold());
+        int maxPerPeer = settings.getMaxConcurrencyPerPeer() > 0 ? settings.getMaxConcurrencyPerPeer() : DEFAULT_MAX_CONCURRENCY_PER_PEER;
+        this.concurrencyLimiter = ConcurrencyLimiter.create(Math.min(settings.getConcurrencyLimit(), maxThreads), maxThreads, maxPerPeer, metrics);
         directories.put("complete", "downloads/complete");
         directories.put("incomplete", "downloads/incomplete");
         directories.put("uploads", "uploads");
 
         ensureDirectoriesExist();
+        this.chunkStore = new ChunkStore(directories.get("uploads"));
     }
 
     public String getBaseUrl() {
@@ -47,6 +114,13 @@ public class P2PClientConfig {
         return mapper;
     }
 
+    /**
+     * @return the encoding of file metadata exchanged with the tracker
+     */
+    public MetadataCodec getMetadataCodec() {
+        return metadataCodec;
+    }
+
     public int getListeningPort() {
         return portManager.getListeningPort();
     }
@@ -59,16 +133,134 @@ public class P2PClientConfig {
         return portManager;
     }
 
+    /**
+     * @return how peers are served and contacted
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the per-chunk spans of this node's transfers
+     */
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    /**
+     * @return the fixed chunk size, or the default one; packs of small files are this large
+     */
     public int getChunkSize() {
-        return CHUNK_SIZE;
+        return fixedChunkSize > 0 ? fixedChunkSize : DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * @return the fixed chunk size, or a power of two that splits the file into about TARGET_CHUNKS_PER_FILE chunks,
+     *         between the minimum and maximum chunk size
+     */
+    public int getChunkSize(long fileSize) {
+        if (fixedChunkSize > 0) {
+            return fixedChunkSize;
+        }
+        long target = Long.highestOneBit(Math.max(1, fileSize / TARGET_CHUNKS_PER_FILE));
+        return Math.clamp(target, minChunkSize, maxChunkSize);
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
     }
 
     public int getNumberOfCopies() {
         return NUMBER_OF_COPIES;
     }
 
+    /**
+     * @return true if uploads store k data + m parity shards per chunk group instead of NUMBER_OF_COPIES replicas
+     */
+    public boolean isErasureCoded() {
+        return erasureDataShards > 0 && erasureParityShards >= 0;
+    }
+
+    public int getErasureDataShards() {
+        return erasureDataShards;
+    }
+
+    public int getErasureParityShards() {
+        return erasureParityShards;
+    }
+
     public int getMaxThreads() {
-        return MAX_THREADS;
+        return maxThreads;
+    }
+
+    /**
+     * @return true if connections and chunk transfers each run on a virtual thread, bounded by semaphores and the
+     *         {@link ConcurrencyLimiter} instead of by pool size
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return how many peer connections the P2PServer handles at once
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return how many accepted connections may wait for a handler before the P2PServer answers "busy"
+     */
+    public int getMaxPendingConnections() {
+        return maxPendingConnections;
+    }
+
+    /**
+     * @return how many connections from one IP the P2PServer handles or queues at once
+     */
+    public int getMaxConnectionsPerClient() {
+        return maxConnectionsPerClient;
+    }
+
+    /**
+     * @return true if downloaded chunks are kept, served and announced to the tracker (see Reseeder)
+     */
+    public boolean isReseed() {
+        return reseed;
+    }
+
+    /**
+     * @return true if this node restores the copies of chunks that lost holders (see RepairService)
+     */
+    public boolean isRepair() {
+        return repair;
+    }
+
+    /**
+     * @return requests per second for a chunk this node serves to be pushed to more peers (see ReplicationService);
+     * 0 if proactive replication is off
+     */
+    public int getReplicationThreshold() {
+        return replicationThreshold;
+    }
+
+    /**
+     * @return a new executor for chunk transfers: a virtual thread per task, or MAX_THREADS platform threads
+     */
+    public ExecutorService newTransferExecutor() {
+        return virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(maxThreads);
     }
 
     public Map<String, String> getDirectories() {
@@ -81,7 +273,7 @@ public class P2PClientConfig {
 
     private void ensureDirectoriesExist() {
         for (Map.Entry<String, String> entry : directories.entrySet()) {
-            File dir = new File(entry.getValue());
+            File dir = dataDirectory == null ? new File(entry.getValue()) : new File(dataDirectory, entry.getValue());
             if (!dir.exists()) {
                 if (dir.mkdirs()) {
                     System.out.println("Created directory: " + dir.getAbsolutePath());
@@ -102,10 +294,17 @@ public class P2PClientConfig {
            Base URL         : %s
            Local IP         : %s
            Listening Port   : %d
-           Chunk Size       : %d bytes
+           Transport        : %s
+           Chunk Size       : %s
            Number of Copies : %d
-           Max Threads      : %d
+           Erasure Coding   : %s
+           Max Threads      : %s
+           Concurrency      : %s
            ===========================
-           """.formatted(baseUrl, getLocalIPAddress(), getListeningPort(), CHUNK_SIZE, NUMBER_OF_COPIES, MAX_THREADS);
+           """.formatted(baseUrl, getLocalIPAddress(), getListeningPort(), transport.getName(),
+                fixedChunkSize > 0 ? fixedChunkSize + " bytes" : "by file size, " + minChunkSize + " - " + maxChunkSize + " bytes",
+                NUMBER_OF_COPIES, isErasureCoded() ? erasureDataShards + "+" + erasureParityShards : "off",
+                virtualThreads ? "virtual threads" : String.valueOf(maxThreads),
+                concurrencyLimiter.isAdaptive() ? "adaptive, up to " + maxThreads : "fixed at " + concurrencyLimiter.getLimit());
     }
 }
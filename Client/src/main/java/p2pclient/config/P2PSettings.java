@@ -12,6 +12,42 @@ public class P2PSettings {
     private String serverAddress;
     private int serverPort;
     private int listeningPort;
+    private int metricsPort; // optional, 0 = disabled
+    private String dataDirectory; // optional, base for uploads/ and downloads/ (default: working directory)
+    private int erasureDataShards; // optional, k data shards per chunk group; 0 = full replicas
+    private int erasureParityShards; // optional, m parity shards per chunk group
+    private int maxThreads; // optional, transfer threads and upper bound of concurrent transfers (default 16)
+    private boolean virtualThreads; // optional, a virtual thread per connection and transfer; maxThreads then only bounds concurrency
+    private int maxConnections; // optional, peer connections served at once (default maxThreads, 1024 with virtual threads)
+    private int maxPendingConnections; // optional, connections waiting to be served before peers are told "busy" (default maxConnections)
+    private int maxConnectionsPerClient; // optional, connections served or waiting per remote IP (default maxConnections)
+    private boolean reseed; // optional, keep downloaded chunks, serve them and announce them to the tracker
+    private boolean repair; // optional, restore the copies of chunks whose holders left the swarm
+    private int replicationThreshold; // optional, requests per second that make a served chunk hot and replicated further; 0 = off
+    private int traceSpans; // optional, per-chunk transfer spans kept for `trace` and /trace (default 65536); -1 = off
+    private String transport; // optional, "tcp" (default) or "nio": how peers connect to each other
+    private String metadataEncoding; // optional, "smile" (default, used if the tracker speaks it) or "json"
+    private int concurrencyLimit; // optional, fixed number of concurrent transfers; 0 = adapt to the link
+    private int maxConcurrencyPerPeer; // optional, upper bound of concurrent transfers per peer (default 8)
+    private int chunkSize; // optional, fixed chunk size in bytes; 0 = pick by file size
+    private int minChunkSize; // optional, smallest chunk size picked by file size (default 256 KB)
+    private int maxChunkSize; // optional, largest chunk size picked by file size (default 8 MB)
+
+    public P2PSettings() {}
+
+    public P2PSettings(String serverAddress, int serverPort, int listeningPort, String dataDirectory) {
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+        this.listeningPort = listeningPort;
+        this.dataDirectory = dataDirectory;
+    }
+
+    public P2PSettings(String serverAddress, int serverPort, int listeningPort, String dataDirectory,
+                       int erasureDataShards, int erasureParityShards) {
+        this(serverAddress, serverPort, listeningPort, dataDirectory);
+        this.erasureDataShards = erasureDataShards;
+        this.erasureParityShards = erasureParityShards;
+    }
 
     public static P2PSettings loadSettings() {
         File file = new File(SETTINGS_FILE);
@@ -59,6 +95,36 @@ public class P2PSettings {
     public String getServerAddress() { return serverAddress; }
     public int getServerPort() { return serverPort; }
     public int getListeningPort() { return listeningPort; }
+    public int getMetricsPort() { return metricsPort; }
+    public String getDataDirectory() { return dataDirectory; }
+    public int getErasureDataShards() { return erasureDataShards; }
+    public int getErasureParityShards() { return erasureParityShards; }
+    public int getMaxThreads() { return maxThreads; }
+    public boolean isVirtualThreads() { return virtualThreads; }
+    public int getMaxConnections() { return maxConnections; }
+    public int getMaxPendingConnections() { return maxPendingConnections; }
+    public int getMaxConnectionsPerClient() { return maxConnectionsPerClient; }
+    public boolean isReseed() { return reseed; }
+    public boolean isRepair() { return repair; }
+    public int getReplicationThreshold() { return replicationThreshold; }
+    public int getTraceSpans() { return traceSpans; }
+    public String getTransport() { return transport; }
+    public String getMetadataEncoding() { return metadataEncoding; }
+    public int getConcurrencyLimit() { return concurrencyLimit; }
+    public int getMaxConcurrencyPerPeer() { return maxConcurrencyPerPeer; }
+    public int getChunkSize() { return chunkSize; }
+    public int getMinChunkSize() { return minChunkSize; }
+    public int getMaxChunkSize() { return maxChunkSize; }
+    public void setConcurrencyLimit(int concurrencyLimit) { this.concurrencyLimit = concurrencyLimit; }
+    public void setChunkSize(int chunkSize) { this.chunkSize = chunkSize; }
+    public void setVirtualThreads(boolean virtualThreads) { this.virtualThreads = virtualThreads; }
+    public void setMaxConnectionsPerClient(int maxConnectionsPerClient) { this.maxConnectionsPerClient = maxConnectionsPerClient; }
+    public void setReseed(boolean reseed) { this.reseed = reseed; }
+    public void setRepair(boolean repair) { this.repair = repair; }
+    public void setReplicationThreshold(int replicationThreshold) { this.replicationThreshold = replicationThreshold; }
+    public void setTraceSpans(int traceSpans) { this.traceSpans = traceSpans; }
+    public void setTransport(String transport) { this.transport = transport; }
+    public void setMetadataEncoding(String metadataEncoding) { this.metadataEncoding = metadataEncoding; }
     @JsonIgnore
     public String getBaseUrl() { return serverAddress + ":" + serverPort; }
 }
\ No newline at end of file
@@ -6,6 +6,8 @@ public class ReqChunkDto {
     public Long chunk_index;
     public String chunk_hash;
     public Integer chunk_size;
+    public Long chunk_offset;    // packed file: its range within the chunk, null for a whole chunk
+    public Integer chunk_length;
     public List<ReqPeerDto> chunk_peers; // peer info
 
     public ReqChunkDto() {}
@@ -16,6 +18,12 @@ public class ReqChunkDto {
         this.chunk_size = chunk_size;
     }
 
+    public ReqChunkDto(Long chunk_index, String chunk_hash, Integer chunk_size, Long chunk_offset, Integer chunk_length) {
+        this(chunk_index, chunk_hash, chunk_size);
+        this.chunk_offset = chunk_offset;
+        this.chunk_length = chunk_length;
+    }
+
     public void setChunk_peers(List<ReqPeerDto> chunk_peers) {
         this.chunk_peers = chunk_peers;
     }
@@ -4,6 +4,7 @@ public class ReqPeerDto {
     public String peer_ip;
     public Integer peer_port;
     private Long chunk_id; // Optional
+    private String chunk_hash; // Optional, instead of chunk_id: every chunk with this hash
 
     public ReqPeerDto() {}
     public ReqPeerDto(String peer_ip, int peer_port) {
@@ -14,9 +15,23 @@ public class ReqPeerDto {
     public ReqPeerDto(String peer_ip, int peer_port, Long chunk_id) {
         this.peer_ip = peer_ip;
         this.peer_port = peer_port;
+        this.chunk_id = chunk_id;
+    }
+
+    /**
+     * A placement of every chunk with the given hash, for peers that know a chunk by its hash only.
+     */
+    public static ReqPeerDto ofHash(String peer_ip, int peer_port, String chunk_hash) {
+        ReqPeerDto placement = new ReqPeerDto(peer_ip, peer_port);
+        placement.chunk_hash = chunk_hash;
+        return placement;
     }
 
     public Long getChunk_id() {
         return chunk_id;
     }
+
+    public String getChunk_hash() {
+        return chunk_hash;
+    }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package p2pclient.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.List;
 
 public class ResChunkDto {
@@ -7,7 +9,17 @@ public class ResChunkDto {
     public Long chunk_index;
     public String chunk_hash;
     public Integer chunk_size;
+    public Long chunk_offset;    // packed file: its range within the chunk, null for a whole chunk
+    public Integer chunk_length;
     public List<ResPeerDto> chunk_peers;
 
     public ResChunkDto() {}
+
+    /**
+     * @return true if the file is only the range [chunk_offset, chunk_offset + chunk_length) of this chunk
+     */
+    @JsonIgnore
+    public boolean isExtent() {
+        return chunk_offset != null && chunk_length != null;
+    }
 }
\ No newline at end of file
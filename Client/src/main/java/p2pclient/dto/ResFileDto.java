@@ -1,5 +1,6 @@
 package p2pclient.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.List;
 
@@ -10,10 +11,21 @@ public class ResFileDto {
     public String file_hash;
     public Long file_size;
     public boolean file_enc;
+    public Integer file_data_shards;   // erasure coding: k data and m parity shards per chunk group, null if replicated
+    public Integer file_parity_shards;
+    public Integer file_previous_id;   // the version this file was uploaded against, null for a first version
     public List<ResChunkDto> file_chunks; // for getAllFiles()
 
     public ResFileDto() {}
 
+    /**
+     * @return true if the chunks are the k + m shards of each chunk group, chunk_index = group * (k + m) + shard
+     */
+    @JsonIgnore
+    public boolean isErasureCoded() {
+        return file_data_shards != null && file_parity_shards != null;
+    }
+
     // for `getAllFiles()`
     public ResFileDto(int file_id, String file_name, String file_hash, long file_size, boolean file_enc) {
         this.file_id = file_id;
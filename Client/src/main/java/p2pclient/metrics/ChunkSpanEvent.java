@@ -0,0 +1,38 @@
+package p2pclient.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * ChunkSpanEvent - A {@link Tracer} span as a JFR event. Disabled unless a recording enables it, e.g.
+ * {@code -XX:StartFlightRecording:+p2p.ChunkSpan#enabled=true,filename=p2p.jfr}.
+ */
+@Name("p2p.ChunkSpan")
+@Label("Chunk Span")
+@Category({"P2P", "Transfers"})
+@Description("One phase of moving one chunk to or from a peer")
+@Enabled(false)
+@StackTrace(false)
+class ChunkSpanEvent extends Event {
+    @Label("Transfer")
+    long transferId;
+
+    @Label("Chunk Hash")
+    String chunkHash;
+
+    @Label("Chunk Index")
+    long chunkIndex;
+
+    @Label("Peer")
+    String peer;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long durationNanos;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,22 @@
+package p2pclient.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter - Monotonic event count (bytes, chunks, failures, ...).
+ */
+public class Counter implements Metric {
+    private final LongAdder count = new LongAdder();
+
+    public void inc() {
+        count.increment();
+    }
+
+    public void add(long n) {
+        count.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+}
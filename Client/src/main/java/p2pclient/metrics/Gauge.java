@@ -0,0 +1,40 @@
+package p2pclient.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Gauge - Point-in-time value. Either set directly (in-flight transfers) or read from a supplier (queue depth).
+ */
+public class Gauge implements Metric {
+    private final AtomicLong value = new AtomicLong();
+    private final LongSupplier supplier;
+
+    public Gauge() {
+        this.supplier = null;
+    }
+
+    public Gauge(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    public void inc() {
+        value.incrementAndGet();
+    }
+
+    public void dec() {
+        value.decrementAndGet();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    public void set(long newValue) {
+        value.set(newValue);
+    }
+
+    public long getValue() {
+        return supplier != null ? supplier.getAsLong() : value.get();
+    }
+}
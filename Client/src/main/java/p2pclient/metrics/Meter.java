@@ -0,0 +1,61 @@
+package p2pclient.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Meter - Counter with a 1-minute exponentially weighted rate (per second), used for throughput.
+ * The rate is ticked lazily on read/mark, so there is no background thread.
+ */
+public class Meter implements Metric {
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final double ALPHA = 1 - Math.exp(-5.0 / 60.0);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+    private volatile double rate = 0.0;
+    private volatile boolean initialized = false;
+
+    public void mark(long n) {
+        tickIfNecessary();
+        count.add(n);
+        uncounted.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return events per second, averaged over roughly the last minute
+     */
+    public double getRate() {
+        tickIfNecessary();
+        return rate;
+    }
+
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long now = System.nanoTime();
+        long age = now - oldTick;
+        if (age < TICK_INTERVAL) {
+            return;
+        }
+        long newTick = now - age % TICK_INTERVAL;
+        if (!lastTick.compareAndSet(oldTick, newTick)) {
+            return; // another thread ticked
+        }
+        long ticks = age / TICK_INTERVAL;
+        for (long i = 0; i < ticks; i++) {
+            double instantRate = uncounted.sumThenReset() / 5.0;
+            if (initialized) {
+                rate += ALPHA * (instantRate - rate);
+            } else {
+                rate = instantRate;
+                initialized = true;
+            }
+        }
+    }
+}
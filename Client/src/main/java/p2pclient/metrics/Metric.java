@@ -0,0 +1,7 @@
+package p2pclient.metrics;
+
+/**
+ * Marker for everything that can be stored in the {@link MetricsRegistry}.
+ */
+public interface Metric {
+}
@@ -0,0 +1,21 @@
+package p2pclient.metrics;
+
+/**
+ * MetricKey - metric name plus optional peer ("ip:port"), null for node-wide metrics.
+ */
+public record MetricKey(String name, String peer) implements Comparable<MetricKey> {
+
+    @Override
+    public int compareTo(MetricKey other) {
+        int c = name.compareTo(other.name);
+        if (c != 0) return c;
+        if (peer == null) return other.peer == null ? 0 : -1;
+        if (other.peer == null) return 1;
+        return peer.compareTo(other.peer);
+    }
+
+    @Override
+    public String toString() {
+        return peer == null ? name : name + "{peer=" + peer + "}";
+    }
+}
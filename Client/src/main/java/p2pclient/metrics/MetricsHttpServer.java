@@ -0,0 +1,53 @@
+package p2pclient.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * MetricsHttpServer - Optional local endpoint (bound to loopback only).
+ *   GET /metrics : Prometheus text format
+ *   GET /stats   : same report as the `stats` CLI command
+ *   GET /trace   : recent per-chunk transfer spans as JSON (see Tracer)
+ */
+public class MetricsHttpServer {
+    private final HttpServer server;
+
+    public MetricsHttpServer(MetricsRegistry registry, Tracer tracer, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> respond(exchange, "text/plain; version=0.0.4", registry::renderPrometheus));
+        server.createContext("/stats", exchange -> respond(exchange, "text/plain", registry::renderText));
+        server.createContext("/trace", exchange -> respond(exchange, "application/json", tracer::renderJson));
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Metrics endpoint: http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/metrics");
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, Supplier<String> body) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package p2pclient.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * MetricsRegistry - Holds the counters, gauges, meters and latency histograms of one P2P node,
+ * keyed by metric name and (optionally) peer. Lookups are a single ConcurrentHashMap get on the hot path.
+ */
+public class MetricsRegistry {
+    private final Map<MetricKey, Metric> metrics = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    public Counter counter(String name) {
+        return counter(name, null);
+    }
+
+    public Counter counter(String name, String peer) {
+        return getOrCreate(new MetricKey(name, peer), Counter.class, k -> new Counter());
+    }
+
+    public Meter meter(String name) {
+        return meter(name, null);
+    }
+
+    public Meter meter(String name, String peer) {
+        return getOrCreate(new MetricKey(name, peer), Meter.class, k -> new Meter());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histogram(name, null);
+    }
+
+    public LatencyHistogram histogram(String name, String peer) {
+        return getOrCreate(new MetricKey(name, peer), LatencyHistogram.class, k -> new LatencyHistogram());
+    }
+
+    public Gauge gauge(String name) {
+        return getOrCreate(new MetricKey(name, null), Gauge.class, k -> new Gauge());
+    }
+
+    /**
+     * Registers (or replaces) a gauge whose value is read from {@code supplier}.
+     */
+    public Gauge gauge(String name, LongSupplier supplier) {
+        Gauge gauge = new Gauge(supplier);
+        metrics.put(new MetricKey(name, null), gauge);
+        return gauge;
+    }
+
+    public Map<MetricKey, Metric> getMetrics() {
+        return new TreeMap<>(metrics);
+    }
+
+    public double getUptimeSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    /**
+     * Flattens all metrics into name -> number, e.g. {@code upload.chunk.latency{peer=1.2.3.4:5000}.p99}.
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Map.Entry<MetricKey, Metric> entry : getMetrics().entrySet()) {
+            String key = entry.getKey().toString();
+            switch (entry.getValue()) {
+                case Counter c -> values.put(key, c.getCount());
+                case Gauge g -> values.put(key, g.getValue());
+                case Meter m -> {
+                    values.put(key + ".count", m.getCount());
+                    values.put(key + ".rate", m.getRate());
+                }
+                case LatencyHistogram h -> {
+                    values.put(key + ".count", h.getCount());
+                    values.put(key + ".mean", h.getMean());
+                    values.put(key + ".p50", h.getPercentile(0.50));
+                    values.put(key + ".p90", h.getPercentile(0.90));
+                    values.put(key + ".p99", h.getPercentile(0.99));
+                    values.put(key + ".max", h.getMax());
+                }
+                default -> {
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Human readable report, used by the `stats` CLI command and the /stats endpoint.
+     */
+    public String renderText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Uptime: %.1f s%n", getUptimeSeconds()));
+        for (Map.Entry<MetricKey, Metric> entry : getMetrics().entrySet()) {
+            String key = entry.getKey().toString();
+            switch (entry.getValue()) {
+                case Counter c -> sb.append(String.format("  %-60s %d%n", key, c.getCount()));
+                case Gauge g -> sb.append(String.format("  %-60s %d%n", key, g.getValue()));
+                case Meter m -> sb.append(String.format("  %-60s total=%d rate=%.1f/s%n",
+                        key, m.getCount(), m.getRate()));
+                case LatencyHistogram h -> sb.append(String.format(
+                        "  %-60s n=%d mean=%.0fus p50=%dus p90=%dus p99=%dus max=%dus%n",
+                        key, h.getCount(), h.getMean(), h.getPercentile(0.50),
+                        h.getPercentile(0.90), h.getPercentile(0.99), h.getMax()));
+                default -> {
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prometheus text exposition format (version 0.0.4). Histograms are exported as summaries.
+     */
+    public String renderPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        String lastName = null;
+        for (Map.Entry<MetricKey, Metric> entry : getMetrics().entrySet()) {
+            MetricKey key = entry.getKey();
+            Metric metric = entry.getValue();
+            String name = "p2p_" + key.name().replace('.', '_').replace('-', '_');
+            if (!name.equals(lastName)) {
+                String type = switch (metric) {
+                    case Counter c -> "counter";
+                    case Meter m -> "counter";
+                    case LatencyHistogram h -> "summary";
+                    default -> "gauge";
+                };
+                sb.append("# TYPE ").append(metric instanceof Meter ? name + "_total" : name)
+                        .append(' ').append(type).append('\n');
+                lastName = name;
+            }
+            String labels = key.peer() == null ? "" : "peer=\"" + key.peer() + "\"";
+            switch (metric) {
+                case Counter c -> sample(sb, name, labels, c.getCount());
+                case Gauge g -> sample(sb, name, labels, g.getValue());
+                case Meter m -> sample(sb, name + "_total", labels, m.getCount());
+                case LatencyHistogram h -> {
+                    for (double q : new double[]{0.5, 0.9, 0.99}) {
+                        String quantile = "quantile=\"" + q + "\"";
+                        sample(sb, name, labels.isEmpty() ? quantile : labels + "," + quantile,
+                                h.getPercentile(q));
+                    }
+                    sample(sb, name + "_sum", labels, h.getSum());
+                    sample(sb, name + "_count", labels, h.getCount());
+                }
+                default -> {
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, Number value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private <T extends Metric> T getOrCreate(MetricKey key, Class<T> type, Function<MetricKey, T> factory) {
+        Metric metric = metrics.get(key);
+        if (metric == null) {
+            metric = metrics.computeIfAbsent(key, factory);
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + key + " is already registered as "
+                    + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Formats a peer label the same way everywhere ("ip:port").
+     */
+    public static String peer(String ip, int port) {
+        return ip + ":" + port;
+    }
+}
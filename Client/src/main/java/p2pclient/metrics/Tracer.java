@@ -0,0 +1,205 @@
+package p2pclient.metrics;
+
+import p2pclient.store.ChunkId;
+
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracer - Per-chunk spans of transfers, in a fixed-size ring buffer that keeps the most recent ones.
+ * A span is one phase of moving one chunk to or from one peer (see {@link Phase}), tagged with the transfer it
+ * belongs to, so a slow download can be split into time spent connecting, waiting for the peer, on the wire,
+ * hashing and writing to disk. Recording claims a slot with one atomic increment and fills preallocated arrays:
+ * it never locks or does I/O, unlike a println per chunk. Readers copy the slots out afterwards (JSON for /trace
+ * and the `trace` CLI command, per-phase totals) and skip any slot a writer is filling or has overwritten meanwhile.
+ * Every span is also committed as a {@link ChunkSpanEvent} while a JFR recording has that event enabled.
+ */
+public class Tracer {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    public enum Phase {
+        /** opening the connection */
+        CONNECT,
+        /** writing the request, and for uploads the chunk data */
+        REQUEST,
+        /** until the peer's first reply byte: its queueing and disk read */
+        FIRST_BYTE,
+        /** from the first to the last byte of the chunk */
+        LAST_BYTE,
+        /** hashing the chunk against its id */
+        VERIFY,
+        /** writing it to disk */
+        WRITE
+    }
+
+    /**
+     * One span, copied out of the ring.
+     *
+     * @param startNanos a {@link System#nanoTime()} value
+     * @param chunkIndex the chunk's index in its file, -1 if unknown
+     */
+    public record Span(long transferId, ChunkId chunkId, long chunkIndex, String peer, Phase phase,
+                       long startNanos, long durationNanos, long bytes) {}
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong transfers = new AtomicLong();
+    // slot i holds span number sequences[i]; -1 while it is being written
+    private final AtomicLongArray sequences;
+    private final long[] transferIds;
+    private final ChunkId[] chunkIds;
+    private final long[] chunkIndexes;
+    private final String[] peers;
+    private final byte[] phases;
+    private final long[] starts;
+    private final long[] durations;
+    private final long[] byteCounts;
+
+    /**
+     * @param capacity spans kept, rounded up to a power of two; 0 turns recording off
+     */
+    public Tracer(int capacity) {
+        int size = capacity <= 0 ? 0 : Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, -1);
+        }
+        this.transferIds = new long[size];
+        this.chunkIds = new ChunkId[size];
+        this.chunkIndexes = new long[size];
+        this.peers = new String[size];
+        this.phases = new byte[size];
+        this.starts = new long[size];
+        this.durations = new long[size];
+        this.byteCounts = new long[size];
+    }
+
+    public boolean isEnabled() {
+        return mask >= 0;
+    }
+
+    /**
+     * @return a new id to tag the spans of one download or upload with
+     */
+    public long newTransfer() {
+        return transfers.incrementAndGet();
+    }
+
+    /**
+     * Records a span from {@code startNanos} until now.
+     *
+     * @return now, the start of the chunk's next phase
+     */
+    public long span(long transferId, ChunkId chunkId, long chunkIndex, String peer, Phase phase, long startNanos, long bytes) {
+        long now = System.nanoTime();
+        if (mask < 0) {
+            return now;
+        }
+        long sequence = next.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        sequences.setRelease(slot, -1);
+        VarHandle.storeStoreFence(); // the fields below are written after the slot is marked busy
+        transferIds[slot] = transferId;
+        chunkIds[slot] = chunkId;
+        chunkIndexes[slot] = chunkIndex;
+        peers[slot] = peer;
+        phases[slot] = (byte) phase.ordinal();
+        starts[slot] = startNanos;
+        durations[slot] = now - startNanos;
+        byteCounts[slot] = bytes;
+        sequences.setRelease(slot, sequence);
+
+        ChunkSpanEvent event = new ChunkSpanEvent();
+        if (event.isEnabled()) {
+            event.transferId = transferId;
+            event.chunkHash = chunkId.toHex();
+            event.chunkIndex = chunkIndex;
+            event.peer = peer;
+            event.phase = phase.name();
+            event.durationNanos = now - startNanos;
+            event.bytes = bytes;
+            event.commit();
+        }
+        return now;
+    }
+
+    /**
+     * @return the spans in the ring, oldest first
+     */
+    public List<Span> snapshot() {
+        List<Span> spans = new ArrayList<>();
+        if (mask < 0) {
+            return spans;
+        }
+        long last = next.get();
+        for (long sequence = Math.max(0, last - mask - 1); sequence < last; sequence++) {
+            int slot = (int) (sequence & mask);
+            if (sequences.getAcquire(slot) != sequence) {
+                continue; // still being written, or already overwritten
+            }
+            Span span = new Span(transferIds[slot], chunkIds[slot], chunkIndexes[slot], peers[slot], PHASES[phases[slot]],
+                    starts[slot], durations[slot], byteCounts[slot]);
+            VarHandle.loadLoadFence(); // the fields above were read before the sequence is checked again
+            if (sequences.get(slot) == sequence) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * @return nanoseconds spent per phase over the given spans
+     */
+    public static Map<Phase, Long> totals(Collection<Span> spans) {
+        Map<Phase, Long> totals = new EnumMap<>(Phase.class);
+        for (Span span : spans) {
+            totals.merge(span.phase(), span.durationNanos(), Long::sum);
+        }
+        return totals;
+    }
+
+    /**
+     * Time spent per phase over the spans in the ring, used by the `trace` CLI command.
+     */
+    public String renderSummary() {
+        List<Span> spans = snapshot();
+        Map<Phase, Long> totals = totals(spans);
+        long all = totals.values().stream().mapToLong(Long::longValue).sum();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d spans of %d transfers%n", spans.size(), spans.stream().mapToLong(Span::transferId).distinct().count()));
+        for (Phase phase : PHASES) {
+            long nanos = totals.getOrDefault(phase, 0L);
+            sb.append(String.format("  %-10s %10.1f ms %5.1f%%%n", phase, nanos / 1e6, all > 0 ? 100.0 * nanos / all : 0.0));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The spans in the ring as a JSON array; times are in nanoseconds, starts relative to the oldest span.
+     */
+    public String renderJson() {
+        List<Span> spans = snapshot();
+        long origin = spans.stream().mapToLong(Span::startNanos).min().orElse(0);
+        StringBuilder sb = new StringBuilder("[");
+        for (Span span : spans) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append("\n{\"transfer\":").append(span.transferId())
+                    .append(",\"chunk\":\"").append(span.chunkId().toHex())
+                    .append("\",\"index\":").append(span.chunkIndex())
+                    .append(",\"peer\":\"").append(span.peer())
+                    .append("\",\"phase\":\"").append(span.phase())
+                    .append("\",\"start\":").append(span.startNanos() - origin)
+                    .append(",\"duration\":").append(span.durationNanos())
+                    .append(",\"bytes\":").append(span.bytes())
+                    .append('}');
+        }
+        return sb.append("\n]\n").toString();
+    }
+}
@@ -0,0 +1,87 @@
+package p2pclient.net;
+
+import p2pclient.store.ChunkId;
+import p2pclient.transport.Connection;
+import p2pclient.transport.Transport;
+import p2pclient.utils.HashUtils;
+
+import java.io.*;
+
+/**
+ * ChunkTransfer - One chunk moved between this node and a peer outside of a download or upload, for the background
+ * services that maintain replicas: "download" fetches a chunk, "upload" or "replica" stores one.
+ * Metrics and peer bookkeeping are left to the caller.
+ * Also holds the timeouts of every chunk transfer, and {@link #connect} applies them for the downloader and the
+ * upload pipeline too.
+ */
+public final class ChunkTransfer {
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final int READ_TIMEOUT_MILLIS = 10000; // a stalled peer is failed over; it stores an upload before it replies
+
+    private ChunkTransfer() {}
+
+    /**
+     * @param maxSize the chunk's size; a longer answer is not the chunk
+     * @return the chunk, checked against its hash; null if the peer does not hold it
+     * @throws PeerBusyException if the peer turned the request away
+     */
+    public static byte[] fetch(Transport transport, String peerIp, int peerPort, ChunkId chunkId, int maxSize) throws IOException {
+        try (Connection connection = connect(transport, peerIp, peerPort)) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            dos.writeBytes("download  ");
+            dos.write(chunkId.toHexBytes());
+            dos.flush();
+            PeerBusyException.check(dis);
+
+            // one frame: status byte (0 = found), int length, data
+            int status = dis.readUnsignedByte();
+            int length = dis.readInt();
+            if (status != 0 || length < 0 || length > maxSize) {
+                return null;
+            }
+            byte[] chunkData = new byte[length];
+            dis.readFully(chunkData);
+            if (!chunkId.equals(HashUtils.hash(chunkData, 0, chunkData.length))) {
+                return null;
+            }
+            return chunkData;
+        }
+    }
+
+    /**
+     * @param replica true to send "replica": the peer may drop the chunk again once nobody asks for it;
+     *                false to send "upload", which the peer keeps
+     * @return true if the peer holds the chunk now
+     * @throws PeerBusyException if the peer turned the request away
+     */
+    public static boolean store(Transport transport, String peerIp, int peerPort, ChunkId chunkId, byte[] data, boolean replica) throws IOException {
+        try (Connection connection = connect(transport, peerIp, peerPort)) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            dos.writeBytes(replica ? "replica   " : "upload    ");
+            dos.write(chunkId.toHexBytes()); // 64 ASCII chars, fixed width like the message type
+            dos.writeInt(data.length);
+            dos.write(data);
+            dos.flush();
+            connection.shutdownOutput(); // end of chunk data
+
+            PeerBusyException.check(dis);
+            return "OK".equals(dis.readUTF());
+        }
+    }
+
+    /**
+     * Opens a connection for one chunk transfer, with the connect and read timeouts.
+     */
+    static Connection connect(Transport transport, String peerIp, int peerPort) throws IOException {
+        Connection connection = transport.connect(peerIp, peerPort, CONNECT_TIMEOUT_MILLIS);
+        try {
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            return connection;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package p2pclient.net;
+
+import p2pclient.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * ConcurrencyLimiter - Adaptive limit on in-flight chunk transfers, per peer and overall (AIMD).
+ * Every transfer reports how long it took per byte. While that stays within TOLERANCE of the best rate seen from
+ * the peer, both limits grow by about one per round of transfers; once it rises above, requests are queueing
+ * somewhere on the path and both shrink by 10%; a failed transfer halves the peer's limit only, since a dead peer
+ * says nothing about the rest of the network. Concurrency therefore climbs on a
+ * fast LAN until the link is full and stays low on a slow or lossy WAN link.
+ * The best rate is forgotten every BASELINE_WINDOW transfers so that it follows a path that got slower; transfers
+ * smaller than MIN_SAMPLE_BYTES are not measured.
+ * With a fixed limit there is no adaptation: up to that many transfers overall and maxPerPeer per peer.
+ * A peer that answered "busy" is also remembered until its retry hint passes, so callers can try it last, and
+ * callers out of other peers can wait for the hint and try it again (see withRetryRounds).
+ */
+public class ConcurrencyLimiter {
+    private static final double TOLERANCE = 2.0;
+    private static final double BACKOFF = 0.9;
+    private static final double FAILURE_BACKOFF = 0.5;
+    private static final int BASELINE_WINDOW = 500;
+    private static final int INITIAL_PEER_LIMIT = 2;
+    private static final long MIN_SAMPLE_BYTES = 64 * 1024; // below this, round trips dominate the time per byte
+    private static final long MAX_RETRY_WAIT_MILLIS = 10000; // as long as a stalled transfer is waited for
+    private static final long FAILED_RETRY_MILLIS = 100; // a dropped connection is often a passing fault
+
+    /**
+     * One AIMD limit and the transfers currently counted against it.
+     */
+    private static final class Limit {
+        final int max;
+        double limit;
+        int inFlight;
+
+        Limit(double initial, int max) {
+            this.max = max;
+            this.limit = Math.min(initial, max);
+        }
+
+        boolean hasRoom() {
+            return inFlight < (int) limit;
+        }
+
+        void increase() {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+
+        void decrease(double factor) {
+            limit = Math.max(1, limit * factor);
+        }
+    }
+
+    private static final class PeerState {
+        final Limit limit;
+        double baseline = Double.MAX_VALUE; // best nanoseconds per byte of the previous window
+        double windowBest = Double.MAX_VALUE;
+        int samples;
+        boolean answeredBusy;
+        long busyAtNanos; // of the last "busy" reply
+        boolean failed;
+        long failedAtNanos; // of the last failed transfer
+        long busyUntilNanos = System.nanoTime();
+
+        PeerState(Limit limit) {
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * A granted transfer slot; hand it back to {@link #release(Permit, long, boolean)}.
+     */
+    public static final class Permit {
+        private final PeerState peer;
+        private final long startNanos = System.nanoTime();
+
+        private Permit(PeerState peer) {
+            this.peer = peer;
+        }
+    }
+
+    private final boolean adaptive;
+    private final int maxPerPeer;
+    private final Limit global;
+    private final Map<String, PeerState> peers = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private ConcurrencyLimiter(int fixedLimit, int maxLimit, int maxPerPeer) {
+        this.adaptive = fixedLimit <= 0;
+        this.maxPerPeer = maxPerPeer;
+        this.global = adaptive ? new Limit(Math.min(5, maxLimit), maxLimit) : new Limit(fixedLimit, fixedLimit);
+    }
+
+    /**
+     * Creates a limiter and registers its transfer.concurrency gauges.
+     *
+     * @param fixedLimit transfers allowed overall, or 0 to adapt between 1 and maxLimit
+     * @param maxLimit   upper bound of the adaptive overall limit
+     * @param maxPerPeer upper bound of every peer's limit
+     */
+    public static ConcurrencyLimiter create(int fixedLimit, int maxLimit, int maxPerPeer, MetricsRegistry metrics) {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(fixedLimit, maxLimit, maxPerPeer);
+        metrics.gauge("transfer.concurrency.limit", limiter::getLimit);
+        metrics.gauge("transfer.concurrency.in_flight", limiter::getInFlight);
+        return limiter;
+    }
+
+    /**
+     * Waits until both the overall limit and the peer's limit have room.
+     */
+    public Permit acquire(String peer) throws InterruptedException {
+        lock.lock();
+        try {
+            PeerState state = peerState(peer);
+            while (!global.hasRoom() || !state.limit.hasRoom()) {
+                released.await();
+            }
+            global.inFlight++;
+            state.limit.inFlight++;
+            return new Permit(state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a transfer and adapts the limits to how it went.
+     *
+     * @param bytes the bytes moved; transfers smaller than MIN_SAMPLE_BYTES only free their slot
+     * @param ok    false if the transfer failed
+     */
+    public void release(Permit permit, long bytes, boolean ok) {
+        long elapsed = System.nanoTime() - permit.startNanos;
+        lock.lock();
+        try {
+            PeerState state = permit.peer;
+            global.inFlight--;
+            state.limit.inFlight--;
+            if (!ok) {
+                state.failed = true;
+                state.failedAtNanos = System.nanoTime();
+            }
+            if (adaptive) {
+                if (!ok) {
+                    state.limit.decrease(FAILURE_BACKOFF);
+                } else if (bytes >= MIN_SAMPLE_BYTES) {
+                    adapt(state, (double) elapsed / bytes);
+                }
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a "busy" reply from the peer. The transfer's permit is still released as failed, which also halves
+     * the peer's limit.
+     */
+    public void busy(String peer, long retryAfterMillis) {
+        lock.lock();
+        try {
+            PeerState state = peerState(peer);
+            state.answeredBusy = true;
+            state.busyAtNanos = System.nanoTime();
+            state.busyUntilNanos = state.busyAtNanos + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param failures whether a failed transfer counts too, to be retried after FAILED_RETRY_MILLIS
+     * @return the milliseconds until the peer may be retried (0 if it may now) if it answered "busy", or failed,
+     *         at or after {@code sinceNanos}; else -1
+     */
+    private long retryAfterMillis(String peer, long sinceNanos, boolean failures) {
+        lock.lock();
+        try {
+            PeerState state = peers.get(peer);
+            if (state == null) {
+                return -1;
+            }
+            long now = System.nanoTime();
+            if (state.answeredBusy && state.busyAtNanos - sinceNanos >= 0) {
+                return TimeUnit.NANOSECONDS.toMillis(Math.max(0, state.busyUntilNanos - now));
+            }
+            if (failures && state.failed && state.failedAtNanos - sinceNanos >= 0) {
+                return Math.max(0, FAILED_RETRY_MILLIS - TimeUnit.NANOSECONDS.toMillis(now - state.failedAtNanos));
+            }
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true while the retry hint of the peer's last "busy" reply has not passed
+     */
+    public boolean isBusy(String peer) {
+        lock.lock();
+        try {
+            PeerState state = peers.get(peer);
+            return state != null && state.busyUntilNanos - System.nanoTime() > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Goes through {@code peers}, then through those of {@code candidates} that failed or answered "busy" meanwhile,
+     * once their retry hint passed, soonest first; then, while some keep answering "busy", through those again,
+     * for at most MAX_RETRY_WAIT_MILLIS in all. A caller that stops at the first peer that delivers thereby only
+     * waits once every other peer failed, and a saturated swarm or a flaky link slows it down instead of failing it.
+     * An interrupt while sleeping ends the iteration and is kept set.
+     *
+     * @param key        the peer's name, as passed to {@link #acquire(String)} and {@link #busy(String, long)}
+     * @param sinceNanos when the first round started, if before the iteration (e.g. a batch request to the first peer)
+     */
+    public <P> Iterable<P> withRetryRounds(List<P> peers, List<P> candidates, Function<P, String> key, long sinceNanos) {
+        return () -> new Iterator<>() {
+            private final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_WAIT_MILLIS);
+            private Iterator<P> current = peers.iterator();
+            private List<P> roundCandidates = candidates;
+            private long roundStart = sinceNanos;
+            private boolean firstRound = true;
+
+            @Override
+            public boolean hasNext() {
+                if (!current.hasNext() && roundCandidates != null) {
+                    long now = System.nanoTime();
+                    List<P> retries = awaitRetry(roundCandidates, key, roundStart, firstRound, deadline);
+                    roundStart = now;
+                    firstRound = false;
+                    roundCandidates = retries.isEmpty() ? null : retries;
+                    current = retries.iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public P next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * @return the candidates to retry, soonest first, once the soonest may be retried; none if that is after the
+     *         deadline
+     */
+    private <P> List<P> awaitRetry(List<P> candidates, Function<P, String> key, long sinceNanos, boolean failures,
+                                   long deadlineNanos) {
+        Map<P, Long> waits = new HashMap<>();
+        for (P peer : candidates) {
+            long wait = retryAfterMillis(key.apply(peer), sinceNanos, failures);
+            if (wait >= 0) {
+                waits.put(peer, wait);
+            }
+        }
+        if (waits.isEmpty()) {
+            return List.of();
+        }
+        List<P> retries = new ArrayList<>(waits.keySet());
+        retries.sort(Comparator.comparing(waits::get));
+        long wait = TimeUnit.MILLISECONDS.toNanos(waits.get(retries.getFirst()));
+        if (deadlineNanos - System.nanoTime() < wait) {
+            return List.of();
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        }
+        return retries;
+    }
+
+    private PeerState peerState(String peer) {
+        return peers.computeIfAbsent(peer, k -> new PeerState(new Limit(adaptive ? INITIAL_PEER_LIMIT : maxPerPeer, maxPerPeer)));
+    }
+
+    private void adapt(PeerState state, double nanosPerByte) {
+        state.windowBest = Math.min(state.windowBest, nanosPerByte);
+        if (++state.samples % BASELINE_WINDOW == 0) {
+            state.baseline = state.windowBest;
+            state.windowBest = Double.MAX_VALUE;
+        }
+        double best = Math.min(state.baseline, state.windowBest);
+        if (nanosPerByte > best * TOLERANCE) {
+            global.decrease(BACKOFF);
+            state.limit.decrease(BACKOFF);
+        } else {
+            global.increase();
+            state.limit.increase();
+        }
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return the current overall limit
+     */
+    public long getLimit() {
+        lock.lock();
+        try {
+            return (long) global.limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the transfers currently holding a permit
+     */
+    public long getInFlight() {
+        lock.lock();
+        try {
+            return global.inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the current limit of a peer, or its initial limit if it was never used
+     */
+    public int getLimit(String peer) {
+        lock.lock();
+        try {
+            PeerState state = peers.get(peer);
+            return state != null ? (int) state.limit.limit : (adaptive ? INITIAL_PEER_LIMIT : maxPerPeer);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package p2pclient.net;
+
+import p2pclient.utils.BloomFilter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GossipDigest - What a peer tells another peer in a gossip exchange: its address, its current load
+ * (active + queued connections), a Bloom filter of the chunk hashes it holds, and a few peers it knows.
+ */
+public record GossipDigest(String ip, int port, int load, int chunkCount, BloomFilter chunks, List<Address> peers) {
+
+    public record Address(String ip, int port) {}
+
+    private static final int VERSION = 1;
+    private static final int MAX_PEERS = 64;
+    private static final int MAX_FILTER_WORDS = 4 * 1024 * 1024; // 32 MB, ~27M chunks at 1%
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeByte(VERSION);
+        out.writeUTF(ip);
+        out.writeInt(port);
+        out.writeInt(load);
+        out.writeInt(chunkCount);
+        chunks.write(out);
+        int peerCount = Math.min(peers.size(), MAX_PEERS);
+        out.writeShort(peerCount);
+        for (int i = 0; i < peerCount; i++) {
+            out.writeUTF(peers.get(i).ip());
+            out.writeInt(peers.get(i).port());
+        }
+        out.flush();
+    }
+
+    public static GossipDigest read(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported gossip version " + version);
+        }
+        String ip = in.readUTF();
+        int port = in.readInt();
+        int load = in.readInt();
+        int chunkCount = in.readInt();
+        BloomFilter chunks = BloomFilter.read(in, MAX_FILTER_WORDS);
+        int peerCount = Math.min(in.readUnsignedShort(), MAX_PEERS);
+        List<Address> peers = new ArrayList<>(peerCount);
+        for (int i = 0; i < peerCount; i++) {
+            peers.add(new Address(in.readUTF(), in.readInt()));
+        }
+        return new GossipDigest(ip, port, load, chunkCount, chunks, peers);
+    }
+}
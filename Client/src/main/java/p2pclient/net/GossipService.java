@@ -0,0 +1,289 @@
+package p2pclient.net;
+
+import p2pclient.config.P2PClientConfig;
+import p2pclient.dto.ResPeerDto;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.store.ChunkId;
+import p2pclient.store.ChunkStore;
+import p2pclient.transport.Connection;
+import p2pclient.utils.BloomFilter;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * GossipService - Periodically trades availability digests with a few random peers over the P2PServer protocol
+ * ("gossip" message). Every exchange tells us which chunks a peer holds (Bloom filter), how busy it is, whether it
+ * is reachable at all, and which other peers it knows. The downloader uses this to find sources the tracker
+ * does not list, to try lightly loaded peers first and to skip peers that stopped answering, without
+ * asking the tracker. The tracker is only consulted for peers when gossip knows no live peer.
+ */
+public class GossipService {
+    private static final long INTERVAL_SECONDS = 10;
+    private static final int FANOUT = 3;
+    private static final int TIMEOUT_MILLIS = 3000;
+    private static final int DEAD_AFTER_FAILURES = 2;
+    private static final long STALE_AFTER_NANOS = TimeUnit.SECONDS.toNanos(INTERVAL_SECONDS * 6);
+
+    private static final class PeerState {
+        final String ip;
+        final int port;
+        volatile BloomFilter chunks;
+        volatile int load = -1;
+        volatile long lastSeenNanos;
+        volatile int failures;
+
+        PeerState(String ip, int port) {
+            this.ip = ip;
+            this.port = port;
+        }
+
+        boolean isDead() {
+            return failures >= DEAD_AFTER_FAILURES;
+        }
+
+        boolean isFresh() {
+            return chunks != null && System.nanoTime() - lastSeenNanos < STALE_AFTER_NANOS;
+        }
+    }
+
+    private final P2PClientConfig config;
+    private final ChunkStore chunkStore;
+    private final MetricsRegistry metrics;
+    private final Callable<List<ResPeerDto>> seedPeers;
+    private final int advertisedPort;
+    private final Map<String, PeerState> peers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    private final ReentrantLock localFilterLock = new ReentrantLock(); // not synchronized: a rebuild walks every held chunk, and virtual threads waiting on a monitor pin their carrier
+    private BloomFilter localFilter;
+    private long localFilterVersion = -1;
+
+    /**
+     * @param seedPeers where to get peers when gossip knows none (normally the tracker's peer list)
+     */
+    public GossipService(P2PClientConfig config, Callable<List<ResPeerDto>> seedPeers) {
+        this(config, seedPeers, config.getListeningPort());
+    }
+
+    /**
+     * @param advertisedPort the port other peers reach this node on, if not the listening port (e.g. behind a proxy)
+     */
+    public GossipService(P2PClientConfig config, Callable<List<ResPeerDto>> seedPeers, int advertisedPort) {
+        this.config = config;
+        this.advertisedPort = advertisedPort;
+        this.chunkStore = config.getChunkStore();
+        this.metrics = config.getMetrics();
+        this.seedPeers = seedPeers;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gossip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.gauge("gossip.peers.known", peers::size);
+        metrics.gauge("gossip.peers.dead", () -> peers.values().stream().filter(PeerState::isDead).count());
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::gossipRound, 0, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs one exchange round on the caller's thread, outside the schedule.
+     */
+    public void gossipNow() {
+        gossipRound();
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    // =======================
+    //  Exchange
+    // =======================
+
+    private void gossipRound() {
+        try {
+            if (peers.values().stream().allMatch(PeerState::isDead)) {
+                addPeers(seedPeers.call());
+            }
+            List<PeerState> candidates = new ArrayList<>(peers.values());
+            Collections.shuffle(candidates);
+            // live peers first; dead ones still get retried once the live ones are covered
+            candidates.sort(Comparator.comparing(PeerState::isDead));
+            for (PeerState peer : candidates.subList(0, Math.min(FANOUT, candidates.size()))) {
+                exchange(peer);
+            }
+        } catch (Exception e) {
+            System.err.println("Gossip round failed: " + e.getMessage());
+        }
+    }
+
+    private void exchange(PeerState peer) {
+        String label = MetricsRegistry.peer(peer.ip, peer.port);
+        long start = System.nanoTime();
+        try (Connection connection = config.getTransport().connect(peer.ip, peer.port, TIMEOUT_MILLIS)) {
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            out.writeBytes("gossip    ");
+            localDigest().write(out);
+            connection.shutdownOutput();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            PeerBusyException.check(in);
+            GossipDigest remote = GossipDigest.read(in);
+            merge(peer, remote);
+            metrics.histogram("gossip.exchange.latency", label).recordSince(start);
+        } catch (PeerBusyException e) {
+            metrics.counter("gossip.exchange.busy", label).inc(); // saturated, not unreachable
+        } catch (IOException e) {
+            peer.failures++;
+            metrics.counter("gossip.exchange.failures", label).inc();
+        }
+    }
+
+    /**
+     * Answers an inbound "gossip" message: absorbs the sender's digest and returns ours.
+     */
+    public GossipDigest receive(GossipDigest remote) {
+        merge(peers.computeIfAbsent(key(remote.ip(), remote.port()), k -> new PeerState(remote.ip(), remote.port())), remote);
+        return localDigest();
+    }
+
+    private void merge(PeerState peer, GossipDigest remote) {
+        peer.chunks = remote.chunks();
+        peer.load = remote.load();
+        peer.lastSeenNanos = System.nanoTime();
+        peer.failures = 0;
+        for (GossipDigest.Address address : remote.peers()) {
+            addPeer(address.ip(), address.port());
+        }
+    }
+
+    private GossipDigest localDigest() {
+        List<GossipDigest.Address> known = new ArrayList<>();
+        for (PeerState peer : peers.values()) {
+            if (!peer.isDead()) {
+                known.add(new GossipDigest.Address(peer.ip, peer.port));
+            }
+        }
+        Collections.shuffle(known);
+        int load = (int) (metrics.gauge("server.active.handlers").getValue() + metrics.gauge("server.queue.depth").getValue());
+        return new GossipDigest(config.getLocalIPAddress(), advertisedPort, load,
+                chunkStore.size(), localFilter(), known);
+    }
+
+    /**
+     * The filter is rebuilt only when the chunk store changed since the last digest.
+     */
+    private BloomFilter localFilter() {
+        localFilterLock.lock();
+        try {
+            long version = chunkStore.getVersion();
+            if (localFilter == null || version != localFilterVersion) {
+                localFilter = BloomFilter.of(chunkStore.list());
+                localFilterVersion = version;
+            }
+            return localFilter;
+        } finally {
+            localFilterLock.unlock();
+        }
+    }
+
+    // =======================
+    //  Peer view
+    // =======================
+
+    public void addPeers(List<ResPeerDto> seeds) {
+        for (ResPeerDto seed : seeds) {
+            if (seed.peer_ip != null && seed.peer_port != null) {
+                addPeer(seed.peer_ip, seed.peer_port);
+            }
+        }
+    }
+
+    private void addPeer(String ip, int port) {
+        if (ip.equals(config.getLocalIPAddress()) && port == advertisedPort) {
+            return;
+        }
+        peers.computeIfAbsent(key(ip, port), k -> new PeerState(ip, port));
+    }
+
+    /**
+     * Records a failed connection seen outside of gossip (e.g. by the downloader).
+     */
+    public void reportUnreachable(String ip, int port) {
+        PeerState peer = peers.get(key(ip, port));
+        if (peer != null) {
+            peer.failures++;
+        }
+    }
+
+    public boolean isDead(String ip, int port) {
+        PeerState peer = peers.get(key(ip, port));
+        return peer != null && peer.isDead();
+    }
+
+    /**
+     * Orders the sources for a chunk: the tracker's placements plus every live peer whose digest may contain
+     * the chunk. Peers whose fresh digest confirms the chunk come first, least loaded first; then peers gossip
+     * cannot confirm (unknown, or a digest older than the placement); dead peers are kept only as a last resort.
+     */
+    public List<ResPeerDto> rankSources(ChunkId chunkId, List<ResPeerDto> trackerPeers) {
+        Map<String, ResPeerDto> candidates = new LinkedHashMap<>();
+        for (ResPeerDto peer : trackerPeers) {
+            candidates.put(key(peer.peer_ip, peer.peer_port), peer);
+        }
+        for (PeerState peer : peers.values()) {
+            if (!peer.isDead() && peer.isFresh() && peer.chunks.mightContain(chunkId)) {
+                candidates.putIfAbsent(key(peer.ip, peer.port), new ResPeerDto(null, peer.ip, peer.port));
+            }
+        }
+
+        List<ResPeerDto> ranked = new ArrayList<>(candidates.values());
+        Collections.shuffle(ranked);
+        ranked.sort(Comparator.comparingInt(peer -> score(peers.get(key(peer.peer_ip, peer.peer_port)), chunkId)));
+        return ranked;
+    }
+
+    /**
+     * Orders the peers that could take a new replica of a chunk: the given candidates plus every live peer gossip
+     * knows, without dead peers and peers whose fresh digest says they may hold the chunk already. Least loaded
+     * first; peers of unknown load last.
+     */
+    public List<ResPeerDto> rankTargets(ChunkId chunkId, List<ResPeerDto> candidates) {
+        Map<String, ResPeerDto> targets = new LinkedHashMap<>();
+        for (ResPeerDto peer : candidates) {
+            targets.put(key(peer.peer_ip, peer.peer_port), peer);
+        }
+        for (PeerState peer : peers.values()) {
+            targets.putIfAbsent(key(peer.ip, peer.port), new ResPeerDto(null, peer.ip, peer.port));
+        }
+        targets.keySet().removeIf(key -> {
+            PeerState peer = peers.get(key);
+            return peer != null && (peer.isDead() || peer.isFresh() && peer.chunks.mightContain(chunkId));
+        });
+
+        List<ResPeerDto> ranked = new ArrayList<>(targets.values());
+        Collections.shuffle(ranked);
+        ranked.sort(Comparator.comparingInt(peer -> {
+            PeerState state = peers.get(key(peer.peer_ip, peer.peer_port));
+            return state == null || state.load < 0 ? 1000 : Math.min(state.load, 999);
+        }));
+        return ranked;
+    }
+
+    private static int score(PeerState peer, ChunkId chunkId) {
+        if (peer == null) return 1000;
+        if (peer.isDead()) return 3000;
+        int load = Math.min(Math.max(peer.load, 0), 999);
+        return peer.isFresh() && peer.chunks.mightContain(chunkId) ? load : 1000 + load;
+    }
+
+    private static String key(String ip, int port) {
+        return ip + ":" + port;
+    }
+}
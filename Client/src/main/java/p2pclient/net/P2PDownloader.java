@@ -1,7 +1,827 @@
 package p2pclient.net;
 
+import p2pclient.config.P2PClientConfig;
+import p2pclient.dto.ResChunkDto;
+import p2pclient.dto.ResFileDto;
+import p2pclient.dto.ResPeerDto;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.metrics.Tracer;
+import p2pclient.metrics.Tracer.Phase;
+import p2pclient.store.ChunkId;
+import p2pclient.transport.Connection;
+import p2pclient.utils.HashUtils;
+import p2pclient.utils.ReedSolomon;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * P2PDownloader - Fetches every chunk of a file from the peers listed in its metadata,
+ * verifies each chunk against its hash and assembles the file in downloads/complete.
+ * The target is preallocated as downloads/incomplete/<file_hash>.part and every verified chunk is written straight
+ * to chunk_index * chunk_size, so finishing is a rename into downloads/complete rather than a copy.
+ * Chunks that share a source peer are requested together with one "vdownload" message.
+ * A small file packed into a shared chunk has a single extent chunk and is fetched with a "range" message,
+ * verified against the file hash.
+ * An erasure coded file is fetched group by group: k workers per group pull shards, data shards first, until
+ * k shards arrived; missing data shards are then rebuilt from parity.
+ * With a {@link GossipService}, sources the tracker does not list are tried too and dead peers are tried last.
+ * Given a {@link TransferContext}, chunks are fetched on its shared pool and every written byte is reported as progress.
+ * Every phase of every chunk fetched is recorded as a {@link Tracer} span of this download.
+ */
 public class P2PDownloader {
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private final P2PClientConfig config;
+    private final ResFileDto fileMetaData;
+    private final ExecutorService threadPool;
+    private final LongConsumer progress;
+    private final MetricsRegistry metrics;
+    private final Tracer tracer;
+    private final long transferId;
+    private final GossipService gossip;
+    private BiConsumer<ResChunkDto, byte[]> verifiedChunks = (chunk, data) -> {};
+
+    /**
+     * A chunk to fetch, its offset in the file and the peers to try, best first.
+     */
+    private record ChunkTask(ResChunkDto chunk, ChunkId id, long offset, List<ResPeerDto> sources) {}
+
+    /**
+     * A part of the file that is fetched and verified on its own: a chunk, an erasure coded chunk group,
+     * or the extent of a packed file.
+     */
+    record Segment(long offset, int length, List<ResChunkDto> chunks) {}
+
+    /**
+     * The k + m shards of one erasure coded chunk group; complete once k of them arrived.
+     * Guarded by a ReentrantLock rather than synchronized, so virtual threads never pin their carrier on it.
+     */
+    private static final class ShardGroup {
+        final ReentrantLock lock = new ReentrantLock();
+        final List<ResChunkDto> shards;
+        final long offset;
+        final int length;
+        final AtomicInteger nextShard = new AtomicInteger();
+        final byte[][] data;
+        final boolean[] present;
+        int received;
+
+        ShardGroup(List<ResChunkDto> shards, long offset, int length) {
+            this.shards = shards;
+            this.offset = offset;
+            this.length = length;
+            this.data = new byte[shards.size()][];
+            this.present = new boolean[shards.size()];
+        }
+
+        /**
+         * @return true for the shard that completes the group; shards arriving later are ignored
+         */
+        boolean add(int shard, byte[] shardData, int needed) {
+            lock.lock();
+            try {
+                if (received >= needed) {
+                    return false;
+                }
+                data[shard] = shardData;
+                present[shard] = true;
+                return ++received == needed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isComplete(int needed) {
+            lock.lock();
+            try {
+                return received >= needed;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public P2PDownloader(P2PClientConfig config, ResFileDto fileMetaData) {
+        this(config, fileMetaData, null);
+    }
+
+    public P2PDownloader(P2PClientConfig config, ResFileDto fileMetaData, GossipService gossip) {
+        this(config, fileMetaData, gossip, null);
+    }
+
+    /**
+     * @param context the shared pool and progress listener, or null for a pool of this download's own
+     */
+    public P2PDownloader(P2PClientConfig config, ResFileDto fileMetaData, GossipService gossip, TransferContext context) {
+        this.config = config;
+        this.fileMetaData = fileMetaData;
+        this.gossip = gossip;
+        this.threadPool = context != null ? context.threadPool() : config.newTransferExecutor();
+        this.progress = context != null ? context.progress() : bytes -> {};
+        this.metrics = config.getMetrics();
+        this.tracer = config.getTracer();
+        this.transferId = tracer.newTransfer();
+    }
+
+    /**
+     * @param listener called with every whole chunk or shard fetched and verified against its hash, on the
+     *                 thread that fetched it; e.g. a {@link p2pclient.service.Reseeder}
+     */
+    public void onVerifiedChunk(BiConsumer<ResChunkDto, byte[]> listener) {
+        this.verifiedChunks = listener;
+    }
+
+    /**
+     * Downloads the file.
+     *
+     * @return the assembled file in downloads/complete, or null if a chunk could not be fetched from any peer
+     */
+    public File download() throws IOException {
+        List<ResChunkDto> chunks = sortedChunks();
+        long chunkSize = validateLayout(chunks);
+        if (chunkSize < 0) {
+            return null;
+        }
+
+        // group the chunks by their preferred source so each peer gets few, large requests
+        boolean erasureCoded = fileMetaData.isErasureCoded();
+        Map<String, List<ChunkTask>> bySource = new LinkedHashMap<>();
+        List<ChunkTask> unsourced = new ArrayList<>();
+        for (ResChunkDto chunk : erasureCoded ? List.<ResChunkDto>of() : chunks) {
+            ChunkId chunkId = ChunkId.fromHex(chunk.chunk_hash);
+            ChunkTask task = new ChunkTask(chunk, chunkId, chunk.chunk_index * chunkSize, rankSources(chunkId, chunk));
+            if (task.sources().isEmpty()) {
+                unsourced.add(task);
+            } else {
+                ResPeerDto first = task.sources().getFirst();
+                bySource.computeIfAbsent(MetricsRegistry.peer(first.peer_ip, first.peer_port), k -> new ArrayList<>()).add(task);
+            }
+        }
+        // small enough batches that every download thread gets work
+        int batchSize = Math.clamp((chunks.size() + config.getMaxThreads() - 1) / Math.max(1, config.getMaxThreads()), 1, MAX_BATCH_SIZE);
+
+        // names of files uploaded from a directory carry their relative path; keep them inside downloads/complete
+        Path completeDirectory = Path.of(config.getDirectoryPath("complete"));
+        Path target = completeDirectory.resolve(fileMetaData.file_name).normalize();
+        if (!target.startsWith(completeDirectory) || target.equals(completeDirectory)) {
+            System.err.println("Refusing to download to " + fileMetaData.file_name + ": outside of " + completeDirectory);
+            return null;
+        }
+
+        Path assembling = Path.of(config.getDirectoryPath("incomplete"), fileMetaData.file_hash + ".part");
+        int failedChunks = unsourced.size();
+        unsourced.forEach(task -> System.err.println("No peer listed for chunk " + task.chunk().chunk_index));
+
+        long usableSpace = Files.getFileStore(assembling.getParent()).getUsableSpace();
+        if (usableSpace < fileMetaData.file_size) {
+            System.err.println("Not enough disk space for " + fileMetaData.file_name + ": " + fileMetaData.file_size
+                    + " bytes needed, " + usableSpace + " available.");
+            return null;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(assembling.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            // preallocate the full size up front (this also drops leftovers of an earlier attempt);
+            // chunks then land at fixed offsets in any order
+            file.setLength(fileMetaData.file_size);
+            if (erasureCoded) {
+                failedChunks += downloadGroups(chunks, chunkSize, channel);
+            }
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (List<ChunkTask> group : bySource.values()) {
+                for (int from = 0; from < group.size(); from += batchSize) {
+                    List<ChunkTask> batch = group.subList(from, Math.min(from + batchSize, group.size()));
+                    metrics.gauge("download.chunks.pending").add(batch.size());
+                    futures.add(threadPool.submit(() -> downloadBatch(batch, channel)));
+                }
+            }
+
+            for (Future<Integer> future : futures) {
+                try {
+                    failedChunks += future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failedChunks++;
+                } catch (ExecutionException e) {
+                    failedChunks++;
+                    System.err.println("Chunk download failed: " + e.getCause());
+                } catch (CancellationException e) {
+                    failedChunks++;
+                }
+            }
+        } finally {
+            threadPool.shutdown();
+        }
+
+        if (failedChunks > 0) {
+            System.err.println("Download incomplete: " + failedChunks + " of " + chunks.size() + " chunks unavailable.");
+            Files.deleteIfExists(assembling);
+            return null;
+        }
+
+        // the file only appears in downloads/complete once it is whole
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(assembling, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(assembling, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        System.out.println("Downloaded " + fileMetaData.file_name + " to " + target);
+        return target.toFile();
+    }
+
+    /**
+     * Checks that the chunks tile the file: indexes 0..n-1, all of one size except a shorter last chunk,
+     * adding up to file_size, and that every chunk hash is well-formed. A packed file is one extent chunk
+     * whose range lies inside the chunk and is file_size long.
+     *
+     * An erasure coded file is instead checked by {@link #validateShardLayout(List)}.
+     *
+     * @return the chunk size, or -1 if the metadata is inconsistent
+     */
+    private long validateLayout(List<ResChunkDto> chunks) {
+        if (fileMetaData.isErasureCoded()) {
+            return validateShardLayout(chunks);
+        }
+        if (chunks.stream().anyMatch(ResChunkDto::isExtent)) {
+            ResChunkDto chunk = chunks.getFirst();
+            if (chunks.size() != 1 || chunk.chunk_index != 0 || !ChunkId.isHex(chunk.chunk_hash) || !ChunkId.isHex(fileMetaData.file_hash)
+                    || chunk.chunk_offset < 0 || chunk.chunk_length < 0 || chunk.chunk_offset + chunk.chunk_length > chunk.chunk_size
+                    || fileMetaData.file_size == null || chunk.chunk_length != fileMetaData.file_size.longValue()) {
+                System.err.println("Invalid metadata for " + fileMetaData.file_name + ": unexpected packed chunk");
+                return -1;
+            }
+            return chunk.chunk_size;
+        }
+
+        long chunkSize = chunks.isEmpty() ? 0 : chunks.getFirst().chunk_size;
+        long total = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ResChunkDto chunk = chunks.get(i);
+            boolean last = i == chunks.size() - 1;
+            if (chunk.chunk_index != i || (last ? chunk.chunk_size > chunkSize : chunk.chunk_size != chunkSize)
+                    || !ChunkId.isHex(chunk.chunk_hash)) {
+                System.err.println("Invalid metadata for " + fileMetaData.file_name + ": unexpected chunk " + chunk.chunk_index);
+                return -1;
+            }
+            total += chunk.chunk_size;
+        }
+        if (fileMetaData.file_size == null || total != fileMetaData.file_size) {
+            System.err.println("Invalid metadata for " + fileMetaData.file_name + ": chunks add up to " + total
+                    + " bytes, file_size is " + fileMetaData.file_size);
+            return -1;
+        }
+        return chunkSize;
+    }
+
+    /**
+     * Checks an erasure coded layout: indexes 0..n-1 forming whole groups of k + m shards, equal shard sizes within
+     * a group, the same shard size S in every group but a smaller last one, and groups of k * S bytes adding up to
+     * file_size.
+     *
+     * @return the group size k * S, or -1 if the metadata is inconsistent
+     */
+    private long validateShardLayout(List<ResChunkDto> chunks) {
+        int dataShards = fileMetaData.file_data_shards;
+        int totalShards = dataShards + fileMetaData.file_parity_shards;
+        if (dataShards <= 0 || fileMetaData.file_parity_shards < 0 || totalShards >= 256 || chunks.size() % totalShards != 0
+                || fileMetaData.file_size == null) {
+            System.err.println("Invalid metadata for " + fileMetaData.file_name + ": unexpected shard layout");
+            return -1;
+        }
+        int groups = chunks.size() / totalShards;
+        long shardSize = groups == 0 ? 0 : chunks.getFirst().chunk_size;
+        long groupSize = dataShards * shardSize;
+        for (int i = 0; i < chunks.size(); i++) {
+            ResChunkDto chunk = chunks.get(i);
+            ResChunkDto first = chunks.get(i - i % totalShards);
+            boolean lastGroup = i / totalShards == groups - 1;
+            if (chunk.chunk_index != i || !chunk.chunk_size.equals(first.chunk_size) || chunk.isExtent()
+                    || (lastGroup ? chunk.chunk_size > shardSize : chunk.chunk_size != shardSize) || !ChunkId.isHex(chunk.chunk_hash)) {
+                System.err.println("Invalid metadata for " + fileMetaData.file_name + ": unexpected shard " + chunk.chunk_index);
+                return -1;
+            }
+        }
+        long lastLength = groups == 0 ? 0 : fileMetaData.file_size - (groups - 1) * groupSize;
+        long lastShardSize = groups == 0 ? 0 : chunks.getLast().chunk_size;
+        if (groups == 0 ? fileMetaData.file_size != 0 : lastLength <= 0 || (lastLength + dataShards - 1) / dataShards != lastShardSize) {
+            System.err.println("Invalid metadata for " + fileMetaData.file_name + ": shards do not add up to file_size "
+                    + fileMetaData.file_size);
+            return -1;
+        }
+        return groupSize;
+    }
+
+    /**
+     * Fetches every chunk group of an erasure coded file and writes the data to its offset.
+     *
+     * @return the number of groups with fewer than k retrievable shards
+     */
+    private int downloadGroups(List<ResChunkDto> chunks, long groupSize, FileChannel channel) {
+        ReedSolomon code = new ReedSolomon(fileMetaData.file_data_shards, fileMetaData.file_parity_shards);
+        int totalShards = code.getDataShards() + code.getParityShards();
+        List<ShardGroup> groups = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < chunks.size(); from += totalShards) {
+            long offset = (long) (from / totalShards) * groupSize;
+            ShardGroup group = new ShardGroup(chunks.subList(from, from + totalShards), offset,
+                    (int) Math.min(groupSize, fileMetaData.file_size - offset));
+            groups.add(group);
+            for (int worker = 0; worker < code.getDataShards(); worker++) {
+                futures.add(threadPool.submit(() -> {
+                    fetchShards(group, code, channel);
+                    return null;
+                }));
+            }
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                System.err.println("Shard download failed: " + e.getCause());
+            } catch (CancellationException e) {
+                break;
+            }
+        }
+        int failed = 0;
+        for (ShardGroup group : groups) {
+            if (!group.isComplete(code.getDataShards())) {
+                System.err.println("Fewer than " + code.getDataShards() + " shards available for the group at offset " + group.offset);
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * One of the k workers of a group: takes the next untried shard until one is fetched or none are left.
+     * The worker that delivers the k-th shard rebuilds the group and writes it.
+     */
+    private void fetchShards(ShardGroup group, ReedSolomon code, FileChannel channel) throws IOException {
+        int shard;
+        while ((shard = group.nextShard.getAndIncrement()) < group.shards.size()) {
+            ResChunkDto chunk = group.shards.get(shard);
+            ChunkId shardId = ChunkId.fromHex(chunk.chunk_hash);
+            for (ResPeerDto peer : withRetryRounds(rankSources(shardId, chunk))) {
+                byte[] shardData = downloadChunk(peer.peer_ip, peer.peer_port, chunk, shardId);
+                if (shardData == null) {
+                    continue;
+                }
+                if (group.add(shard, shardData, code.getDataShards())) {
+                    writeGroup(group, code, channel);
+                }
+                return;
+            }
+        }
+    }
+
+    private void writeGroup(ShardGroup group, ReedSolomon code, FileChannel channel) throws IOException {
+        writeAt(channel, assembleGroup(group.data, group.present, code, group.length), group.offset);
+    }
+
+    /**
+     * Rebuilds missing data shards and concatenates the data shards, without padding, into the group's bytes.
+     */
+    private byte[] assembleGroup(byte[][] shards, boolean[] present, ReedSolomon code, int length) {
+        for (int d = 0; d < code.getDataShards(); d++) {
+            if (!present[d]) {
+                metrics.counter("download.shards.rebuilt").inc();
+            }
+        }
+        code.decodeData(shards, present);
+        byte[] groupData = new byte[length];
+        int shardSize = shards[0].length;
+        for (int d = 0, position = 0; d < code.getDataShards() && position < length; d++, position += shardSize) {
+            System.arraycopy(shards[d], 0, groupData, position, Math.min(shardSize, length - position));
+        }
+        return groupData;
+    }
+
+    // =======================
+    //  Segments (range reads)
+    // =======================
+
+    private List<ResChunkDto> sortedChunks() {
+        List<ResChunkDto> chunks = new ArrayList<>(fileMetaData.file_chunks != null ? fileMetaData.file_chunks : List.of());
+        chunks.sort(Comparator.comparing(chunk -> chunk.chunk_index));
+        return chunks;
+    }
+
+    /**
+     * Splits the file into independently fetchable segments, in file order.
+     *
+     * @return the segments, or null if the metadata is inconsistent
+     */
+    List<Segment> segments() {
+        List<ResChunkDto> chunks = sortedChunks();
+        long unitSize = validateLayout(chunks);
+        if (unitSize < 0) {
+            return null;
+        }
+        List<Segment> segments = new ArrayList<>();
+        if (!chunks.isEmpty() && chunks.getFirst().isExtent()) {
+            segments.add(new Segment(0, chunks.getFirst().chunk_length, chunks));
+        } else if (fileMetaData.isErasureCoded()) {
+            int totalShards = fileMetaData.file_data_shards + fileMetaData.file_parity_shards;
+            for (int from = 0; from < chunks.size(); from += totalShards) {
+                long offset = (long) (from / totalShards) * unitSize;
+                segments.add(new Segment(offset, (int) Math.min(unitSize, fileMetaData.file_size - offset),
+                        chunks.subList(from, from + totalShards)));
+            }
+        } else {
+            for (ResChunkDto chunk : chunks) {
+                segments.add(new Segment(chunk.chunk_index * unitSize, chunk.chunk_size, List.of(chunk)));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Fetches one segment on the calling thread, trying every source of every chunk before giving up.
+     *
+     * @return the segment's verified bytes, or null if no peer could serve it
+     */
+    byte[] fetchSegment(Segment segment) {
+        long start = System.nanoTime();
+        byte[] data = null;
+        if (segment.chunks().getFirst().isExtent()) {
+            ResChunkDto chunk = segment.chunks().getFirst();
+            ChunkId chunkId = ChunkId.fromHex(chunk.chunk_hash);
+            for (ResPeerDto peer : withRetryRounds(rankSources(chunkId, chunk))) {
+                data = downloadRange(peer.peer_ip, peer.peer_port, chunkId, chunk.chunk_offset, chunk.chunk_length);
+                if (data != null) break;
+            }
+        } else if (fileMetaData.isErasureCoded()) {
+            ReedSolomon code = new ReedSolomon(fileMetaData.file_data_shards, fileMetaData.file_parity_shards);
+            List<ResChunkDto> shards = segment.chunks();
+            byte[][] shardData = new byte[shards.size()][];
+            boolean[] present = new boolean[shards.size()];
+            int received = 0;
+            for (int s = 0; s < shards.size() && received < code.getDataShards(); s++) {
+                ResChunkDto shard = shards.get(s);
+                ChunkId shardId = ChunkId.fromHex(shard.chunk_hash);
+                for (ResPeerDto peer : withRetryRounds(rankSources(shardId, shard))) {
+                    shardData[s] = downloadChunk(peer.peer_ip, peer.peer_port, shard, shardId);
+                    if (shardData[s] != null) {
+                        present[s] = true;
+                        received++;
+                        break;
+                    }
+                }
+            }
+            if (received == code.getDataShards()) {
+                data = assembleGroup(shardData, present, code, segment.length());
+            }
+        } else {
+            ResChunkDto chunk = segment.chunks().getFirst();
+            ChunkId chunkId = ChunkId.fromHex(chunk.chunk_hash);
+            for (ResPeerDto peer : withRetryRounds(rankSources(chunkId, chunk))) {
+                data = downloadChunk(peer.peer_ip, peer.peer_port, chunk, chunkId);
+                if (data != null) break;
+            }
+        }
+        if (data != null) {
+            metrics.histogram("read.segment.latency").recordSince(start);
+        }
+        return data;
+    }
+
+    private List<ResPeerDto> rankSources(ChunkId chunkId, ResChunkDto chunk) {
+        List<ResPeerDto> chunkPeers = new ArrayList<>(chunk.chunk_peers != null ? chunk.chunk_peers : List.of());
+        if (gossip != null) {
+            chunkPeers = new ArrayList<>(gossip.rankSources(chunkId, chunkPeers));
+        } else {
+            Collections.shuffle(chunkPeers);
+        }
+        // peers that answered "busy" go last until their retry hint passes; the sort is stable
+        ConcurrencyLimiter limiter = config.getConcurrencyLimiter();
+        chunkPeers.sort(Comparator.comparing(peer -> limiter.isBusy(MetricsRegistry.peer(peer.peer_ip, peer.peer_port))));
+        return chunkPeers;
+    }
+
+    private Iterable<ResPeerDto> withRetryRounds(List<ResPeerDto> sources) {
+        return withRetryRounds(sources, sources, System.nanoTime());
+    }
+
+    /**
+     * The sources, then those of the candidates that failed or answered "busy" again, after a pause or their retry
+     * hint (see {@link ConcurrencyLimiter#withRetryRounds}).
+     */
+    private Iterable<ResPeerDto> withRetryRounds(List<ResPeerDto> sources, List<ResPeerDto> candidates, long sinceNanos) {
+        return config.getConcurrencyLimiter().withRetryRounds(sources, candidates, peer -> MetricsRegistry.peer(peer.peer_ip, peer.peer_port), sinceNanos);
+    }
+
+    /**
+     * Requests a batch from its preferred peer, then retries every chunk the peer did not deliver
+     * from the chunk's other sources, one at a time, and from the preferred peer last.
+     *
+     * @return the number of chunks no peer could serve
+     */
+    private int downloadBatch(List<ChunkTask> batch, FileChannel channel) throws IOException {
+        // a single chunk goes through the plain "download" message
+        boolean batched = batch.size() > 1;
+        long start = System.nanoTime();
+        ResPeerDto peer = batch.getFirst().sources().getFirst();
+        Set<ChunkTask> delivered = batched ? downloadChunks(peer.peer_ip, peer.peer_port, batch, channel) : Set.of();
+
+        int failed = 0;
+        for (ChunkTask task : batch) {
+            if (!delivered.contains(task) && !downloadChunkFromPeers(task, channel, batched, start)) {
+                failed++;
+            }
+            metrics.gauge("download.chunks.pending").dec();
+        }
+        return failed;
+    }
+
+    /**
+     * Tries the chunk's sources in order until one returns data matching the chunk hash. After a batch the first
+     * source goes last: a batch cut short by a dropped connection says nothing about the peer holding the chunk.
+     * Sources that failed or answered "busy" since {@code sinceNanos} are tried again after a pause or their retry hint.
+     */
+    private boolean downloadChunkFromPeers(ChunkTask task, FileChannel channel, boolean batched, long sinceNanos) throws IOException {
+        ResChunkDto chunk = task.chunk();
+        List<ResPeerDto> sources = task.sources();
+        if (batched) {
+            sources = new ArrayList<>(sources);
+            sources.add(sources.removeFirst());
+        }
+        for (ResPeerDto peer : withRetryRounds(sources, sources, sinceNanos)) {
+            byte[] chunkData = chunk.isExtent()
+                    ? downloadRange(peer.peer_ip, peer.peer_port, task.id(), chunk.chunk_offset, chunk.chunk_length)
+                    : downloadChunk(peer.peer_ip, peer.peer_port, chunk, task.id());
+            if (chunkData != null) {
+                long start = System.nanoTime();
+                writeAt(channel, chunkData, task.offset());
+                tracer.span(transferId, task.id(), chunk.chunk_index, MetricsRegistry.peer(peer.peer_ip, peer.peer_port), Phase.WRITE, start, chunkData.length);
+                return true;
+            }
+        }
+        System.err.println("No peer could serve chunk " + chunk.chunk_index + " (" + chunk.chunk_hash + ")");
+        return false;
+    }
+
+    /**
+     * Positional writes do not move a shared position, so threads write their chunks without locking.
+     */
+    private void writeAt(FileChannel channel, byte[] data, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        progress.accept(data.length);
+    }
+
+    /**
+     * Runs one request to a peer once the {@link ConcurrencyLimiter} lets it; a null or empty result counts as a
+     * failed transfer.
+     *
+     * @return the request's result, or null if interrupted while waiting
+     */
+    private <T> T limited(String peerIp, int peerPort, Supplier<T> request, ToLongFunction<T> size) {
+        ConcurrencyLimiter limiter = config.getConcurrencyLimiter();
+        ConcurrencyLimiter.Permit permit;
+        try {
+            permit = limiter.acquire(MetricsRegistry.peer(peerIp, peerPort));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        T result = null;
+        try {
+            result = request.get();
+            return result;
+        } finally {
+            long bytes = result != null ? size.applyAsLong(result) : 0;
+            limiter.release(permit, bytes, bytes > 0);
+        }
+    }
+
+    /**
+     * Fetches several chunks from one peer with a single "vdownload" request; each verified chunk is written to its offset.
+     * The peer answers every requested hash, in order, with a frame: status byte (0 = found), int length, data.
+     *
+     * @return the chunks that were delivered and verified
+     */
+    private Set<ChunkTask> downloadChunks(String peerIp, int peerPort, List<ChunkTask> batch, FileChannel channel) {
+        Set<ChunkTask> delivered = limited(peerIp, peerPort, () -> requestChunks(peerIp, peerPort, batch, channel),
+                chunks -> chunks.stream().mapToLong(task -> task.chunk().chunk_size).sum());
+        return delivered != null ? delivered : Set.of();
+    }
+
+    private Set<ChunkTask> requestChunks(String peerIp, int peerPort, List<ChunkTask> batch, FileChannel channel) {
+        String peer = MetricsRegistry.peer(peerIp, peerPort);
+        Set<ChunkTask> delivered = new HashSet<>();
+        long start = System.nanoTime();
+        try (Connection connection = ChunkTransfer.connect(config.getTransport(), peerIp, peerPort);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+
+            // the batch connects and asks once; those spans go to its first chunk
+            ChunkTask first = batch.getFirst();
+            long mark = tracer.span(transferId, first.id(), first.chunk().chunk_index, peer, Phase.CONNECT, start, 0);
+            dos.writeBytes("vdownload ");
+            dos.writeInt(batch.size());
+            for (ChunkTask task : batch) {
+                dos.write(task.id().toHexBytes());
+            }
+            dos.flush();
+            mark = tracer.span(transferId, first.id(), first.chunk().chunk_index, peer, Phase.REQUEST, mark, 0);
+            PeerBusyException.check(dis);
+            mark = tracer.span(transferId, first.id(), first.chunk().chunk_index, peer, Phase.FIRST_BYTE, mark, 0);
+
+            long frameStart = mark;
+            for (ChunkTask task : batch) {
+                ResChunkDto chunk = task.chunk();
+                int status = dis.readUnsignedByte();
+                int length = dis.readInt();
+                if (status != 0) {
+                    metrics.counter("download.chunk.failures", peer).inc();
+                    continue;
+                }
+                if (length != chunk.chunk_size) {
+                    // the rest of the stream cannot be trusted to be framed correctly
+                    metrics.counter("download.chunk.failures", peer).inc();
+                    break;
+                }
+                byte[] chunkData = new byte[length];
+                dis.readFully(chunkData);
+                mark = tracer.span(transferId, task.id(), chunk.chunk_index, peer, Phase.LAST_BYTE, mark, length);
+                boolean verified = task.id().equals(HashUtils.hash(chunkData, 0, length));
+                mark = tracer.span(transferId, task.id(), chunk.chunk_index, peer, Phase.VERIFY, mark, length);
+                if (!verified) {
+                    metrics.counter("download.chunk.failures", peer).inc();
+                    continue;
+                }
+                writeAt(channel, chunkData, task.offset());
+                mark = tracer.span(transferId, task.id(), chunk.chunk_index, peer, Phase.WRITE, mark, length);
+                verifiedChunks.accept(chunk, chunkData);
+                delivered.add(task);
+
+                metrics.histogram("download.chunk.latency", peer).recordSince(frameStart);
+                metrics.meter("download.bytes", peer).mark(length);
+                frameStart = mark = System.nanoTime();
+            }
+            metrics.histogram("download.batch.latency", peer).recordSince(start);
+
+        } catch (PeerBusyException e) {
+            busy(peerIp, peerPort, e);
+        } catch (IOException e) {
+            metrics.counter("download.chunk.failures", peer).inc();
+            if (gossip != null && delivered.isEmpty()) {
+                gossip.reportUnreachable(peerIp, peerPort);
+            }
+            System.err.println("Failed to download chunks from " + peerIp + ":" + peerPort);
+        }
+        return delivered;
+    }
+
+    /**
+     * Fetches a packed file's range of a shared chunk with a "range" message. The range cannot be checked against
+     * the chunk hash, so it is checked against the file hash instead.
+     *
+     * @return the file bytes, or null if the peer failed or sent data that does not match the file hash
+     */
+    private byte[] downloadRange(String peerIp, int peerPort, ChunkId chunkId, long offset, int length) {
+        return limited(peerIp, peerPort, () -> requestRange(peerIp, peerPort, chunkId, offset, length), data -> data.length);
+    }
+
+    private byte[] requestRange(String peerIp, int peerPort, ChunkId chunkId, long offset, int length) {
+        String peer = MetricsRegistry.peer(peerIp, peerPort);
+        long start = System.nanoTime();
+        try (Connection connection = ChunkTransfer.connect(config.getTransport(), peerIp, peerPort);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+
+            // a packed file's only chunk has index 0
+            long mark = tracer.span(transferId, chunkId, 0, peer, Phase.CONNECT, start, 0);
+            dos.writeBytes("range     ");
+            dos.write(chunkId.toHexBytes());
+            dos.writeLong(offset);
+            dos.writeInt(length);
+            dos.flush();
+            mark = tracer.span(transferId, chunkId, 0, peer, Phase.REQUEST, mark, 0);
+            PeerBusyException.check(dis);
+            mark = tracer.span(transferId, chunkId, 0, peer, Phase.FIRST_BYTE, mark, 0);
+
+            int status = dis.readUnsignedByte();
+            int received = dis.readInt();
+            if (status != 0 || received != length) {
+                metrics.counter("download.chunk.failures", peer).inc();
+                return null;
+            }
+            byte[] data = new byte[length];
+            dis.readFully(data);
+            mark = tracer.span(transferId, chunkId, 0, peer, Phase.LAST_BYTE, mark, length);
+            boolean verified = ChunkId.fromHex(fileMetaData.file_hash).equals(HashUtils.hash(data, 0, length));
+            tracer.span(transferId, chunkId, 0, peer, Phase.VERIFY, mark, length);
+            if (!verified) {
+                metrics.counter("download.chunk.failures", peer).inc();
+                return null;
+            }
+
+            metrics.histogram("download.chunk.latency", peer).recordSince(start);
+            metrics.meter("download.bytes", peer).mark(length);
+            return data;
+
+        } catch (PeerBusyException e) {
+            busy(peerIp, peerPort, e);
+            return null;
+        } catch (IOException e) {
+            metrics.counter("download.chunk.failures", peer).inc();
+            if (gossip != null) {
+                gossip.reportUnreachable(peerIp, peerPort);
+            }
+            System.err.println("Failed to download range from " + peerIp + ":" + peerPort);
+            return null;
+        }
+    }
+
+    /**
+     * @return the chunk bytes, or null if the peer failed or sent data that does not match the hash
+     */
+    private byte[] downloadChunk(String peerIp, int peerPort, ResChunkDto chunk, ChunkId chunkId) {
+        byte[] data = limited(peerIp, peerPort, () -> requestChunk(peerIp, peerPort, chunkId, chunk.chunk_index, chunk.chunk_size), bytes -> bytes.length);
+        if (data != null) {
+            verifiedChunks.accept(chunk, data);
+        }
+        return data;
+    }
+
+    private byte[] requestChunk(String peerIp, int peerPort, ChunkId chunkId, long chunkIndex, int chunkSize) {
+        String peer = MetricsRegistry.peer(peerIp, peerPort);
+        long start = System.nanoTime();
+        try (Connection connection = ChunkTransfer.connect(config.getTransport(), peerIp, peerPort);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+
+            long mark = tracer.span(transferId, chunkId, chunkIndex, peer, Phase.CONNECT, start, 0);
+            dos.writeBytes("download  ");
+            dos.write(chunkId.toHexBytes());
+            dos.flush();
+            mark = tracer.span(transferId, chunkId, chunkIndex, peer, Phase.REQUEST, mark, 0);
+            PeerBusyException.check(dis);
+            mark = tracer.span(transferId, chunkId, chunkIndex, peer, Phase.FIRST_BYTE, mark, 0);
+
+            // one frame: status byte (0 = found), int length, data
+            int status = dis.readUnsignedByte();
+            int length = dis.readInt();
+            if (status != 0 || length != chunkSize) {
+                metrics.counter("download.chunk.failures", peer).inc();
+                return null;
+            }
+            byte[] chunkData = new byte[length];
+            dis.readFully(chunkData);
+            mark = tracer.span(transferId, chunkId, chunkIndex, peer, Phase.LAST_BYTE, mark, chunkData.length);
+            boolean verified = chunkId.equals(HashUtils.hash(chunkData, 0, chunkData.length));
+            tracer.span(transferId, chunkId, chunkIndex, peer, Phase.VERIFY, mark, chunkData.length);
+            if (!verified) {
+                metrics.counter("download.chunk.failures", peer).inc();
+                return null;
+            }
+
+            metrics.histogram("download.chunk.latency", peer).recordSince(start);
+            metrics.meter("download.bytes", peer).mark(chunkData.length);
+            return chunkData;
 
+        } catch (PeerBusyException e) {
+            busy(peerIp, peerPort, e);
+            return null;
+        } catch (IOException e) {
+            metrics.counter("download.chunk.failures", peer).inc();
+            if (gossip != null) {
+                gossip.reportUnreachable(peerIp, peerPort);
+            }
+            System.err.println("Failed to download chunk from " + peerIp + ":" + peerPort);
+            return null;
+        }
+    }
 
+    /**
+     * A saturated peer is alive, so it is not reported unreachable; it only goes last until its retry hint passes.
+     */
+    private void busy(String peerIp, int peerPort, PeerBusyException e) {
+        String peer = MetricsRegistry.peer(peerIp, peerPort);
+        metrics.counter("download.busy", peer).inc();
+        config.getConcurrencyLimiter().busy(peer, e.getRetryAfterMillis());
+    }
 }
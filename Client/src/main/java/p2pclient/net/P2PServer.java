@@ -1,29 +1,88 @@
 package p2pclient.net;
 
 import p2pclient.config.P2PClientConfig;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.store.ChunkId;
+import p2pclient.store.ChunkStore;
+import p2pclient.transport.Connection;
+import p2pclient.transport.Listener;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * P2PServer - Handles incoming peer connections (ping, download, upload).
+ * P2PServer - Handles incoming peer connections (ping, download, vdownload, range, upload, replica, gossip), accepted
+ * from a {@link Listener} of the node's transport.
+ * Connections are handled by a pool of maxThreads platform threads, or, in virtual-thread mode, each on its own
+ * virtual thread with a semaphore allowing maxThreads handlers at once; the others wait without holding a thread,
+ * so a slow peer no longer takes one of a few pool slots.
+ * Admission control keeps the wait short: once maxPendingConnections connections wait for a handler, or one IP has
+ * maxConnectionsPerClient connections handled or waiting, new connections are answered "busy" with a retry hint
+ * right away (see {@link PeerBusyException}), so the peer tries another replica instead of timing out here.
  */
 public class P2PServer {
-    private final ServerSocket serverSocket;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final int MAX_UPLOAD_SIZE = 64 * 1024 * 1024; // well above the largest chunk size
+    private static final int MIN_RETRY_AFTER_MILLIS = 10;
+    private static final int MAX_RETRY_AFTER_MILLIS = 5000;
+    private static final int REJECT_DRAIN_TIMEOUT_MILLIS = 2000;
+    private static final int FRAME_BUFFER_SIZE = 64 * 1024;
+
+    private final Listener listener;
     private final ExecutorService threadPool;
+    private final Semaphore handlerSlots; // virtual-thread mode only
+    private final int maxHandlers;
+    private final int maxAdmitted;
+    private final int maxPerClient;
+    private final AtomicInteger admitted = new AtomicInteger(); // handled or waiting
+    private final Map<String, Integer> admittedPerClient = new ConcurrentHashMap<>(); // no entry once a client has none
+    private volatile double handlerMillis = 1; // moving average of the time a connection takes, for retry hints
     private final P2PClientConfig config;
+    private final MetricsRegistry metrics;
+    private final GossipService gossip;
+    private volatile ReplicationService replication;
+
+    public P2PServer(Listener listener, int maxThreads, P2PClientConfig config) {
+        this(listener, maxThreads, config, null);
+    }
 
-    public P2PServer(ServerSocket serverSocket, int maxThreads, P2PClientConfig config) {
-        this.serverSocket = serverSocket;
-        this.threadPool = Executors.newFixedThreadPool(maxThreads);
+    /**
+     * @param maxThreads connections handled at once
+     * @param gossip     answers "gossip" messages; null to reject them
+     */
+    public P2PServer(Listener listener, int maxThreads, P2PClientConfig config, GossipService gossip) {
+        this.gossip = gossip;
+        this.listener = listener;
         this.config = config;
+        this.metrics = config.getMetrics();
+        this.maxHandlers = maxThreads;
+        this.maxAdmitted = maxThreads + config.getMaxPendingConnections();
+        this.maxPerClient = config.getMaxConnectionsPerClient();
+        if (config.isVirtualThreads()) {
+            this.threadPool = Executors.newVirtualThreadPerTaskExecutor();
+            this.handlerSlots = new Semaphore(maxThreads);
+            metrics.gauge("server.queue.depth", handlerSlots::getQueueLength);
+            metrics.gauge("server.active.handlers", () -> maxThreads - handlerSlots.availablePermits());
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+            this.threadPool = pool;
+            this.handlerSlots = null;
+            metrics.gauge("server.queue.depth", () -> pool.getQueue().size());
+            metrics.gauge("server.active.handlers", pool::getActiveCount);
+        }
+    }
+
+    /**
+     * Reports the chunks this server serves and receives to a ReplicationService, and lets it drop the replicas
+     * pushed here once they are cold. Without one, pushed replicas are kept like uploads.
+     */
+    public void setReplication(ReplicationService replication) {
+        this.replication = replication;
     }
 
     /**
@@ -31,22 +90,111 @@ public class P2PServer {
      */
     public void start() {
         try {
-            while (!serverSocket.isClosed()) {
-                Socket clientSocket = serverSocket.accept();
-                threadPool.execute(new PeerHandler(clientSocket, config.getDirectories()));
+            while (!listener.isClosed()) {
+                Connection connection = listener.accept();
+                metrics.counter("server.connections").inc();
+                String client = connection.getRemoteAddress();
+                if (!admit(client)) {
+                    rejectBusy(connection);
+                    continue;
+                }
+                PeerHandler handler = new PeerHandler(connection, config.getChunkStore(), gossip, replication, metrics);
+                threadPool.execute(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        if (handlerSlots == null) {
+                            handler.run();
+                        } else {
+                            runInSlot(handler);
+                        }
+                    } finally {
+                        handlerMillis += ((System.nanoTime() - start) / 1e6 - handlerMillis) * 0.1;
+                        release(client);
+                    }
+                });
             }
         } catch (IOException e) {
+            if (listener.isClosed()) {
+                return; // stop() closed the listener
+            }
             throw new RuntimeException("Failed to start P2P server on port ", e);
         }
     }
 
+    private boolean admit(String client) {
+        if (admittedPerClient.merge(client, 1, Integer::sum) > maxPerClient) {
+            releaseClient(client);
+            return false;
+        }
+        if (admitted.incrementAndGet() > maxAdmitted) {
+            admitted.decrementAndGet();
+            releaseClient(client);
+            return false;
+        }
+        return true;
+    }
+
+    private void release(String client) {
+        admitted.decrementAndGet();
+        releaseClient(client);
+    }
+
+    // merge and computeIfPresent update a client's count atomically, so an entry removed here is never lost by admit
+    private void releaseClient(String client) {
+        admittedPerClient.computeIfPresent(client, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Answers "busy" and a retry hint on a virtual thread of its own, so rejecting never waits for a handler.
+     * The rest of the request is read and discarded: closing with unread data would reset the connection, and the
+     * peer could lose the reply.
+     */
+    private void rejectBusy(Connection connection) {
+        metrics.counter("server.busy").inc();
+        // about the time until a handler frees up for it
+        int retryAfter = (int) Math.clamp(handlerMillis * admitted.get() / maxHandlers, MIN_RETRY_AFTER_MILLIS, MAX_RETRY_AFTER_MILLIS);
+        Thread.ofVirtual().name("p2p-busy").start(() -> {
+            try (connection) {
+                connection.setReadTimeout(REJECT_DRAIN_TIMEOUT_MILLIS);
+                DataOutputStream dos = new DataOutputStream(connection.getOutputStream());
+                dos.write(PeerBusyException.REPLY);
+                dos.writeInt(retryAfter);
+                dos.flush();
+                connection.shutdownOutput();
+                connection.getInputStream().transferTo(OutputStream.nullOutputStream());
+            } catch (IOException ignored) {
+            }
+        });
+    }
+
+    private void runInSlot(PeerHandler handler) {
+        try {
+            handlerSlots.acquire();
+        } catch (InterruptedException e) {
+            closeQuietly(handler.connection());
+            return;
+        }
+        try {
+            handler.run();
+        } finally {
+            handlerSlots.release();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
     /**
      * Stops the server.
      */
     public void stop() {
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            if (listener != null && !listener.isClosed()) {
+                listener.close();
                 System.out.println("P2P Server stopped.");
             }
             threadPool.shutdown();
@@ -56,19 +204,23 @@ public class P2PServer {
     }
 
     /**
-     * Handles peer connections (ping, download, upload).
+     * Handles peer connections (ping, download, vdownload, range, upload, replica, gossip).
+     *
+     * @param replication null unless proactive replication is on
      */
-        private record PeerHandler(Socket clientSocket, Map<String, String> directories) implements Runnable {
+    private record PeerHandler(Connection connection, ChunkStore chunkStore, GossipService gossip, ReplicationService replication,
+                               MetricsRegistry metrics) implements Runnable {
 
         @Override
         public void run() {
-            try (BufferedInputStream inputStream = new BufferedInputStream(clientSocket.getInputStream());
-                 BufferedOutputStream outputStream = new BufferedOutputStream(clientSocket.getOutputStream())) {
+            // inbound connections come from ephemeral ports, so server side metrics are per remote IP
+            String peer = connection.getRemoteAddress();
+            try (BufferedInputStream inputStream = new BufferedInputStream(connection.getInputStream());
+                 BufferedOutputStream outputStream = new BufferedOutputStream(connection.getOutputStream())) {
 
                 // first 10 byte for message type
-                byte[] messageBuffer = new byte[10];
-                int bytesRead = inputStream.read(messageBuffer);
-                if (bytesRead != 10) {
+                byte[] messageBuffer = inputStream.readNBytes(10);
+                if (messageBuffer.length != 10) {
                     return;
                 }
 
@@ -77,84 +229,229 @@ public class P2PServer {
                 if ("ping".equalsIgnoreCase(messageType)) {
                     outputStream.write("pong      ".getBytes());
                     outputStream.flush();
-                    System.out.println("Responded to ping request.");
+                    metrics.counter("server.ping").inc();
                     return;
                 }
 
                 if ("download".equalsIgnoreCase(messageType)) {
-                    handleDownload(inputStream, outputStream);
+                    long start = System.nanoTime();
+                    long bytesSent = handleDownload(inputStream, outputStream);
+                    metrics.histogram("server.download.latency", peer).recordSince(start);
+                    metrics.meter("server.bytes.sent", peer).mark(bytesSent);
+                    return;
+                }
+
+                if ("vdownload".equalsIgnoreCase(messageType)) {
+                    long start = System.nanoTime();
+                    long bytesSent = handleBatchDownload(inputStream, outputStream);
+                    metrics.histogram("server.batch.download.latency", peer).recordSince(start);
+                    metrics.meter("server.bytes.sent", peer).mark(bytesSent);
+                    return;
+                }
+
+                if ("range".equalsIgnoreCase(messageType)) {
+                    long start = System.nanoTime();
+                    long bytesSent = handleRange(inputStream, outputStream);
+                    metrics.histogram("server.range.latency", peer).recordSince(start);
+                    metrics.meter("server.bytes.sent", peer).mark(bytesSent);
                     return;
                 }
 
                 if ("upload".equalsIgnoreCase(messageType)) {
-                    handleUpload(inputStream);
+                    long start = System.nanoTime();
+                    long bytesReceived = handleUpload(inputStream, outputStream, false);
+                    metrics.histogram("server.upload.latency", peer).recordSince(start);
+                    metrics.meter("server.bytes.received", peer).mark(bytesReceived);
+                    return;
+                }
+
+                if ("replica".equalsIgnoreCase(messageType)) {
+                    long start = System.nanoTime();
+                    long bytesReceived = handleUpload(inputStream, outputStream, true);
+                    metrics.histogram("server.replica.latency", peer).recordSince(start);
+                    metrics.meter("server.bytes.received", peer).mark(bytesReceived);
+                    return;
+                }
+
+                if ("gossip".equalsIgnoreCase(messageType)) {
+                    handleGossip(inputStream, outputStream);
+                    metrics.counter("server.gossip").inc();
                     return;
                 }
 
             } catch (IOException e) {
+                metrics.counter("server.errors", peer).inc();
                 System.err.println("Error handling peer connection: " + e.getMessage());
             } finally {
                 try {
-                    clientSocket.close();
+                    connection.close();
                 } catch (IOException ignored) {
                 }
             }
         }
 
-        private void handleDownload(InputStream inputStream, OutputStream outputStream) throws IOException {
-            byte[] chunkHashBuffer = new byte[64]; // SHA-256 (64 char)
-            int bytesRead = inputStream.read(chunkHashBuffer);
-            if (bytesRead <= 0) {
+        /**
+         * "download": chunk hash (64 char). Answered with one vdownload style frame; its status byte can never be
+         * mistaken for the start of a busy reply.
+         */
+        private long handleDownload(InputStream inputStream, OutputStream outputStream) throws IOException {
+            ChunkId chunkId = ChunkId.fromHexBytes(inputStream.readNBytes(ChunkId.HEX_LENGTH), 0); // SHA-256 (64 char)
+            DataOutputStream dos = new DataOutputStream(outputStream);
+            long sent = writeFrame(chunkId, dos, new byte[FRAME_BUFFER_SIZE]);
+            dos.flush();
+            return sent;
+        }
+
+        /**
+         * "vdownload": int count, then count chunk hashes (64 char each). Every hash is answered in request order
+         * with a frame of status byte (0 = found, 1 = not found), int length and the chunk data.
+         */
+        private long handleBatchDownload(InputStream inputStream, OutputStream outputStream) throws IOException {
+            DataInputStream dis = new DataInputStream(inputStream);
+            int count = dis.readInt();
+            if (count <= 0 || count > MAX_BATCH_SIZE) {
                 outputStream.write("error     ".getBytes());
                 outputStream.flush();
-                return;
+                return 0;
+            }
+            ChunkId[] chunkIds = new ChunkId[count];
+            byte[] chunkHashBuffer = new byte[ChunkId.HEX_LENGTH];
+            for (int i = 0; i < count; i++) {
+                dis.readFully(chunkHashBuffer);
+                chunkIds[i] = ChunkId.fromHexBytes(chunkHashBuffer, 0);
             }
 
-            String chunkHash = new String(chunkHashBuffer).trim();
-            sendChunk(chunkHash, outputStream);
+            DataOutputStream dos = new DataOutputStream(outputStream);
+            long total = 0;
+            byte[] buffer = new byte[FRAME_BUFFER_SIZE];
+            for (ChunkId chunkId : chunkIds) {
+                total += writeFrame(chunkId, dos, buffer);
+            }
+            dos.flush();
+            return total;
         }
 
-        private void handleUpload(InputStream inputStream) throws IOException {
-            byte[] chunkHashBuffer = new byte[64]; // SHA-256 (64 char)
-            int bytesRead = inputStream.read(chunkHashBuffer);
-            if (bytesRead <= 0) {
-                return;
+        /**
+         * "range": chunk hash (64 char), long offset, int length. Answered with one vdownload style frame holding
+         * only that part of the chunk; used for small files packed into a shared chunk.
+         */
+        private long handleRange(InputStream inputStream, OutputStream outputStream) throws IOException {
+            DataInputStream dis = new DataInputStream(inputStream);
+            byte[] chunkHashBuffer = new byte[ChunkId.HEX_LENGTH];
+            dis.readFully(chunkHashBuffer);
+            ChunkId chunkId = ChunkId.fromHexBytes(chunkHashBuffer, 0);
+            long offset = dis.readLong();
+            int length = dis.readInt();
+
+            DataOutputStream dos = new DataOutputStream(outputStream);
+            File chunkFile = chunkId == null ? null : chunkStore.getChunkFile(chunkId);
+            if (chunkFile == null || !chunkFile.exists() || offset < 0 || length < 0 || offset + length > chunkFile.length()) {
+                metrics.counter("server.chunk.not_found").inc();
+                dos.writeByte(1);
+                dos.writeInt(0);
+                dos.flush();
+                return 0;
+            }
+
+            byte[] data = new byte[length];
+            try (RandomAccessFile raf = new RandomAccessFile(chunkFile, "r")) {
+                raf.seek(offset);
+                raf.readFully(data);
+            }
+            dos.writeByte(0);
+            dos.writeInt(length);
+            dos.write(data);
+            dos.flush();
+            if (replication != null) {
+                replication.served(chunkId);
+            }
+            return length;
+        }
+
+        /**
+         * "upload": chunk hash (64 char), int length, then the chunk data. Answered with "OK" once the chunk is
+         * stored or already held, or "ERROR" if the data does not match the hash or the length is out of range.
+         * "replica" is the same message from a peer replicating a hot chunk; a chunk it stored may be dropped again.
+         */
+        private long handleUpload(InputStream inputStream, OutputStream outputStream, boolean replica) throws IOException {
+            DataInputStream dis = new DataInputStream(inputStream);
+            DataOutputStream dos = new DataOutputStream(outputStream);
+            ChunkId chunkId = ChunkId.fromHexBytes(dis.readNBytes(ChunkId.HEX_LENGTH), 0); // SHA-256 (64 char)
+            int length = dis.readInt();
+            if (chunkId == null || length < 0 || length > MAX_UPLOAD_SIZE) {
+                metrics.counter("server.upload.rejected").inc();
+                dos.writeUTF("ERROR");
+                dos.flush();
+                return 0;
+            }
+
+            ChunkStore.IngestResult result = chunkStore.ingest(chunkId, dis, length);
+            if (result == ChunkStore.IngestResult.DUPLICATE) {
+                metrics.counter("server.upload.duplicate").inc();
+            } else if (result == ChunkStore.IngestResult.REJECTED) {
+                metrics.counter("server.upload.rejected").inc();
+                System.err.println("Rejected chunk " + chunkId + ": data does not match its hash");
+            }
+            if (replication != null && (replica ? result == ChunkStore.IngestResult.STORED : result != ChunkStore.IngestResult.REJECTED)) {
+                replication.received(chunkId, replica);
             }
 
-            String chunkHash = new String(chunkHashBuffer).trim();
-            receiveChunk(chunkHash, inputStream);
+            // the uploader half-closes after the chunk data and waits for the acknowledgement
+            dos.writeUTF(result == ChunkStore.IngestResult.REJECTED ? "ERROR" : "OK");
+            dos.flush();
+            return length;
         }
 
-        private void sendChunk(String chunkHash, OutputStream outputStream) throws IOException {
-            // find file name == chunkHash & send to peer
-            File chunkFile = new File(directories.get("uploads") + "/" + chunkHash);
-            if (!chunkFile.exists()) {
-                outputStream.write("not_found".getBytes());
+        private void handleGossip(InputStream inputStream, OutputStream outputStream) throws IOException {
+            if (gossip == null) {
+                outputStream.write("error     ".getBytes());
                 outputStream.flush();
                 return;
             }
+            GossipDigest remote = GossipDigest.read(new DataInputStream(inputStream));
+            gossip.receive(remote).write(new DataOutputStream(outputStream));
+        }
 
-            try (FileInputStream fileInputStream = new FileInputStream(chunkFile)) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
+        /**
+         * Writes the frame answering one requested chunk: status byte (0 = found, 1 = not found), int length and the
+         * chunk data, streamed from its file through {@code buffer}. The caller flushes.
+         *
+         * @param chunkId null for a malformed hash, answered as not found
+         * @return the bytes of chunk data sent
+         */
+        private long writeFrame(ChunkId chunkId, DataOutputStream dos, byte[] buffer) throws IOException {
+            FileInputStream fileInputStream;
+            try {
+                if (chunkId == null) {
+                    throw new FileNotFoundException("malformed chunk hash");
                 }
+                fileInputStream = new FileInputStream(chunkStore.getChunkFile(chunkId));
+            } catch (FileNotFoundException e) {
+                metrics.counter("server.chunk.not_found").inc();
+                dos.writeByte(1);
+                dos.writeInt(0);
+                return 0;
             }
-            outputStream.flush();
-        }
 
-        private void receiveChunk(String chunkHash, InputStream inputStream) throws IOException {
-            // receive chunk from peer and save as file of its hash
-            // FIX instant return if directories.get("uploads") + "/" + chunkHash exists
-            File chunkFile = new File(directories.get("uploads") + "/" + chunkHash);
-            try (FileOutputStream fileOutputStream = new FileOutputStream(chunkFile)) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    fileOutputStream.write(buffer, 0, bytesRead);
+            long length;
+            try (fileInputStream) {
+                length = fileInputStream.getChannel().size();
+                dos.writeByte(0);
+                dos.writeInt((int) length);
+                long remaining = length;
+                while (remaining > 0) {
+                    int bytesRead = fileInputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (bytesRead == -1) {
+                        throw new EOFException("Chunk " + chunkId + " shrank while sending");
+                    }
+                    dos.write(buffer, 0, bytesRead);
+                    remaining -= bytesRead;
                 }
             }
+            if (replication != null) {
+                replication.served(chunkId);
+            }
+            return length;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package p2pclient.net;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * PeerBusyException - The peer turned the request away because it is saturated; try another peer.
+ * A saturated P2PServer answers any message with "busy      " (10 bytes, like the message types) and an int retry
+ * hint in milliseconds instead of its normal reply.
+ */
+public class PeerBusyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    static final byte[] REPLY = "busy      ".getBytes();
+
+    private final int retryAfterMillis;
+
+    public PeerBusyException(int retryAfterMillis) {
+        super("Peer busy, retry after " + retryAfterMillis + " ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Looks at the start of a reply and throws if it is a busy reply; otherwise the stream is left unread.
+     *
+     * @param in a stream that supports mark/reset, such as a BufferedInputStream
+     */
+    static void check(InputStream in) throws IOException {
+        in.mark(REPLY.length + Integer.BYTES);
+        byte[] head = in.readNBytes(REPLY.length);
+        if (Arrays.equals(head, REPLY)) {
+            throw new PeerBusyException(new DataInputStream(in).readInt());
+        }
+        in.reset();
+    }
+}
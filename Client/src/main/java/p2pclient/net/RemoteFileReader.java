@@ -0,0 +1,218 @@
+package p2pclient.net;
+
+import p2pclient.config.P2PClientConfig;
+import p2pclient.dto.ResChunkDto;
+import p2pclient.dto.ResFileDto;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/**
+ * RemoteFileReader - Reads parts of a swarm file without downloading all of it.
+ * {@link #read(long, int)} fetches only the segments (chunks, erasure coded chunk groups or a packed extent) that
+ * cover the range; {@link #openStream(long)} delivers the file in order while a sliding window of the next
+ * segments is prefetched in the background.
+ */
+public class RemoteFileReader implements AutoCloseable {
+    private static final long PREFETCH_BYTES_PER_THREAD = 2 * 1024 * 1024;
+
+    private final P2PDownloader fetcher;
+    private final List<P2PDownloader.Segment> segments;
+    private final long size;
+    private final int prefetchWindow;
+    private final ExecutorService threadPool;
+
+    /**
+     * @param gossip ranks the sources of every chunk; may be null
+     * @throws IOException if the file's metadata is inconsistent
+     */
+    public RemoteFileReader(P2PClientConfig config, ResFileDto fileMetaData, GossipService gossip) throws IOException {
+        this.fetcher = new P2PDownloader(config, fileMetaData, gossip);
+        this.segments = fetcher.segments();
+        if (segments == null) {
+            throw new IOException("Invalid metadata for " + fileMetaData.file_name);
+        }
+        this.size = fileMetaData.file_size;
+        int largestSegment = segments.stream().mapToInt(P2PDownloader.Segment::length).max().orElse(1);
+        this.prefetchWindow = (int) Math.clamp(PREFETCH_BYTES_PER_THREAD * config.getMaxThreads() / Math.max(1, largestSegment),
+                2, 2L * config.getMaxThreads());
+        this.threadPool = config.newTransferExecutor();
+    }
+
+    /**
+     * @see P2PDownloader#onVerifiedChunk(BiConsumer)
+     */
+    public void onVerifiedChunk(BiConsumer<ResChunkDto, byte[]> listener) {
+        fetcher.onVerifiedChunk(listener);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Reads [offset, offset + length), clipped to the end of the file. The covering segments are fetched in parallel.
+     *
+     * @return the bytes read; shorter than length only at the end of the file
+     * @throws IOException if a covering segment could not be fetched from any peer
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range: offset " + offset + ", length " + length);
+        }
+        int clipped = (int) Math.max(0, Math.min(length, size - offset));
+        byte[] result = new byte[clipped];
+        if (clipped == 0) {
+            return result;
+        }
+
+        int first = segmentAt(offset);
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for (int i = first; i < segments.size() && segments.get(i).offset() < offset + clipped; i++) {
+            P2PDownloader.Segment segment = segments.get(i);
+            futures.add(threadPool.submit(() -> fetcher.fetchSegment(segment)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            P2PDownloader.Segment segment = segments.get(first + i);
+            byte[] data = await(futures.get(i), segment);
+            long from = Math.max(offset, segment.offset());
+            long to = Math.min(offset + clipped, segment.offset() + segment.length());
+            System.arraycopy(data, (int) (from - segment.offset()), result, (int) (from - offset), (int) (to - from));
+        }
+        return result;
+    }
+
+    /**
+     * Streams the file from {@code offset} to its end, in order. Up to 2 * MAX_THREADS segments, and about
+     * 2 MB per thread, ahead of the reader are fetched in the background; closing the stream cancels them.
+     */
+    public InputStream openStream(long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset " + offset);
+        }
+        return new SegmentInputStream(offset);
+    }
+
+    @Override
+    public void close() {
+        threadPool.shutdownNow();
+    }
+
+    // index of the segment holding offset; segments.size() at or past the end of the file
+    private int segmentAt(long offset) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            P2PDownloader.Segment segment = segments.get(mid);
+            if (offset < segment.offset()) {
+                high = mid - 1;
+            } else if (offset >= segment.offset() + segment.length()) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return segments.size();
+    }
+
+    private static byte[] await(Future<byte[]> future, P2PDownloader.Segment segment) throws IOException {
+        try {
+            byte[] data = future.get();
+            if (data == null) {
+                throw new IOException("No peer could serve the segment at offset " + segment.offset());
+            }
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading segment at offset " + segment.offset());
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read segment at offset " + segment.offset(), e.getCause());
+        }
+    }
+
+    private final class SegmentInputStream extends InputStream {
+        private final Deque<Future<byte[]>> window = new ArrayDeque<>();
+        private int nextToFetch;
+        private int current;
+        private byte[] buffer = new byte[0];
+        private int position;
+        private int skip; // where the stream starts inside its first segment
+        private boolean closed;
+
+        SegmentInputStream(long offset) {
+            nextToFetch = segmentAt(offset);
+            current = nextToFetch - 1;
+            if (nextToFetch < segments.size()) {
+                skip = (int) (offset - segments.get(nextToFetch).offset());
+            }
+            fillWindow();
+        }
+
+        private void fillWindow() {
+            while (window.size() < prefetchWindow && nextToFetch < segments.size()) {
+                P2PDownloader.Segment segment = segments.get(nextToFetch++);
+                window.addLast(threadPool.submit(() -> fetcher.fetchSegment(segment)));
+            }
+        }
+
+        // moves to the next segment; false at the end of the file
+        private boolean advance() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (window.isEmpty()) {
+                return false;
+            }
+            current++;
+            buffer = await(window.removeFirst(), segments.get(current));
+            fillWindow();
+            position = skip;
+            skip = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (position >= buffer.length) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position >= buffer.length) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.length - position;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            window.forEach(future -> future.cancel(true));
+            window.clear();
+        }
+    }
+}
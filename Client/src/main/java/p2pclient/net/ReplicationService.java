@@ -0,0 +1,276 @@
+package p2pclient.net;
+
+import p2pclient.config.P2PClientConfig;
+import p2pclient.dto.ReqPeerDto;
+import p2pclient.dto.ResPeerDto;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.service.FileService;
+import p2pclient.store.ChunkId;
+import p2pclient.store.ChunkStore;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ReplicationService - Adds replicas of the chunks this node serves most, and drops them again once demand cools.
+ * P2PServer reports every chunk it serves; each round the request rate of every chunk is updated, and a chunk
+ * requested more than replicationThreshold times per second is pushed ("replica" message) to one more lightly
+ * loaded peer per threshold exceeded, and the new placements are registered with the tracker by chunk hash.
+ * Downloaders then spread over more sources, so a hot file is no longer capped by the bandwidth of the peers it was
+ * uploaded to; the pushed peers replicate further if they get hot in turn.
+ * A peer keeps track of the replicas pushed to it. One that stayed below a quarter of the threshold for
+ * COLD_ROUNDS rounds is removed from the tracker (POST /chunks/placements/remove, which keeps the last placement
+ * of a chunk) and then deleted. Replicas survive a restart as ordinary chunks.
+ */
+public class ReplicationService {
+    private static final long INTERVAL_SECONDS = 10;
+    private static final int MAX_PUSHES_PER_ROUND = 4;
+    private static final int MAX_PUSHES_PER_CHUNK = 2;
+    private static final int MAX_REPLICAS_PER_CHUNK = 8;
+    private static final int COLD_ROUNDS = 6;
+
+    private static final class Demand {
+        final LongAdder serves = new LongAdder();
+        final Set<String> pushedTo = ConcurrentHashMap.newKeySet();
+        volatile double rate; // requests per second
+    }
+
+    private final P2PClientConfig config;
+    private final ChunkStore chunkStore;
+    private final MetricsRegistry metrics;
+    private final Callable<List<ResPeerDto>> peers;
+    private final GossipService gossip;
+    private final String advertisedIp;
+    private final int advertisedPort;
+    private final double threshold;
+    private final Map<ChunkId, Demand> demand = new ConcurrentHashMap<>();
+    private final Map<ChunkId, AtomicInteger> replicas = new ConcurrentHashMap<>(); // pushed to us -> cold rounds
+    private final ScheduledExecutorService scheduler;
+    private long lastRoundNanos = System.nanoTime();
+    private volatile int hotChunks;
+
+    /**
+     * @param peers          where to find peers to push to (normally the tracker's peer list)
+     * @param gossip         ranks them by load and skips those already holding the chunk; may be null
+     * @param advertisedIp   the address other peers reach this node's P2PServer at
+     * @param advertisedPort its port
+     */
+    public ReplicationService(P2PClientConfig config, Callable<List<ResPeerDto>> peers, GossipService gossip,
+                              String advertisedIp, int advertisedPort) {
+        this.config = config;
+        this.chunkStore = config.getChunkStore();
+        this.metrics = config.getMetrics();
+        this.peers = peers;
+        this.gossip = gossip;
+        this.advertisedIp = advertisedIp;
+        this.advertisedPort = advertisedPort;
+        this.threshold = Math.max(1, config.getReplicationThreshold());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replication");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.gauge("replication.hot", () -> hotChunks);
+        metrics.gauge("replication.replicas", replicas::size);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::replicateNow, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Called by P2PServer for every chunk (or range of one) it serves.
+     */
+    void served(ChunkId chunkId) {
+        demand.computeIfAbsent(chunkId, k -> new Demand()).serves.increment();
+    }
+
+    /**
+     * Called by P2PServer for every chunk it received and now holds.
+     *
+     * @param replica true for a replica pushed by a hot peer, which may be dropped again; false for an upload,
+     *                which makes the chunk permanent
+     */
+    void received(ChunkId chunkId, boolean replica) {
+        if (replica) {
+            replicas.putIfAbsent(chunkId, new AtomicInteger());
+        } else {
+            replicas.remove(chunkId);
+        }
+    }
+
+    /**
+     * Runs one round on the caller's thread, outside the schedule: updates the request rates, pushes hot chunks
+     * and drops cold replicas. Rates are per second of the time since the previous round.
+     */
+    public synchronized void replicateNow() {
+        try {
+            long now = System.nanoTime();
+            double seconds = Math.max(1e-3, (now - lastRoundNanos) / 1e9);
+            lastRoundNanos = now;
+
+            List<Map.Entry<ChunkId, Demand>> hot = new ArrayList<>();
+            for (Map.Entry<ChunkId, Demand> entry : demand.entrySet()) {
+                Demand chunk = entry.getValue();
+                double measured = chunk.serves.sumThenReset() / seconds;
+                // rises at once, falls by half a round, so a burst replicates right away and a lull does not evict
+                chunk.rate = Math.max(measured, (chunk.rate + measured) / 2);
+                if (chunk.rate >= threshold) {
+                    hot.add(entry);
+                } else if (chunk.rate < 0.01) {
+                    demand.remove(entry.getKey(), chunk);
+                }
+            }
+            hotChunks = hot.size();
+            hot.sort(Comparator.comparingDouble((Map.Entry<ChunkId, Demand> entry) -> entry.getValue().rate).reversed());
+            pushHot(hot);
+            dropCold();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // stopped
+        } catch (Exception e) {
+            System.err.println("Replication round failed: " + e.getMessage());
+        }
+    }
+
+    // =======================
+    //  Hot chunks
+    // =======================
+
+    private void pushHot(List<Map.Entry<ChunkId, Demand>> hot) throws InterruptedException {
+        if (hot.isEmpty()) {
+            return;
+        }
+        List<ResPeerDto> candidates;
+        try {
+            candidates = peers.call();
+        } catch (Exception e) {
+            candidates = List.of();
+        }
+
+        List<ReqPeerDto> placements = new ArrayList<>();
+        int budget = MAX_PUSHES_PER_ROUND;
+        for (Map.Entry<ChunkId, Demand> entry : hot) {
+            if (budget == 0) {
+                break;
+            }
+            ChunkId chunkId = entry.getKey();
+            Demand chunk = entry.getValue();
+            int wanted = Math.min(Math.min(MAX_PUSHES_PER_CHUNK, (int) (chunk.rate / threshold)),
+                    Math.min(budget, MAX_REPLICAS_PER_CHUNK - chunk.pushedTo.size()));
+            if (wanted <= 0) {
+                continue;
+            }
+            byte[] data;
+            try {
+                data = Files.readAllBytes(chunkStore.getChunkFile(chunkId).toPath());
+            } catch (NoSuchFileException e) {
+                continue; // dropped meanwhile
+            } catch (IOException e) {
+                System.err.println("Failed to read hot chunk " + chunkId + ": " + e.getMessage());
+                continue;
+            }
+
+            for (ResPeerDto target : targets(chunkId, candidates)) {
+                if (wanted == 0) {
+                    break;
+                }
+                String peer = MetricsRegistry.peer(target.peer_ip, target.peer_port);
+                if (chunk.pushedTo.contains(peer) || config.getConcurrencyLimiter().isBusy(peer)) {
+                    continue;
+                }
+                chunk.pushedTo.add(peer); // tried once, whatever the outcome
+                if (push(target, chunkId, data)) {
+                    placements.add(ReqPeerDto.ofHash(target.peer_ip, target.peer_port, chunkId.toHex()));
+                    wanted--;
+                    budget--;
+                }
+            }
+        }
+        if (!placements.isEmpty()) {
+            try {
+                FileService.addPlacements(config, placements);
+            } catch (IOException e) {
+                System.err.println("Failed to register replica placements: " + e.getMessage());
+            }
+        }
+    }
+
+    private List<ResPeerDto> targets(ChunkId chunkId, List<ResPeerDto> candidates) {
+        List<ResPeerDto> targets = new ArrayList<>();
+        if (gossip != null) {
+            targets.addAll(gossip.rankTargets(chunkId, candidates));
+        } else {
+            targets.addAll(candidates);
+            Collections.shuffle(targets);
+        }
+        targets.removeIf(peer -> peer.peer_ip == null || peer.peer_port == null
+                || peer.peer_port == advertisedPort && advertisedIp.equals(peer.peer_ip));
+        return targets;
+    }
+
+    /**
+     * Sends "replica": like "upload", but the receiver may drop the chunk once it is cold.
+     */
+    private boolean push(ResPeerDto target, ChunkId chunkId, byte[] data) {
+        String peer = MetricsRegistry.peer(target.peer_ip, target.peer_port);
+        long start = System.nanoTime();
+        try {
+            if (!ChunkTransfer.store(config.getTransport(), target.peer_ip, target.peer_port, chunkId, data, true)) {
+                metrics.counter("replication.push.failures", peer).inc();
+                return false;
+            }
+            metrics.counter("replication.pushes").inc();
+            metrics.histogram("replication.push.latency", peer).recordSince(start);
+            metrics.meter("replication.bytes", peer).mark(data.length);
+            return true;
+        } catch (PeerBusyException e) {
+            metrics.counter("replication.push.busy", peer).inc();
+            config.getConcurrencyLimiter().busy(peer, e.getRetryAfterMillis());
+            return false;
+        } catch (IOException e) {
+            metrics.counter("replication.push.failures", peer).inc();
+            System.err.println("Failed to push replica of " + chunkId + " to " + peer + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // =======================
+    //  Cold replicas
+    // =======================
+
+    private void dropCold() throws InterruptedException {
+        for (Map.Entry<ChunkId, AtomicInteger> entry : replicas.entrySet()) {
+            ChunkId chunkId = entry.getKey();
+            Demand chunk = demand.get(chunkId);
+            if (chunk != null && chunk.rate >= threshold / 4) {
+                entry.getValue().set(0);
+                continue;
+            }
+            if (entry.getValue().incrementAndGet() < COLD_ROUNDS) {
+                continue;
+            }
+            int removed;
+            try {
+                removed = FileService.removePlacements(config, List.of(ReqPeerDto.ofHash(advertisedIp, advertisedPort, chunkId.toHex())));
+            } catch (IOException e) {
+                System.err.println("Failed to unregister replica of " + chunkId + ": " + e.getMessage());
+                entry.getValue().set(0); // tracker unreachable; try again after another COLD_ROUNDS
+                continue;
+            }
+            replicas.remove(chunkId);
+            if (removed > 0) {
+                chunkStore.delete(chunkId);
+                metrics.counter("replication.evictions").inc();
+            } // else it is the last placement of the chunk, or the tracker never listed it: keep it as a normal chunk
+        }
+    }
+}
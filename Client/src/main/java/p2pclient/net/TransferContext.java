@@ -0,0 +1,11 @@
+package p2pclient.net;
+
+import java.util.concurrent.ExecutorService;
+import java.util.function.LongConsumer;
+
+/**
+ * TransferContext - Runs a transfer's chunk work on a thread pool shared with other transfers.
+ * {@code progress} is called with the number of file bytes each time a part of the file has been transferred.
+ * Shutting the pool down only means the transfer is done with it; a shared pool ignores that.
+ */
+public record TransferContext(ExecutorService threadPool, LongConsumer progress) {}
@@ -0,0 +1,481 @@
+package p2pclient.net;
+
+import p2pclient.config.P2PClientConfig;
+import p2pclient.dto.ReqChunkDto;
+import p2pclient.dto.ReqFileDto;
+import p2pclient.dto.ReqPeerDto;
+import p2pclient.dto.ResPeerDto;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.metrics.Tracer;
+import p2pclient.metrics.Tracer.Phase;
+import p2pclient.store.ChunkId;
+import p2pclient.transport.Connection;
+import p2pclient.utils.ChunkReader;
+import p2pclient.utils.HashUtils;
+import p2pclient.utils.ReedSolomon;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * UploadPipeline - Chunks any number of files and replicates the chunks through one shared thread pool.
+ * At most {@code 2 * MAX_THREADS} MB of chunks are held in memory at once (the global budget): the reading thread
+ * blocks until a transfer finishes. Each file is cut into chunks of the size the config picks for its size.
+ * A chunk that was already submitted, by this or an earlier file, is not sent again; it reuses the placements of
+ * its first upload.
+ * In packing mode, files smaller than {@code CHUNK_SIZE / PACK_THRESHOLD_DIVISOR} are appended to a shared pack
+ * chunk instead of getting a chunk of their own; each is registered as an extent (offset, length) of the pack.
+ * With erasure coding configured, each chunk group of k * ceil(chunk_size / k) bytes is split into k data shards
+ * plus m parity shards, every shard stored once on its own peer (chunk_index = group * (k + m) + shard), instead of
+ * NUMBER_OF_COPIES full replicas. Shards are never deduplicated, and no peer takes two shards of a group, so a group
+ * cannot be stored with fewer than k + m reachable peers. Packed files are still replicated.
+ * Given a {@link TransferContext}, chunks are transferred on its shared pool and progress is reported in file bytes
+ * as chunks (or whole chunk groups and packs) are stored. Every chunk sent is recorded as {@link Tracer} spans of
+ * the pipeline.
+ * Submit and {@link #flush()} from one thread.
+ */
+public class UploadPipeline implements AutoCloseable {
+
+    /**
+     * A file to upload and the name it is registered under.
+     */
+    public record Source(File file, String name) {}
+
+    private static final int PACK_THRESHOLD_DIVISOR = 16;
+    private static final int BUDGET_KIB_PER_THREAD = 2 * 1024;
+
+    /**
+     * A chunk once stored: its id, size and placements (empty if no peer took it).
+     */
+    private record StoredChunk(ChunkId id, int size, List<ReqPeerDto> peers) {}
+
+    /**
+     * A chunk of the file; offset and length are set if the file is only that range of a pack.
+     */
+    private record PendingChunk(int index, CompletableFuture<StoredChunk> stored, Long offset, Integer length) {}
+
+    /**
+     * A file whose chunks have been read and handed to the transfer threads.
+     */
+    public static final class PendingFile {
+        private final Source source;
+        private final String fileHash;
+        private final long fileSize;
+        private final List<PendingChunk> chunks;
+        private final ReedSolomon erasureCode; // null if replicated
+
+        private PendingFile(Source source, String fileHash, long fileSize, List<PendingChunk> chunks, ReedSolomon erasureCode) {
+            this.source = source;
+            this.fileHash = fileHash;
+            this.fileSize = fileSize;
+            this.chunks = chunks;
+            this.erasureCode = erasureCode;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        /**
+         * Waits for the file's chunks to be stored.
+         *
+         * @return the file's metadata with chunk placements, or null if a chunk could not be stored on any peer
+         */
+        public ReqFileDto await() throws InterruptedException {
+            List<ReqChunkDto> fileChunks = new ArrayList<>(chunks.size());
+            for (PendingChunk chunk : chunks) {
+                StoredChunk stored;
+                try {
+                    stored = chunk.stored().get();
+                } catch (ExecutionException e) {
+                    stored = null;
+                }
+                if (stored == null || stored.peers().isEmpty()) {
+                    System.err.println("Upload incomplete: chunk " + chunk.index() + " of " + source.name() + " could not be stored on any peer.");
+                    return null;
+                }
+                ReqChunkDto fileChunk = new ReqChunkDto((long) chunk.index(), stored.id().toHex(), stored.size(), chunk.offset(), chunk.length());
+                fileChunk.setChunk_peers(stored.peers());
+                fileChunks.add(fileChunk);
+            }
+            ReqFileDto fileMetaData = new ReqFileDto(source.name(), fileHash, fileSize, false);
+            if (erasureCode != null) {
+                fileMetaData.file_data_shards = erasureCode.getDataShards();
+                fileMetaData.file_parity_shards = erasureCode.getParityShards();
+            }
+            fileMetaData.setFile_chunks(fileChunks);
+            return fileMetaData;
+        }
+    }
+
+    private final P2PClientConfig config;
+    private final List<ResPeerDto> peers;
+    private final ExecutorService threadPool;
+    private final Semaphore budget;
+    private final LongConsumer progress;
+    private final MetricsRegistry metrics;
+    private final Tracer tracer;
+    private final long transferId;
+    private final Map<ChunkId, CompletableFuture<List<ReqPeerDto>>> placements = new ConcurrentHashMap<>();
+    private final Set<ChunkId> reused = ConcurrentHashMap.newKeySet();
+    private final boolean pack;
+    private final ReedSolomon erasureCode; // null if replicated
+
+    // the open pack, touched by the submitting thread only
+    private final Map<ChunkId, PendingChunk> packedFiles = new HashMap<>(); // by file hash
+    private byte[] packBuffer;
+    private int packFill;
+    private CompletableFuture<StoredChunk> openPack;
+
+    public UploadPipeline(P2PClientConfig config, List<ResPeerDto> peers) {
+        this(config, peers, false);
+    }
+
+    /**
+     * @param pack pack small files into shared chunks
+     */
+    public UploadPipeline(P2PClientConfig config, List<ResPeerDto> peers, boolean pack) {
+        this(config, peers, pack, null);
+    }
+
+    /**
+     * @param context the shared pool and progress listener, or null for a pool of this pipeline's own
+     */
+    public UploadPipeline(P2PClientConfig config, List<ResPeerDto> peers, boolean pack, TransferContext context) {
+        this.config = config;
+        this.pack = pack;
+        this.peers = new ArrayList<>(peers);
+        this.threadPool = context != null ? context.threadPool() : config.newTransferExecutor();
+        this.progress = context != null ? context.progress() : bytes -> {};
+        this.budget = new Semaphore(BUDGET_KIB_PER_THREAD * config.getMaxThreads());
+        this.metrics = config.getMetrics();
+        this.tracer = config.getTracer();
+        this.transferId = tracer.newTransfer();
+        this.erasureCode = config.isErasureCoded()
+                ? new ReedSolomon(config.getErasureDataShards(), config.getErasureParityShards()) : null;
+        int totalShards = erasureCode != null ? erasureCode.getDataShards() + erasureCode.getParityShards() : 0;
+        if (this.peers.size() < totalShards) {
+            System.err.println("Erasure coding needs " + totalShards + " distinct peers, only "
+                    + this.peers.size() + " known: uploads will fail.");
+        }
+    }
+
+    /**
+     * Registers a chunk that is already stored, e.g. by a previous version of the file being uploaded.
+     * Submitting a chunk with this id then reuses the placements instead of transferring it.
+     */
+    public void reusePlacements(ChunkId chunkId, List<ReqPeerDto> chunkPeers) {
+        if (placements.putIfAbsent(chunkId, CompletableFuture.completedFuture(List.copyOf(chunkPeers))) == null) {
+            reused.add(chunkId);
+        }
+    }
+
+    /**
+     * Reads the file on the calling thread, hashing it as a whole and per chunk, and queues every new chunk
+     * for transfer. Returns once the file has been read; use {@link PendingFile#await()} for the result.
+     */
+    public PendingFile submit(Source source) throws IOException, InterruptedException {
+        long fileSize = source.file().length();
+        if (pack && fileSize > 0 && fileSize < config.getChunkSize() / PACK_THRESHOLD_DIVISOR) {
+            return submitPacked(source);
+        }
+        return submit(source, config.getChunkSize(fileSize));
+    }
+
+    /**
+     * Like {@link #submit(Source)}, with a given chunk size (chunk group size if erasure coded), e.g. the one of
+     * a previous version so that unchanged chunks hash the same. The file is not packed.
+     */
+    public PendingFile submit(Source source, int chunkSize) throws IOException, InterruptedException {
+
+        MessageDigest fileDigest;
+        try {
+            fileDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        List<PendingChunk> chunks = new ArrayList<>();
+        try {
+            if (erasureCode != null) {
+                int dataShards = erasureCode.getDataShards();
+                int groupSize = dataShards * ((chunkSize + dataShards - 1) / dataShards);
+                ChunkReader.readChunks(source.file(), groupSize, (groupIndex, groupData, groupId) -> {
+                    fileDigest.update(groupData);
+                    submitShards(groupIndex, groupData, chunks);
+                });
+            } else {
+                ChunkReader.readChunks(source.file(), chunkSize, (chunkIndex, chunkData, chunkId) -> {
+                    fileDigest.update(chunkData);
+                    int copies = config.getNumberOfCopies();
+                    int startIndex = ThreadLocalRandom.current().nextInt(peers.size());
+                    CompletableFuture<StoredChunk> stored = submitChunk(chunkId, chunkData, copies, startIndex);
+                    stored.thenRun(() -> progress.accept(chunkData.length));
+                    chunks.add(new PendingChunk(chunkIndex, stored, null, null));
+                });
+            }
+        } catch (UncheckedInterruptedException e) {
+            throw e.getCause();
+        }
+        String fileHash = ChunkId.of(fileDigest.digest()).toHex();
+        return new PendingFile(source, fileHash, source.file().length(), chunks, erasureCode);
+    }
+
+    /**
+     * Splits a chunk group into k zero-padded data shards, adds m parity shards and queues each shard for one peer.
+     * Shards of a group start on consecutive peers and claim a peer before sending, so that failover and busy
+     * peers never put two shards of a group on one peer. Identical shards are each stored on their own peer.
+     */
+    private void submitShards(int groupIndex, byte[] groupData, List<PendingChunk> chunks) {
+        int dataShards = erasureCode.getDataShards();
+        int totalShards = dataShards + erasureCode.getParityShards();
+        int shardSize = (groupData.length + dataShards - 1) / dataShards;
+        byte[][] shards = new byte[totalShards][shardSize];
+        for (int d = 0; d < dataShards; d++) {
+            int from = d * shardSize;
+            if (from < groupData.length) {
+                System.arraycopy(groupData, from, shards[d], 0, Math.min(shardSize, groupData.length - from));
+            }
+        }
+        erasureCode.encode(shards);
+
+        int startIndex = ThreadLocalRandom.current().nextInt(peers.size());
+        Set<String> claimed = ConcurrentHashMap.newKeySet(); // peers holding or receiving a shard of this group
+        CompletableFuture<?>[] stored = new CompletableFuture<?>[totalShards];
+        for (int s = 0; s < totalShards; s++) {
+            ChunkId shardId = HashUtils.hash(shards[s], 0, shardSize);
+            byte[] shardData = shards[s];
+            int shardStart = startIndex + s;
+            CompletableFuture<List<ReqPeerDto>> placement = new CompletableFuture<>();
+            transfer(placement, shardSize, () -> uploadChunkToPeers(shardId, shardData, 1, shardStart, claimed));
+            CompletableFuture<StoredChunk> shard = placement.thenApply(shardPeers -> new StoredChunk(shardId, shardSize, shardPeers));
+            stored[s] = shard;
+            chunks.add(new PendingChunk(groupIndex * totalShards + s, shard, null, null));
+        }
+        CompletableFuture.allOf(stored).thenRun(() -> progress.accept(groupData.length));
+    }
+
+    /**
+     * Appends a small file to the open pack, sealing the pack first if the file does not fit.
+     * A file identical to one already packed reuses its extent.
+     */
+    private PendingFile submitPacked(Source source) throws IOException, InterruptedException {
+        byte[] data = Files.readAllBytes(source.file().toPath());
+        ChunkId fileId = HashUtils.hash(data, 0, data.length);
+        PendingChunk extent = packedFiles.get(fileId);
+        if (extent != null) {
+            metrics.counter("upload.packed.deduplicated").inc();
+        } else {
+            if (packBuffer != null && packFill + data.length > packBuffer.length) {
+                flush();
+            }
+            if (packBuffer == null) {
+                packBuffer = new byte[config.getChunkSize()];
+                openPack = new CompletableFuture<>();
+            }
+            System.arraycopy(data, 0, packBuffer, packFill, data.length);
+            extent = new PendingChunk(0, openPack, (long) packFill, data.length);
+            packFill += data.length;
+            packedFiles.put(fileId, extent);
+            metrics.counter("upload.files.packed").inc();
+        }
+        extent.stored().thenRun(() -> progress.accept(data.length));
+        return new PendingFile(source, fileId.toHex(), data.length, List.of(extent), null);
+    }
+
+    /**
+     * Seals the open pack and queues it for transfer. Call after the last {@link #submit(Source)} and before
+     * awaiting packed files.
+     */
+    public void flush() throws InterruptedException {
+        if (packBuffer == null) {
+            return;
+        }
+        byte[] packData = Arrays.copyOf(packBuffer, packFill);
+        CompletableFuture<StoredChunk> sealed = openPack;
+        packBuffer = null;
+        packFill = 0;
+        openPack = null;
+
+        ChunkId packId = HashUtils.hash(packData, 0, packData.length);
+        try {
+            int startIndex = ThreadLocalRandom.current().nextInt(peers.size());
+            submitChunk(packId, packData, config.getNumberOfCopies(), startIndex).thenAccept(sealed::complete);
+        } catch (UncheckedInterruptedException e) {
+            sealed.complete(new StoredChunk(packId, packData.length, List.of()));
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Queues the chunk for {@code copies} peers, starting at peer {@code startIndex}, unless it was submitted before.
+     */
+    private CompletableFuture<StoredChunk> submitChunk(ChunkId chunkId, byte[] chunkData, int copies, int startIndex) {
+        CompletableFuture<List<ReqPeerDto>> placement = new CompletableFuture<>();
+        CompletableFuture<List<ReqPeerDto>> existing = placements.putIfAbsent(chunkId, placement);
+        int size = chunkData.length;
+        if (existing != null) {
+            metrics.counter(reused.contains(chunkId) ? "upload.chunks.reused" : "upload.chunks.deduplicated").inc();
+            return existing.thenApply(chunkPeers -> new StoredChunk(chunkId, size, chunkPeers));
+        }
+        transfer(placement, size, () -> uploadChunkToPeers(chunkId, chunkData, copies, startIndex, null));
+        return placement.thenApply(chunkPeers -> new StoredChunk(chunkId, size, chunkPeers));
+    }
+
+    /**
+     * Runs the upload on the pool once {@code size} bytes fit the budget, completing the placement with its result.
+     */
+    private void transfer(CompletableFuture<List<ReqPeerDto>> placement, int size, Supplier<List<ReqPeerDto>> upload) {
+        // in KiB; a chunk larger than the whole budget takes all of it
+        int permits = Math.min((size + 1023) / 1024, BUDGET_KIB_PER_THREAD * config.getMaxThreads());
+        try {
+            budget.acquire(permits);
+        } catch (InterruptedException e) {
+            placement.complete(List.of());
+            throw new UncheckedInterruptedException(e);
+        }
+        metrics.gauge("upload.chunks.pending").inc();
+        threadPool.execute(() -> {
+            try {
+                placement.complete(upload.get());
+            } catch (RuntimeException e) {
+                placement.complete(List.of());
+            } finally {
+                metrics.gauge("upload.chunks.pending").dec();
+                budget.release(permits);
+            }
+        });
+    }
+
+    /**
+     * Pushes the chunk to up to {@code copies} distinct peers, starting at peer {@code startIndex}. Peers that
+     * failed or answered "busy" are asked again, after a pause or their retry hint, if the others did not take
+     * enough copies.
+     *
+     * @param claimed if not null, only peers this call adds to the set are used; a peer that fails is given back
+     * @return the peers that acknowledged the chunk (its placements), empty if none did
+     */
+    private List<ReqPeerDto> uploadChunkToPeers(ChunkId chunkId, byte[] chunkData, int copies, int startIndex,
+                                                Set<String> claimed) {
+        int peerCount = peers.size();
+        copies = Math.min(copies, peerCount);
+        List<ResPeerDto> candidates = new ArrayList<>(peerCount);
+        for (int i = 0; i < peerCount; i++) {
+            candidates.add(peers.get((startIndex + i) % peerCount));
+        }
+        // peers that answered "busy" go last until their retry hint passes; the sort is stable
+        ConcurrencyLimiter limiter = config.getConcurrencyLimiter();
+        candidates.sort(Comparator.comparing(peer -> limiter.isBusy(MetricsRegistry.peer(peer.peer_ip, peer.peer_port))));
+
+        List<ReqPeerDto> chunkPeers = new ArrayList<>();
+        Set<String> holding = new HashSet<>(); // a peer that took the chunk may come up again if another upload to it failed
+        Iterator<ResPeerDto> attempts = limiter.withRetryRounds(candidates, candidates,
+                peer -> MetricsRegistry.peer(peer.peer_ip, peer.peer_port), System.nanoTime()).iterator();
+        // enough copies are checked first: asking for the next peer may wait for a busy one
+        while (chunkPeers.size() < copies && attempts.hasNext()) {
+            ResPeerDto peer = attempts.next();
+            String key = MetricsRegistry.peer(peer.peer_ip, peer.peer_port);
+            if (holding.contains(key) || (claimed != null && !claimed.add(key))) {
+                continue;
+            }
+
+            if (uploadChunk(peer.peer_ip, peer.peer_port, chunkId, chunkData)) {
+                chunkPeers.add(new ReqPeerDto(peer.peer_ip, peer.peer_port));
+                holding.add(key);
+            } else if (claimed != null) {
+                claimed.remove(key);
+            }
+        }
+        if (claimed != null && chunkPeers.isEmpty()) {
+            System.err.println("Failed to upload shard " + chunkId.toHex() + ": no peer without a shard of its group took it.");
+        }
+        return chunkPeers;
+    }
+
+    /**
+     * Pushes the chunk to one peer once the {@link ConcurrencyLimiter} lets it.
+     */
+    private boolean uploadChunk(String peerIp, int peerPort, ChunkId chunkId, byte[] chunkData) {
+        ConcurrencyLimiter limiter = config.getConcurrencyLimiter();
+        ConcurrencyLimiter.Permit permit;
+        try {
+            permit = limiter.acquire(MetricsRegistry.peer(peerIp, peerPort));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        boolean ok = false;
+        try {
+            ok = sendChunk(peerIp, peerPort, chunkId, chunkData);
+            return ok;
+        } finally {
+            limiter.release(permit, ok ? chunkData.length : 0, ok);
+        }
+    }
+
+    private boolean sendChunk(String peerIp, int peerPort, ChunkId chunkId, byte[] chunkData) {
+        String peer = MetricsRegistry.peer(peerIp, peerPort);
+        long start = System.nanoTime();
+        try (Connection connection = ChunkTransfer.connect(config.getTransport(), peerIp, peerPort);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+             DataInputStream dis = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+
+            // a chunk can sit at several indexes of the pipeline's files, so its spans carry none
+            long mark = tracer.span(transferId, chunkId, -1, peer, Phase.CONNECT, start, 0);
+            dos.writeBytes("upload    ");
+            dos.write(chunkId.toHexBytes()); // 64 ASCII chars, fixed width like the message type
+            dos.writeInt(chunkData.length);
+            dos.write(chunkData);
+            dos.flush();
+            connection.shutdownOutput(); // end of chunk data
+            mark = tracer.span(transferId, chunkId, -1, peer, Phase.REQUEST, mark, chunkData.length);
+
+            // the peer replies once it has verified and stored the chunk
+            PeerBusyException.check(dis);
+            String response = dis.readUTF();
+            tracer.span(transferId, chunkId, -1, peer, Phase.FIRST_BYTE, mark, 0);
+            boolean ok = "OK".equals(response);
+            if (ok) {
+                metrics.histogram("upload.chunk.latency", peer).recordSince(start);
+                metrics.meter("upload.bytes", peer).mark(chunkData.length);
+            } else {
+                metrics.counter("upload.chunk.failures", peer).inc();
+            }
+            return ok;
+
+        } catch (PeerBusyException e) {
+            metrics.counter("upload.busy", peer).inc();
+            config.getConcurrencyLimiter().busy(peer, e.getRetryAfterMillis());
+            return false;
+        } catch (IOException e) {
+            metrics.counter("upload.chunk.failures", peer).inc();
+            System.err.println("Failed to upload chunk to " + peerIp + ":" + peerPort);
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        threadPool.shutdown();
+    }
+
+    // lets an interrupt escape the ChunkConsumer, which may only throw IOException
+    private static final class UncheckedInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedInterruptedException(InterruptedException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized InterruptedException getCause() {
+            return (InterruptedException) super.getCause();
+        }
+    }
+}
@@ -2,28 +2,53 @@ package p2pclient.service;
 
 import p2pclient.config.P2PClientConfig;
 import p2pclient.dto.*;
+import p2pclient.net.GossipService;
 import p2pclient.net.P2PDownloader;
 import p2pclient.net.P2PUploader;
-import p2pclient.utils.JsonUtils;
+import p2pclient.net.RemoteFileReader;
+import p2pclient.net.TransferContext;
+import p2pclient.net.UploadPipeline;
+import p2pclient.store.ChunkId;
+import p2pclient.utils.MetadataCodec;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 
 import java.io.File;
+import java.io.InputStream;
 import java.net.http.*;
 import java.net.URI;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-import p2pclient.utils.HashUtils;
 
 public class FileService {
+    private static final int REGISTRATION_BATCH_SIZE = 1000;
+
     private final P2PClientConfig config;
     private final PeerService peerService;
+    private final GossipService gossipService;
+    private final Reseeder reseeder;
+    private final Set<String> downloading = ConcurrentHashMap.newKeySet(); // file hashes; they name the .part files
 
     public FileService(P2PClientConfig config, PeerService peerService) {
+        this(config, peerService, null);
+    }
+
+    public FileService(P2PClientConfig config, PeerService peerService, GossipService gossipService) {
+        this(config, peerService, gossipService, null);
+    }
+
+    /**
+     * @param reseeder keeps and announces the chunks of every download; null unless reseeding is enabled
+     */
+    public FileService(P2PClientConfig config, PeerService peerService, GossipService gossipService, Reseeder reseeder) {
         this.config = config;
         this.peerService = peerService;
+        this.gossipService = gossipService;
+        this.reseeder = reseeder;
     }
 
     /**
@@ -35,7 +60,7 @@ public class FileService {
                 .GET()
                 .build();
 
-        HttpResponse<String> response = config.getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = send("files.list", request);
 
         if (response.statusCode() != 200) {
             System.err.println("Failed to get all files: " + response.body());
@@ -49,6 +74,171 @@ public class FileService {
     }
 
     public boolean uploadFile(File file, String password) throws IOException, InterruptedException, NoSuchAlgorithmException {
+        return uploadFile(file, password, null);
+    }
+
+    /**
+     * @param context the shared pool and progress listener of a {@link TransferManager} job, or null
+     */
+    public boolean uploadFile(File file, String password, TransferContext context) throws IOException, InterruptedException, NoSuchAlgorithmException {
+        List<ResPeerDto> peers = getUploadPeers();
+        if (peers.isEmpty()) {
+            return false;
+        }
+
+        String fileName = file.getName();
+        Long fileSize = file.length();
+        boolean fileEnc = Objects.nonNull(password) && !password.isBlank();
+
+        // encrypt file here // leave as it is for now
+        // if(fileEnc){
+        //      file = encryptFile(file, password)
+        // {
+
+        ReqFileDto fileMetaData = new ReqFileDto(fileName, null, fileSize, fileEnc); // the uploader fills in the hash
+
+        // runs on the calling thread so that interrupting the caller stops the upload
+        P2PUploader uploader = new P2PUploader(config, fileMetaData, file, peers, context);
+        uploader.run();
+        if (!uploader.isSuccessful()) {
+            return false;
+        }
+        Map<String, Object> result = uploadFileMetadata(fileMetaData);
+        return true;
+    }
+
+    /**
+     * Uploads a new version of a catalog file. Chunks that the previous version already stores on an active peer
+     * are not transferred again; the new version reuses their placements and is registered with
+     * file_previous_id pointing at the previous version.
+     *
+     * @return true if the new version was uploaded and registered
+     */
+    public boolean uploadFileVersion(File file, int previousFileId) throws IOException, InterruptedException {
+        return uploadFileVersion(file, previousFileId, null);
+    }
+
+    /**
+     * @param context the shared pool and progress listener of a {@link TransferManager} job, or null
+     */
+    public boolean uploadFileVersion(File file, int previousFileId, TransferContext context) throws IOException, InterruptedException {
+        ResFileDto previous = downloadFileMetadata(previousFileId);
+        if (previous == null) {
+            System.err.println("Previous version " + previousFileId + " not found.");
+            return false;
+        }
+        List<ResPeerDto> peers = getUploadPeers();
+        if (peers.isEmpty()) {
+            return false;
+        }
+
+        Set<String> known = new HashSet<>();
+        ReqFileDto fileMetaData;
+        try (UploadPipeline pipeline = new UploadPipeline(config, peers, false, context)) {
+            for (ResChunkDto chunk : previous.file_chunks != null ? previous.file_chunks : List.<ResChunkDto>of()) {
+                // a packed extent's chunk holds other files too, and a chunk on no active peer must be sent again
+                if (chunk.isExtent() || chunk.chunk_peers == null || chunk.chunk_peers.isEmpty() || !ChunkId.isHex(chunk.chunk_hash)) {
+                    continue;
+                }
+                List<ReqPeerDto> chunkPeers = new ArrayList<>(chunk.chunk_peers.size());
+                for (ResPeerDto peer : chunk.chunk_peers) {
+                    chunkPeers.add(new ReqPeerDto(peer.peer_ip, peer.peer_port));
+                }
+                pipeline.reusePlacements(ChunkId.fromHex(chunk.chunk_hash), chunkPeers);
+                known.add(chunk.chunk_hash);
+            }
+            fileMetaData = pipeline.submit(new UploadPipeline.Source(file, previous.file_name), previousChunkSize(previous, file.length())).await();
+        }
+        if (fileMetaData == null) {
+            return false;
+        }
+        fileMetaData.file_previous_id = previousFileId;
+
+        long reusedChunks = fileMetaData.file_chunks.stream().filter(chunk -> known.contains(chunk.chunk_hash)).count();
+        System.out.printf("New version of %s: %d of %d chunks reused from file %d.%n",
+                previous.file_name, reusedChunks, fileMetaData.file_chunks.size(), previousFileId);
+        uploadFileMetadata(fileMetaData);
+        return true;
+    }
+
+    /**
+     * The chunk size (chunk group size if erasure coded) the previous version was cut with, so that unchanged chunks
+     * of the new version hash the same; the size picked for the new file if the previous one gives no hint.
+     */
+    private int previousChunkSize(ResFileDto previous, long fileSize) {
+        List<ResChunkDto> chunks = previous.file_chunks != null ? previous.file_chunks : List.of();
+        Optional<ResChunkDto> first = chunks.stream().filter(chunk -> chunk.chunk_index == 0).findFirst();
+        int chunksPerGroup = previous.isErasureCoded() ? previous.file_data_shards + previous.file_parity_shards : 1;
+        // a single chunk (group) is as long as the file, not as the chunk size
+        if (first.isEmpty() || first.get().isExtent() || chunks.size() <= chunksPerGroup) {
+            return config.getChunkSize(fileSize);
+        }
+        return previous.isErasureCoded() ? first.get().chunk_size * previous.file_data_shards : first.get().chunk_size;
+    }
+
+    /**
+     * Uploads many files through one shared pipeline: one peer lookup, one thread pool, chunks shared between
+     * files stored once, and tracker registrations sent in batches of REGISTRATION_BATCH_SIZE.
+     *
+     * @return the number of files uploaded and registered
+     */
+    public int uploadFiles(List<UploadPipeline.Source> sources) throws IOException, InterruptedException {
+        return uploadFiles(sources, false);
+    }
+
+    /**
+     * @param pack pack small files into shared chunks, registered as extents of those chunks
+     */
+    public int uploadFiles(List<UploadPipeline.Source> sources, boolean pack) throws IOException, InterruptedException {
+        return uploadFiles(sources, pack, null);
+    }
+
+    /**
+     * @param context the shared pool and progress listener of a {@link TransferManager} job, or null
+     */
+    public int uploadFiles(List<UploadPipeline.Source> sources, boolean pack, TransferContext context) throws IOException, InterruptedException {
+        List<ResPeerDto> peers = getUploadPeers();
+        if (peers.isEmpty()) {
+            return 0;
+        }
+
+        List<UploadPipeline.PendingFile> pending = new ArrayList<>(sources.size());
+        int registered = 0;
+        try (UploadPipeline pipeline = new UploadPipeline(config, peers, pack, context)) {
+            for (UploadPipeline.Source source : sources) {
+                try {
+                    pending.add(pipeline.submit(source));
+                } catch (IOException e) {
+                    System.err.println("Skipping " + source.name() + ": " + e.getMessage());
+                }
+            }
+            pipeline.flush();
+
+            List<ReqFileDto> batch = new ArrayList<>();
+            for (UploadPipeline.PendingFile file : pending) {
+                ReqFileDto fileMetaData = file.await();
+                if (fileMetaData != null) {
+                    batch.add(fileMetaData);
+                }
+                if (batch.size() == REGISTRATION_BATCH_SIZE) {
+                    registered += uploadFilesMetadata(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                registered += uploadFilesMetadata(batch);
+            }
+        }
+        System.out.println("Uploaded " + registered + " of " + sources.size() + " files.");
+        return registered;
+    }
+
+    /**
+     * Active peers to upload to, without this node and without peers gossip already found dead.
+     *
+     * @return an empty list if there is no other peer
+     */
+    private List<ResPeerDto> getUploadPeers() throws IOException, InterruptedException {
         List<ResPeerDto> peers = peerService.getPeers();
         String myIP = config.getLocalIPAddress();
         int myPort = config.getListeningPort();
@@ -59,34 +249,72 @@ public class FileService {
         //
         if (peers.isEmpty() || onlyMe) {
             System.out.println("No active peers found. Please upload file later.");
-            return false;
+            return Collections.emptyList();
         }
 
         // remove self from peer list
         peers.removeIf(peer -> peer.peer_ip.equals(myIP) && peer.peer_port == myPort);
+        // the tracker's peer list lags behind; skip peers gossip already found dead, unless none would remain
+        if (gossipService != null && peers.stream().anyMatch(peer -> !gossipService.isDead(peer.peer_ip, peer.peer_port))) {
+            peers.removeIf(peer -> gossipService.isDead(peer.peer_ip, peer.peer_port));
+        }
 
         //
         // here for test with one machine
         //
+        return peers;
+    }
 
-        String fileName = file.getName();
-        String fileHash = HashUtils.computeHash(file);
-        Long fileSize = file.length();
-        boolean fileEnc = Objects.nonNull(password) && !password.isBlank();
-
-        // encrypt file here // leave as it is for now
-        // if(fileEnc){
-        //      file = encryptFile(file, password)
-        // {
+    /**
+     * Downloads a file from the swarm into downloads/complete.
+     *
+     * @return the downloaded file, or null if the metadata or a chunk could not be retrieved
+     */
+    public File downloadFile(int fileId) throws IOException, InterruptedException {
+        ResFileDto fileMetaData = downloadFileMetadata(fileId);
+        if (fileMetaData == null) {
+            return null;
+        }
+        return downloadFile(fileMetaData, null);
+    }
 
-        ReqFileDto fileMetaData = new ReqFileDto(fileName, fileHash, fileSize, fileEnc);
+    /**
+     * Downloads a file whose metadata was already fetched.
+     *
+     * @param context the shared pool and progress listener of a {@link TransferManager} job, or null
+     * @return the downloaded file, or null if a chunk could not be retrieved or the file is already being downloaded
+     */
+    public File downloadFile(ResFileDto fileMetaData, TransferContext context) throws IOException {
+        if (!downloading.add(fileMetaData.file_hash)) {
+            System.err.println(fileMetaData.file_name + " is already being downloaded.");
+            return null;
+        }
+        try {
+            P2PDownloader downloader = new P2PDownloader(config, fileMetaData, gossipService, context);
+            if (reseeder != null) {
+                downloader.onVerifiedChunk(reseeder::offer);
+            }
+            return downloader.download();
+        } finally {
+            downloading.remove(fileMetaData.file_hash);
+        }
+    }
 
-        P2PUploader uploader = new P2PUploader(config, fileMetaData, file, peers);
-        uploader.start();
-        // maybe loading bar here?
-        uploader.join();
-        Map<String, Object> result = uploadFileMetadata(fileMetaData);
-        return true;
+    /**
+     * Opens a swarm file for range reads and streaming without downloading it; close the reader when done.
+     *
+     * @return the reader, or null if the metadata could not be retrieved
+     */
+    public RemoteFileReader openFile(int fileId) throws IOException, InterruptedException {
+        ResFileDto fileMetaData = downloadFileMetadata(fileId);
+        if (fileMetaData == null) {
+            return null;
+        }
+        RemoteFileReader reader = new RemoteFileReader(config, fileMetaData, gossipService);
+        if (reseeder != null) {
+            reader.onVerifiedChunk(reseeder::offer);
+        }
+        return reader;
     }
 
 
@@ -95,41 +323,143 @@ public class FileService {
      * returns : file_id, file_name, file_hash, success_message
      */
     public Map<String, Object> uploadFileMetadata(ReqFileDto fileDto) throws IOException, InterruptedException {
-        String body = config.getObjectMapper().writeValueAsString(fileDto);
+        MetadataCodec codec = config.getMetadataCodec();
+        HttpResponse<InputStream> response = postFileMetadata(fileDto);
+        Map<String, Object> result = codec.read(response, new TypeReference<>() {});
+        if (response.statusCode() != 200) {
+            System.err.println("Upload failed: " + result);
+        }
+        return result;
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(config.getBaseUrl() + "/files/upload_file"))
-                .POST(HttpRequest.BodyPublishers.ofString(body))
-                .header("Content-Type", "application/json")
+    private HttpResponse<InputStream> postFileMetadata(ReqFileDto fileDto) throws IOException, InterruptedException {
+        HttpRequest request = config.getMetadataCodec().post(HttpRequest.newBuilder()
+                .uri(URI.create(config.getBaseUrl() + "/files/upload_file")), fileDto)
                 .build();
+        return send("files.upload", request, HttpResponse.BodyHandlers.ofInputStream());
+    }
 
-        HttpResponse<String> response = config.getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Upload many files' metadata at once (POST /files/upload_files).
+     * Falls back to one POST /files/upload_file per file for trackers without the batch route; files the tracker
+     * refuses there are reported and not counted.
+     *
+     * @return the number of files registered
+     */
+    public int uploadFilesMetadata(List<ReqFileDto> fileDtos) throws IOException, InterruptedException {
+        MetadataCodec codec = config.getMetadataCodec();
+        HttpRequest request = codec.post(HttpRequest.newBuilder()
+                .uri(URI.create(config.getBaseUrl() + "/files/upload_files")), fileDtos)
+                .build();
+
+        HttpResponse<InputStream> response = send("files.upload_batch", request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() == 404 || response.statusCode() == 405) {
+            response.body().close();
+            int registered = 0;
+            for (ReqFileDto fileDto : fileDtos) {
+                HttpResponse<InputStream> single = postFileMetadata(fileDto);
+                if (single.statusCode() == 200) {
+                    single.body().close();
+                    registered++;
+                } else {
+                    System.err.println("Failed to register " + fileDto.file_name + ": " + codec.readText(single));
+                }
+            }
+            return registered;
+        }
         if (response.statusCode() != 200) {
-            System.err.println("Upload failed: " + response.body());
+            System.err.println("Batch upload failed: " + codec.readText(response));
+            return 0;
         }
-
-        System.out.println("DEBUG: Response Body: " + JsonUtils.jsonFormatter(response.body()));
-        return config.getObjectMapper().readValue(response.body(), new TypeReference<>() {});
+        response.body().close();
+        return fileDtos.size();
     }
 
     /**
      * Download File Metadata (GET /files/download_file/{file_id})
      */
     public ResFileDto downloadFileMetadata(int fileId) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
+        MetadataCodec codec = config.getMetadataCodec();
+        HttpRequest request = codec.accept(HttpRequest.newBuilder()
                 .uri(URI.create(config.getBaseUrl() + "/files/download_file/" + fileId))
-                .GET()
+                .GET())
                 .build();
 
-        HttpResponse<String> response = config.getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<InputStream> response = send("files.download", request, HttpResponse.BodyHandlers.ofInputStream());
         if (response.statusCode() != 200) {
-            System.err.println("Download failed: " + response.body());
+            System.err.println("Download failed: " + codec.readText(response));
             return null;
         }
+        return codec.read(response, ResFileDto.class);
+    }
 
-        System.out.println("DEBUG: Response Body: " + JsonUtils.jsonFormatter(response.body()));
-        return config.getObjectMapper().readValue(response.body(), ResFileDto.class);
+    /**
+     * Registers placements of existing chunks (POST /chunks/placements), by chunk_id or chunk_hash.
+     * Every service that announces chunks it stored goes through here.
+     *
+     * @return the number of placements the tracker added
+     * @throws IOException if the tracker is unreachable or refuses them
+     */
+    public static int addPlacements(P2PClientConfig config, List<ReqPeerDto> placements) throws IOException, InterruptedException {
+        return postPlacements(config, "/chunks/placements", placements).path("added").asInt();
     }
 
+    /**
+     * Unregisters placements (POST /chunks/placements/remove). The tracker keeps the last placement of a chunk.
+     *
+     * @return the number of placements the tracker removed
+     * @throws IOException if the tracker is unreachable or refuses the request
+     */
+    public static int removePlacements(P2PClientConfig config, List<ReqPeerDto> placements) throws IOException, InterruptedException {
+        return postPlacements(config, "/chunks/placements/remove", placements).path("removed").asInt();
+    }
+
+    /**
+     * Posts placements to the tracker, encoded as they are sent like the other metadata, and records it as
+     * tracker.placements.latency and .failures.
+     *
+     * @return the tracker's reply
+     */
+    private static JsonNode postPlacements(P2PClientConfig config, String path, List<ReqPeerDto> placements)
+            throws IOException, InterruptedException {
+        MetadataCodec codec = config.getMetadataCodec();
+        HttpRequest request = codec.post(HttpRequest.newBuilder()
+                .uri(URI.create(config.getBaseUrl() + path)), placements)
+                .build();
+
+        long start = System.nanoTime();
+        try {
+            HttpResponse<InputStream> response = config.getHttpClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                throw new IOException("Placement update failed: " + codec.readText(response));
+            }
+            return codec.read(response, JsonNode.class);
+        } catch (IOException e) {
+            config.getMetrics().counter("tracker.placements.failures").inc();
+            throw e;
+        } finally {
+            config.getMetrics().histogram("tracker.placements.latency").recordSince(start);
+        }
+    }
+
+    private HttpResponse<String> send(String operation, HttpRequest request) throws IOException, InterruptedException {
+        return send(operation, request, HttpResponse.BodyHandlers.ofString());
+    }
 
+    /**
+     * Sends a tracker request and records its latency as tracker.&lt;operation&gt;.latency; for a streamed body,
+     * up to the response headers
+     */
+    private <T> HttpResponse<T> send(String operation, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            return config.getHttpClient().send(request, handler);
+        } catch (IOException e) {
+            config.getMetrics().counter("tracker." + operation + ".failures").inc();
+            throw e;
+        } finally {
+            config.getMetrics().histogram("tracker." + operation + ".latency").recordSince(start);
+        }
+    }
 }
\ No newline at end of file
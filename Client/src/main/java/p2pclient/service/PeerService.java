@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import p2pclient.config.P2PClientConfig;
 import p2pclient.dto.ReqPeerDto;
 import p2pclient.dto.ResPeerDto;
+import p2pclient.store.ChunkId;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -16,6 +17,8 @@ import java.net.http.*;
 import java.util.*;
 
 public class PeerService {
+    private static final int ANNOUNCE_BATCH = 10_000;
+
     private final P2PClientConfig config;
 
     public PeerService(P2PClientConfig config) {
@@ -43,7 +46,7 @@ public class PeerService {
                 .POST(HttpRequest.BodyPublishers.ofString(body))
                 .header("Content-Type", "application/json")
                 .build();
-        HttpResponse<String> response = config.getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = send("peers.add", request);
         System.out.println("DEBUG:  addPeer Response: " + response.body());
 
     }
@@ -61,7 +64,7 @@ public class PeerService {
                 .header("Content-Type", "application/json")
                 .build();
 
-        HttpResponse<String> response = config.getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = send("peers.remove", request);
         System.out.println("DEBUG:  removePeer Response: " + response.body());
     }
 
@@ -90,6 +93,29 @@ public class PeerService {
     }
 
 
+    /**
+     * Announce Held Chunks (POST /chunks/placements, by chunk hash, ANNOUNCE_BATCH placements per request)
+     * Run at startup: placements the tracker dropped while this peer was away, or never had, are back at once.
+     * Placements of chunks the store no longer holds are not removed; the peer answers not_found for them.
+     *
+     * @param ip   the address other peers reach this node's P2PServer at
+     * @param port its port
+     * @return the number of placements the tracker did not have
+     */
+    public int announceChunks(String ip, int port) throws IOException, InterruptedException {
+        List<ChunkId> chunkIds = config.getChunkStore().list();
+        int added = 0;
+        for (int from = 0; from < chunkIds.size(); from += ANNOUNCE_BATCH) {
+            List<ReqPeerDto> placements = new ArrayList<>();
+            for (ChunkId chunkId : chunkIds.subList(from, Math.min(chunkIds.size(), from + ANNOUNCE_BATCH))) {
+                placements.add(ReqPeerDto.ofHash(ip, port, chunkId.toHex()));
+            }
+            added += FileService.addPlacements(config, placements);
+        }
+        System.out.println("Announced " + chunkIds.size() + " chunks to the tracker, " + added + " placements added");
+        return added;
+    }
+
     /**
      * Get Active Peers (GET /peers)
      */
@@ -99,7 +125,7 @@ public class PeerService {
                 .GET()
                 .build();
 
-        HttpResponse<String> response = config.getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = send("peers.list", request);
 
         if (response.statusCode() != 200) {
             System.err.println("Failed to get peers: " + response.body());
@@ -107,4 +133,19 @@ public class PeerService {
         }
         return config.getObjectMapper().readValue(response.body(), new TypeReference<List<ResPeerDto>>() {});
     }
+
+    /**
+     * Sends a tracker request and records its latency as tracker.&lt;operation&gt;.latency
+     */
+    private HttpResponse<String> send(String operation, HttpRequest request) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            return config.getHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            config.getMetrics().counter("tracker." + operation + ".failures").inc();
+            throw e;
+        } finally {
+            config.getMetrics().histogram("tracker." + operation + ".latency").recordSince(start);
+        }
+    }
 }
\ No newline at end of file
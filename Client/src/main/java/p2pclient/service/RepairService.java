@@ -0,0 +1,430 @@
+package p2pclient.service;
+
+import p2pclient.config.P2PClientConfig;
+import p2pclient.dto.ReqPeerDto;
+import p2pclient.dto.ResChunkDto;
+import p2pclient.dto.ResFileDto;
+import p2pclient.dto.ResPeerDto;
+import p2pclient.metrics.MetricsRegistry;
+import p2pclient.net.ChunkTransfer;
+import p2pclient.net.GossipService;
+import p2pclient.net.PeerBusyException;
+import p2pclient.store.ChunkId;
+import p2pclient.utils.HashUtils;
+import p2pclient.utils.ReedSolomon;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * RepairService - Opt-in (repair setting) re-replication of chunks whose holders left the swarm.
+ * The tracker drops peers that stop answering its heartbeat and lists only live placements, so every round walks
+ * the manifests of up to MAX_MANIFESTS_PER_ROUND files (continuing where the last round stopped) and collects the
+ * chunks with fewer live copies than the most demanding file that references them was uploaded with
+ * (getNumberOfCopies()). Each one is pulled from a surviving holder (the tracker's, or one gossip knows), checked
+ * against its hash, pushed to the least loaded peers that do not hold it and registered with the tracker.
+ * Erasure coded files are tracked by chunk group instead: a group with fewer than k + m distinct shards alive is
+ * rebuilt from k surviving shards, and every lost shard is pushed to a peer that holds no shard of the group.
+ * Chunks with one copy left and groups with no shard to spare are repaired first. At most MAX_REPAIRS_PER_ROUND
+ * chunks or groups and MAX_BYTES_PER_SECOND are moved per round, so a large outage is repaired over several rounds
+ * instead of flooding the swarm. A chunk with no live copy, or a group with fewer than k shards, cannot be repaired.
+ * One or a few nodes of a swarm are enough: they would otherwise repair the same chunks.
+ */
+public class RepairService {
+    private static final long INTERVAL_SECONDS = 60; // the trackers' heartbeat interval
+    private static final int MAX_MANIFESTS_PER_ROUND = 256;
+    private static final int MAX_REPAIRS_PER_ROUND = 64;
+    private static final long MAX_BYTES_PER_SECOND = 8L * 1024 * 1024;
+
+    /**
+     * A chunk, its live holders and the copies wanted; the same chunk in several files (versions, packs) counts once.
+     */
+    private static final class Chunk {
+        final ChunkId chunkId;
+        final String hash;
+        final int size;
+        final List<ResPeerDto> holders;
+        int wanted; // 0 if only shards of erasure coded files reference it: its group is repaired instead
+
+        Chunk(ResChunkDto chunk, List<ResPeerDto> holders) {
+            this.chunkId = ChunkId.fromHex(chunk.chunk_hash);
+            this.hash = chunk.chunk_hash;
+            this.size = chunk.chunk_size;
+            this.holders = holders;
+        }
+
+        int missing() {
+            return wanted - holders.size();
+        }
+    }
+
+    /**
+     * A chunk group of an erasure coded file with fewer than k + m of its shards alive; the same group in several
+     * files counts once.
+     */
+    private static final class Group {
+        final ReedSolomon code;
+        final Chunk[] shards; // by shard index; null if the manifest lacks it
+
+        Group(ReedSolomon code, Chunk[] shards) {
+            this.code = code;
+            this.shards = shards;
+        }
+
+        int surviving() {
+            int surviving = 0;
+            for (Chunk shard : shards) {
+                if (shard != null && !shard.holders.isEmpty()) {
+                    surviving++;
+                }
+            }
+            return surviving;
+        }
+
+        // shards that can still be lost before the group is; ranks with a chunk's last copies
+        int spare() {
+            return surviving() - code.getDataShards();
+        }
+    }
+
+    private final P2PClientConfig config;
+    private final MetricsRegistry metrics;
+    private final FileService fileService;
+    private final Callable<List<ResPeerDto>> peers;
+    private final GossipService gossip;
+    private final ScheduledExecutorService scheduler;
+    private int nextFile; // scan position in the tracker's file list
+    private volatile int underReplicated;
+    private volatile int lost;
+
+    /**
+     * @param fileService reads the manifests
+     * @param peers       where to find peers to push to (normally the tracker's peer list)
+     * @param gossip      adds sources the tracker does not list, ranks targets by load and skips dead holders; may be null
+     */
+    public RepairService(P2PClientConfig config, FileService fileService, Callable<List<ResPeerDto>> peers, GossipService gossip) {
+        this.config = config;
+        this.metrics = config.getMetrics();
+        this.fileService = fileService;
+        this.peers = peers;
+        this.gossip = gossip;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "repair");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metrics.gauge("repair.under_replicated", () -> underReplicated);
+        metrics.gauge("repair.lost", () -> lost);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::repairNow, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Runs one round on the caller's thread, outside the schedule.
+     *
+     * @return the number of copies made
+     */
+    public synchronized int repairNow() {
+        try {
+            List<Chunk> deficits = new ArrayList<>();
+            List<Group> groups = new ArrayList<>();
+            scan(deficits, groups);
+            underReplicated = deficits.size() + groups.size();
+            lost = (int) (deficits.stream().filter(deficit -> deficit.holders.isEmpty()).count()
+                    + groups.stream().filter(group -> group.spare() < 0).count());
+            // closest to zero copies first, then the largest shortfall
+            deficits.sort(Comparator.comparingInt((Chunk deficit) -> deficit.holders.size())
+                    .thenComparing(Comparator.comparingInt(Chunk::missing).reversed()));
+            groups.removeIf(group -> group.spare() < 0);
+            groups.sort(Comparator.comparingInt(Group::spare));
+            return repair(deficits, groups);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (Exception e) {
+            System.err.println("Repair round failed: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Collects the chunks with fewer live copies than wanted and the groups with fewer than k + m shards alive.
+     */
+    private void scan(List<Chunk> deficits, List<Group> groups) throws IOException, InterruptedException {
+        List<ResFileDto> files = fileService.getAllFiles();
+        List<ResFileDto> manifests = new ArrayList<>();
+        int count = Math.min(MAX_MANIFESTS_PER_ROUND, files.size());
+        for (int i = 0; i < count; i++) {
+            ResFileDto file = files.get((nextFile + i) % files.size());
+            ResFileDto manifest = fileService.downloadFileMetadata(file.file_id);
+            if (manifest != null && manifest.file_chunks != null) {
+                manifests.add(manifest);
+            }
+        }
+        nextFile = files.isEmpty() ? 0 : (nextFile + count) % files.size();
+
+        // every file is seen before a chunk is judged, so the most demanding one decides
+        Map<String, Chunk> chunks = new LinkedHashMap<>();
+        for (ResFileDto manifest : manifests) {
+            int wanted = manifest.isErasureCoded() ? 0 : config.getNumberOfCopies();
+            for (ResChunkDto chunk : manifest.file_chunks) {
+                if (chunk.chunk_hash == null || chunk.chunk_size == null) {
+                    continue;
+                }
+                Chunk known = chunks.computeIfAbsent(chunk.chunk_hash, hash -> new Chunk(chunk, liveHolders(chunk)));
+                known.wanted = Math.max(known.wanted, wanted);
+            }
+        }
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.missing() > 0) {
+                deficits.add(chunk);
+            }
+        }
+
+        Map<List<String>, Group> degraded = new LinkedHashMap<>(); // by shard hashes
+        for (ResFileDto manifest : manifests) {
+            if (manifest.isErasureCoded()) {
+                collectGroups(manifest, chunks, degraded);
+            }
+        }
+        groups.addAll(degraded.values());
+    }
+
+    private static void collectGroups(ResFileDto manifest, Map<String, Chunk> chunks, Map<List<String>, Group> degraded) {
+        ReedSolomon code = new ReedSolomon(manifest.file_data_shards, manifest.file_parity_shards);
+        int totalShards = manifest.file_data_shards + manifest.file_parity_shards;
+        Map<Long, Chunk[]> groups = new LinkedHashMap<>();
+        for (ResChunkDto chunk : manifest.file_chunks) {
+            Chunk shard = chunk.chunk_hash != null ? chunks.get(chunk.chunk_hash) : null;
+            if (shard != null && chunk.chunk_index != null) {
+                groups.computeIfAbsent(chunk.chunk_index / totalShards, group -> new Chunk[totalShards])
+                        [(int) (chunk.chunk_index % totalShards)] = shard;
+            }
+        }
+        for (Chunk[] shards : groups.values()) {
+            Group group = new Group(code, shards);
+            if (group.surviving() < totalShards) {
+                List<String> key = new ArrayList<>(totalShards);
+                for (Chunk shard : shards) {
+                    key.add(shard != null ? shard.hash : null);
+                }
+                degraded.putIfAbsent(key, group);
+            }
+        }
+    }
+
+    private List<ResPeerDto> liveHolders(ResChunkDto chunk) {
+        List<ResPeerDto> holders = new ArrayList<>();
+        for (ResPeerDto peer : chunk.chunk_peers != null ? chunk.chunk_peers : List.<ResPeerDto>of()) {
+            if (gossip == null || !gossip.isDead(peer.peer_ip, peer.peer_port)) {
+                holders.add(peer);
+            }
+        }
+        return holders;
+    }
+
+    private int repair(List<Chunk> deficits, List<Group> groups) throws InterruptedException {
+        List<ResPeerDto> candidates;
+        try {
+            candidates = peers.call();
+        } catch (Exception e) {
+            candidates = List.of();
+        }
+
+        int repaired = 0;
+        int copies = 0;
+        long bytes = 0;
+        long start = System.nanoTime();
+        List<ReqPeerDto> placements = new ArrayList<>();
+        int nextDeficit = 0;
+        int nextGroup = 0;
+        while (repaired < MAX_REPAIRS_PER_ROUND && (nextDeficit < deficits.size() || nextGroup < groups.size())) {
+            // a group with no shard to spare is as close to loss as a chunk with one copy left
+            boolean group = nextDeficit == deficits.size() || nextGroup < groups.size()
+                    && groups.get(nextGroup).spare() < deficits.get(nextDeficit).holders.size();
+            int before = placements.size();
+            long moved = group ? rebuild(groups.get(nextGroup++), candidates, placements)
+                    : copy(deficits.get(nextDeficit++), candidates, placements);
+            if (moved < 0) {
+                metrics.counter("repair.failures").inc();
+                continue; // nothing could be pulled; does not count against the round's budget
+            }
+            repaired++;
+            copies += placements.size() - before;
+            bytes += moved;
+
+            // stay under MAX_BYTES_PER_SECOND over the round
+            long aheadMillis = bytes * 1000 / MAX_BYTES_PER_SECOND - (System.nanoTime() - start) / 1_000_000;
+            if (aheadMillis > 0) {
+                Thread.sleep(aheadMillis);
+            }
+        }
+        if (!placements.isEmpty()) {
+            try {
+                FileService.addPlacements(config, placements);
+            } catch (IOException e) {
+                System.err.println("Failed to register repaired placements: " + e.getMessage());
+            }
+        }
+        if (copies > 0) {
+            System.out.println("Repair: made " + copies + " copies of " + repaired + " of " + underReplicated
+                    + " under-replicated chunks and shard groups");
+        }
+        return copies;
+    }
+
+    /**
+     * Pulls the chunk and pushes it to as many new holders as it is missing.
+     *
+     * @return the bytes moved, or -1 if no holder gave the chunk
+     */
+    private long copy(Chunk deficit, List<ResPeerDto> candidates, List<ReqPeerDto> placements) {
+        byte[] data = pull(deficit);
+        if (data == null) {
+            return -1;
+        }
+        long bytes = data.length;
+        int needed = deficit.missing();
+        for (ResPeerDto target : targets(deficit, candidates)) {
+            if (needed == 0) {
+                break;
+            }
+            if (push(target, deficit.chunkId, data)) {
+                placements.add(ReqPeerDto.ofHash(target.peer_ip, target.peer_port, deficit.hash));
+                needed--;
+                bytes += data.length;
+            }
+        }
+        if (needed > 0) {
+            metrics.counter("repair.failures").inc();
+        }
+        return bytes;
+    }
+
+    /**
+     * Pulls k surviving shards, data shards first so that nothing needs decoding if they all survive, rebuilds the
+     * lost shards and pushes each to a peer that holds no shard of the group.
+     *
+     * @return the bytes moved, or -1 if fewer than k shards could be pulled
+     */
+    private long rebuild(Group group, List<ResPeerDto> candidates, List<ReqPeerDto> placements) {
+        ReedSolomon code = group.code;
+        int dataShards = code.getDataShards();
+        int totalShards = group.shards.length;
+        byte[][] shards = new byte[totalShards][];
+        boolean[] present = new boolean[totalShards];
+        int pulled = 0;
+        long bytes = 0;
+        for (int s = 0; s < totalShards && pulled < dataShards; s++) {
+            Chunk shard = group.shards[s];
+            if (shard != null && !shard.holders.isEmpty() && (shards[s] = pull(shard)) != null) {
+                present[s] = true;
+                pulled++;
+                bytes += shards[s].length;
+            }
+        }
+        if (pulled < dataShards) {
+            return -1;
+        }
+        code.decodeData(shards, present);
+        for (int p = dataShards; p < totalShards; p++) {
+            shards[p] = new byte[shards[0].length];
+        }
+        code.encode(shards);
+
+        Set<String> taken = new HashSet<>(); // no peer takes a second shard of the group
+        for (Chunk shard : group.shards) {
+            if (shard != null) {
+                shard.holders.forEach(holder -> taken.add(MetricsRegistry.peer(holder.peer_ip, holder.peer_port)));
+            }
+        }
+        for (int s = 0; s < totalShards; s++) {
+            Chunk shard = group.shards[s];
+            if (shard == null || !shard.holders.isEmpty()) {
+                continue;
+            }
+            if (!shard.chunkId.equals(HashUtils.hash(shards[s], 0, shards[s].length))) {
+                metrics.counter("repair.failures").inc(); // the surviving shards do not decode to it
+                continue;
+            }
+            boolean stored = false;
+            for (ResPeerDto target : targets(shard, candidates)) {
+                String peer = MetricsRegistry.peer(target.peer_ip, target.peer_port);
+                if (!taken.contains(peer) && push(target, shard.chunkId, shards[s])) {
+                    placements.add(ReqPeerDto.ofHash(target.peer_ip, target.peer_port, shard.hash));
+                    taken.add(peer);
+                    bytes += shards[s].length;
+                    stored = true;
+                    break;
+                }
+            }
+            if (!stored) {
+                metrics.counter("repair.failures").inc();
+            }
+        }
+        metrics.counter("repair.groups").inc();
+        return bytes;
+    }
+
+    // the tracker's holders first, then the ones only gossip knows
+    private byte[] pull(Chunk chunk) {
+        List<ResPeerDto> sources = gossip != null ? gossip.rankSources(chunk.chunkId, chunk.holders) : chunk.holders;
+        for (ResPeerDto source : sources) {
+            String peer = MetricsRegistry.peer(source.peer_ip, source.peer_port);
+            try {
+                byte[] data = ChunkTransfer.fetch(config.getTransport(), source.peer_ip, source.peer_port, chunk.chunkId, chunk.size);
+                if (data != null) {
+                    return data;
+                }
+            } catch (PeerBusyException e) {
+                config.getConcurrencyLimiter().busy(peer, e.getRetryAfterMillis());
+            } catch (IOException e) {
+                if (gossip != null) {
+                    gossip.reportUnreachable(source.peer_ip, source.peer_port);
+                }
+            }
+        }
+        return null;
+    }
+
+    private List<ResPeerDto> targets(Chunk chunk, List<ResPeerDto> candidates) {
+        List<ResPeerDto> targets = new ArrayList<>();
+        if (gossip != null) {
+            targets.addAll(gossip.rankTargets(chunk.chunkId, candidates));
+        } else {
+            targets.addAll(candidates);
+            Collections.shuffle(targets);
+        }
+        targets.removeIf(peer -> peer.peer_ip == null || peer.peer_port == null || chunk.holders.stream()
+                .anyMatch(holder -> holder.peer_port.equals(peer.peer_port) && peer.peer_ip.equals(holder.peer_ip)));
+        return targets;
+    }
+
+    /**
+     * Sends "upload": a repaired copy is kept like the ones made at upload time.
+     */
+    private boolean push(ResPeerDto target, ChunkId chunkId, byte[] data) {
+        String peer = MetricsRegistry.peer(target.peer_ip, target.peer_port);
+        try {
+            if (ChunkTransfer.store(config.getTransport(), target.peer_ip, target.peer_port, chunkId, data, false)) {
+                metrics.counter("repair.copies").inc();
+                metrics.meter("repair.bytes", peer).mark(data.length);
+                return true;
+            }
+        } catch (PeerBusyException e) {
+            config.getConcurrencyLimiter().busy(peer, e.getRetryAfterMillis());
+        } catch (IOException e) {
+            if (gossip != null) {
+                gossip.reportUnreachable(target.peer_ip, target.peer_port);
+            }
+        }
+        return false;
+    }
+}
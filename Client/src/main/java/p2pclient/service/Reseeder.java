@@ -0,0 +1,125 @@
+package p2pclient.service;
+
+import p2pclient.config.P2PClientConfig;
+import p2pclient.dto.ReqPeerDto;
+import p2pclient.dto.ResChunkDto;
+import p2pclient.dto.ResPeerDto;
+import p2pclient.store.ChunkId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reseeder - Opt-in seeding of downloaded chunks (reseed setting), like a BitTorrent client.
+ * Every whole chunk or shard a download fetched and verified is kept in the local ChunkStore, where P2PServer
+ * serves it, and the new placements are announced to the tracker in batches (POST /chunks/placements), so a
+ * popular file gains a source with every download instead of keeping the replicas it got at upload time.
+ * Ranges of packed chunks are not kept: they are not the whole chunk.
+ */
+public class Reseeder implements AutoCloseable {
+    private static final int BATCH_SIZE = 256;
+    private static final long FLUSH_INTERVAL_MILLIS = 2000;
+
+    private final P2PClientConfig config;
+    private final String advertisedIp;
+    private final int advertisedPort;
+    private final List<ReqPeerDto> pending = new ArrayList<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param advertisedIp   the address other peers reach this node's P2PServer at
+     * @param advertisedPort its port
+     */
+    public Reseeder(P2PClientConfig config, String advertisedIp, int advertisedPort) {
+        this.config = config;
+        this.advertisedIp = advertisedIp;
+        this.advertisedPort = advertisedPort;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "reseed-announce");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts announcing the kept chunks every FLUSH_INTERVAL_MILLIS.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Keeps a verified chunk of a download and queues its placement; called from the download threads.
+     */
+    public void offer(ResChunkDto chunk, byte[] data) {
+        if (chunk.isExtent() || chunk.chunk_id == null || isListed(chunk)) {
+            return;
+        }
+        try {
+            if (!config.getChunkStore().put(ChunkId.fromHex(chunk.chunk_hash), data)) {
+                return; // an upload of the chunk is being stored; it will not be announced as ours
+            }
+        } catch (IOException e) {
+            config.getMetrics().counter("reseed.failures").inc();
+            return;
+        }
+        config.getMetrics().counter("reseed.chunks").inc();
+        boolean full;
+        synchronized (pending) {
+            pending.add(new ReqPeerDto(advertisedIp, advertisedPort, chunk.chunk_id.longValue()));
+            full = pending.size() >= BATCH_SIZE;
+        }
+        if (full) {
+            scheduler.execute(this::flush);
+        }
+    }
+
+    private boolean isListed(ResChunkDto chunk) {
+        for (ResPeerDto peer : chunk.chunk_peers != null ? chunk.chunk_peers : List.<ResPeerDto>of()) {
+            if (peer.peer_port == advertisedPort && advertisedIp.equals(peer.peer_ip)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Announces the queued placements now. A batch the tracker does not take is dropped: the chunks stay held
+     * and gossip still advertises them.
+     */
+    public void flush() {
+        List<ReqPeerDto> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            FileService.addPlacements(config, batch);
+        } catch (IOException e) {
+            System.err.println("Placement announce failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Announces what is still queued and stops.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,311 @@
+package p2pclient.service;
+
+import p2pclient.config.P2PClientConfig;
+import p2pclient.net.TransferContext;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TransferManager - Runs uploads and downloads as background jobs so the CLI stays responsive.
+ * All jobs share two bounded pools: MAX_CONCURRENT_JOBS job threads that read files and drive the transfers, and
+ * MAX_THREADS chunk threads that move chunks to and from peers. Both queues are ordered by job priority, then by
+ * submission, so a high priority job overtakes the queued work of lower priority ones, and the number of threads
+ * stays the same however many transfers are queued.
+ * In virtual-thread mode the job threads are virtual and chunk work is not queued at all: every task gets a virtual
+ * thread and waits in the {@link p2pclient.net.ConcurrencyLimiter}, so priorities order the jobs only.
+ */
+public class TransferManager implements AutoCloseable {
+    private static final int MAX_CONCURRENT_JOBS = 2;
+
+    public enum Priority { LOW, NORMAL, HIGH }
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    /**
+     * The work of a job; runs on a job thread and hands its chunk work to the context's pool.
+     */
+    @FunctionalInterface
+    public interface Transfer {
+        /**
+         * @return true if the transfer succeeded
+         */
+        boolean run(TransferContext context) throws Exception;
+    }
+
+    /**
+     * A background transfer with its progress in file bytes.
+     */
+    public final class Job {
+        private final int id;
+        private final String description;
+        private final Priority priority;
+        private final long totalBytes;
+        private final Transfer transfer;
+        private final LongAdder transferredBytes = new LongAdder();
+        private final CountDownLatch ended = new CountDownLatch(1);
+        private final JobExecutor executor = new JobExecutor(this);
+        private PrioritizedTask queuedTask;
+        private volatile State state = State.QUEUED;
+        private volatile boolean cancelled;
+        private volatile Thread runner;
+        private volatile long startNanos;
+        private volatile long endNanos;
+
+        private Job(int id, String description, Priority priority, long totalBytes, Transfer transfer) {
+            this.id = id;
+            this.description = description;
+            this.priority = priority;
+            this.totalBytes = totalBytes;
+            this.transfer = transfer;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getTransferredBytes() {
+            return transferredBytes.sum();
+        }
+
+        /**
+         * @return bytes per second since the job started, up to now or until it ended
+         */
+        public double getThroughput() {
+            long start = startNanos;
+            if (start == 0) {
+                return 0;
+            }
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            return getTransferredBytes() / Math.max(1e-9, (end - start) / 1e9);
+        }
+
+        private void run() {
+            if (cancelled) {
+                finish(State.CANCELLED);
+                return;
+            }
+            runner = Thread.currentThread();
+            startNanos = System.nanoTime();
+            state = State.RUNNING;
+            State result;
+            try {
+                result = transfer.run(new TransferContext(executor, transferredBytes::add)) ? State.DONE : State.FAILED;
+            } catch (InterruptedException e) {
+                result = State.FAILED;
+            } catch (Exception e) {
+                System.err.println("Job " + id + " (" + description + ") failed: " + e.getMessage());
+                result = State.FAILED;
+            } finally {
+                runner = null;
+                Thread.interrupted(); // a cancel may arrive after the transfer returned; do not leak it to the next job
+            }
+            finish(cancelled ? State.CANCELLED : result);
+        }
+
+        /**
+         * Waits until the job is done, failed or cancelled.
+         *
+         * @return the final state
+         */
+        public State await() throws InterruptedException {
+            ended.await();
+            return state;
+        }
+
+        private void finish(State result) {
+            endNanos = System.nanoTime();
+            state = result;
+            ended.countDown();
+            System.out.println("\nJob " + id + " " + result.name().toLowerCase() + ": " + description);
+        }
+
+        /**
+         * Stops the job: a queued job never starts; a running one is interrupted and its queued chunk work dropped.
+         */
+        private boolean cancel() {
+            if (state == State.DONE || state == State.FAILED || state == State.CANCELLED) {
+                return false;
+            }
+            cancelled = true;
+            Thread thread = runner;
+            if (thread != null) {
+                thread.interrupt();
+            }
+            return true;
+        }
+    }
+
+    private final ThreadPoolExecutor jobPool;
+    private final ExecutorService chunkPool;
+    private final Map<Integer, Job> jobs = new ConcurrentSkipListMap<>();
+    private final AtomicInteger nextJobId = new AtomicInteger(1);
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    public TransferManager(P2PClientConfig config) {
+        if (config.isVirtualThreads()) {
+            this.jobPool = newPool(MAX_CONCURRENT_JOBS, Thread.ofVirtual().name("transfer-job-", 1).factory());
+            this.chunkPool = Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            this.jobPool = newPool(MAX_CONCURRENT_JOBS, Thread.ofPlatform().name("transfer-job-", 1).daemon().factory());
+            this.chunkPool = newPool(config.getMaxThreads(), Thread.ofPlatform().name("transfer-chunk-", 1).daemon().factory());
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(int threads, ThreadFactory threadFactory) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory);
+    }
+
+    /**
+     * Queues a transfer.
+     *
+     * @param totalBytes the file bytes the transfer moves, for progress reporting
+     */
+    public Job submit(String description, Priority priority, long totalBytes, Transfer transfer) {
+        Job job = new Job(nextJobId.getAndIncrement(), description, priority, totalBytes, transfer);
+        job.queuedTask = new PrioritizedTask(job, job::run, () -> {});
+        jobs.put(job.id, job);
+        jobPool.execute(job.queuedTask);
+        return job;
+    }
+
+    /**
+     * @return every job of this session, oldest first
+     */
+    public List<Job> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * @return false if there is no such job or it already ended
+     */
+    public boolean cancel(int jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null || !job.cancel()) {
+            return false;
+        }
+        // a job still waiting for a job thread ends right away
+        if (jobPool.remove(job.queuedTask)) {
+            job.finish(State.CANCELLED);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        jobs.values().forEach(Job::cancel);
+        jobPool.shutdownNow();
+        chunkPool.shutdownNow();
+    }
+
+    /**
+     * Work of one job in the shared queues; higher priority first, then first come first served.
+     * Once the job is cancelled, a queued future is cancelled instead of run. Plain runnables still run: the upload
+     * pipeline releases its memory budget in them, and it holds at most 2 * MAX_THREADS of them.
+     */
+    private final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Job job;
+        private final Runnable task;
+        private final Runnable after;
+        private final long sequence = nextSequence.getAndIncrement();
+
+        PrioritizedTask(Job job, Runnable task, Runnable after) {
+            this.job = job;
+            this.task = task;
+            this.after = after;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (job.cancelled && task instanceof Future<?> future) {
+                    future.cancel(false);
+                } else {
+                    task.run();
+                }
+            } finally {
+                after.run();
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int byPriority = other.job.priority.compareTo(job.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * A job's view of the shared chunk pool. Shutting it down only stops the job from queueing more work.
+     */
+    private final class JobExecutor extends AbstractExecutorService {
+        private final Job job;
+        private final AtomicInteger queued = new AtomicInteger();
+        private volatile boolean shutdown;
+
+        JobExecutor(Job job) {
+            this.job = job;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Job " + job.id + " no longer accepts work");
+            }
+            queued.incrementAndGet();
+            chunkPool.execute(new PrioritizedTask(job, task, queued::decrementAndGet));
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && queued.get() == 0;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                if (System.nanoTime() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+            return true;
+        }
+    }
+}
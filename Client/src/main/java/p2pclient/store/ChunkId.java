@@ -0,0 +1,139 @@
+package p2pclient.store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ChunkId - SHA-256 of a chunk as four longs (big-endian), the chunk's identity inside the client.
+ * Hex strings only exist at the edges: JSON DTOs, chunk file names and the 64-char field of the peer protocol.
+ * SHA-256 output is uniformly distributed, so the first word is already a good hash code.
+ */
+public record ChunkId(long h0, long h1, long h2, long h3) implements Comparable<ChunkId> {
+
+    public static final int BYTES = 32;
+    public static final int HEX_LENGTH = 64;
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) HEX_VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    /**
+     * @param digest 32 raw digest bytes
+     */
+    public static ChunkId of(byte[] digest) {
+        if (digest.length != BYTES) {
+            throw new IllegalArgumentException("Expected " + BYTES + " bytes, got " + digest.length);
+        }
+        return new ChunkId(word(digest, 0), word(digest, 8), word(digest, 16), word(digest, 24));
+    }
+
+    public static ChunkId fromHex(String hex) {
+        if (hex == null || hex.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("Invalid chunk hash: " + hex);
+        }
+        long[] words = new long[4];
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            int value = hexValue(hex.charAt(i));
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid chunk hash: " + hex);
+            }
+            words[i >> 4] = (words[i >> 4] << 4) | value;
+        }
+        return new ChunkId(words[0], words[1], words[2], words[3]);
+    }
+
+    /**
+     * Parses the 64 ASCII hex characters of the peer protocol without building a String.
+     *
+     * @return null if the bytes are not a valid hash (the caller answers with an error)
+     */
+    public static ChunkId fromHexBytes(byte[] ascii, int offset) {
+        if (ascii.length - offset < HEX_LENGTH) {
+            return null;
+        }
+        long[] words = new long[4];
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            int value = hexValue(ascii[offset + i]);
+            if (value < 0) {
+                return null;
+            }
+            words[i >> 4] = (words[i >> 4] << 4) | value;
+        }
+        return new ChunkId(words[0], words[1], words[2], words[3]);
+    }
+
+    public static boolean isHex(String hex) {
+        if (hex == null || hex.length() != HEX_LENGTH) return false;
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            if (hexValue(hex.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the 64 lowercase hex characters as ASCII bytes (the peer protocol field)
+     */
+    public byte[] toHexBytes() {
+        byte[] out = new byte[HEX_LENGTH];
+        writeHex(out, 0, h0);
+        writeHex(out, 16, h1);
+        writeHex(out, 32, h2);
+        writeHex(out, 48, h3);
+        return out;
+    }
+
+    public String toHex() {
+        return new String(toHexBytes(), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (h0 ^ (h0 >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ChunkId other && h0 == other.h0 && h1 == other.h1 && h2 == other.h2 && h3 == other.h3;
+    }
+
+    @Override
+    public int compareTo(ChunkId other) {
+        int c = Long.compareUnsigned(h0, other.h0);
+        if (c == 0) c = Long.compareUnsigned(h1, other.h1);
+        if (c == 0) c = Long.compareUnsigned(h2, other.h2);
+        if (c == 0) c = Long.compareUnsigned(h3, other.h3);
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    private static long word(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static int hexValue(int c) {
+        return c >= 0 && c < 128 ? HEX_VALUES[c] : -1;
+    }
+
+    private static void writeHex(byte[] out, int offset, long word) {
+        for (int i = 15; i >= 0; i--) {
+            out[offset + i] = HEX_DIGITS[(int) (word & 0xf)];
+            word >>>= 4;
+        }
+    }
+}
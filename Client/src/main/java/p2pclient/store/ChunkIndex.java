@@ -0,0 +1,302 @@
+package p2pclient.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ChunkIndex - The ChunkStore's list of held chunks on disk, so startup does not have to list the uploads directory.
+ * Kept in uploads/.index as a snapshot (int magic, long count, then the 32 byte id of every chunk) and a journal of
+ * the changes since (one byte ADD or REMOVE and the 32 byte id per record). Loading maps both files and replays the
+ * journal over the snapshot; replaying a record twice changes nothing, so a crash between writing a new snapshot and
+ * deleting the journal it replaces is harmless, and a record cut short by a crash is dropped.
+ * Records are appended when the store changes, without forcing them to disk: after a power loss the index may miss
+ * the last chunks stored (their files are still served, but not announced). Once the journal has more records than
+ * CHECKPOINT_RECORDS and the snapshot, a checkpoint thread moves it aside as journal.old, so appends go on into a new
+ * journal, writes a new snapshot and then deletes journal.old. Loading replays journal.old before the journal.
+ * File I/O is guarded by a ReentrantLock rather than synchronized, so virtual threads storing chunks do not pin
+ * their carriers while they wait for it.
+ */
+final class ChunkIndex implements Closeable {
+    static final String DIRECTORY = ".index";
+    private static final String SNAPSHOT = "snapshot";
+    private static final String JOURNAL = "journal";
+    private static final String OLD_JOURNAL = "journal.old";
+    private static final int MAGIC = 0x43494458; // "CIDX"
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_BYTES = 1 + ChunkId.BYTES;
+    private static final long MAP_RECORDS = 1L << 25; // per mapping, to stay below 2 GB
+    private static final int CHECKPOINT_RECORDS = 1 << 16;
+
+    private final Path directory;
+    private final Set<ChunkId> chunkIds;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private final ReentrantLock lock = new ReentrantLock(); // guards the journal and the fields below
+    private final ReentrantLock checkpointLock = new ReentrantLock(); // one snapshot write at a time
+    private final AtomicBoolean checkpointPending = new AtomicBoolean();
+    private final ExecutorService checkpointer;
+    private FileChannel journal;
+    private boolean closed; // by close() or discard(); later changes are not journaled
+    private long journalRecords;
+    private long snapshotCount;
+
+    /**
+     * @param chunkIds the store's live set, written out by every checkpoint
+     */
+    ChunkIndex(File uploads, Set<ChunkId> chunkIds) {
+        this.directory = new File(uploads, DIRECTORY).toPath();
+        this.chunkIds = chunkIds;
+        this.checkpointer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chunk-index-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds the indexed chunks to the live set and opens the journal for appending.
+     *
+     * @return false if there is no index yet; nothing is loaded then
+     */
+    boolean load() throws IOException {
+        boolean interrupted;
+        lock.lock();
+        try {
+            Path snapshot = directory.resolve(SNAPSHOT);
+            if (!Files.exists(snapshot)) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                    throw new IOException("Not a chunk index snapshot: " + snapshot);
+                }
+                snapshotCount = header.getLong();
+                if (channel.size() < HEADER_BYTES + snapshotCount * ChunkId.BYTES) {
+                    throw new IOException("Chunk index snapshot is truncated: " + snapshot);
+                }
+                for (long done = 0; done < snapshotCount; ) {
+                    long count = Math.min(MAP_RECORDS, snapshotCount - done);
+                    MappedByteBuffer ids = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + done * ChunkId.BYTES, count * ChunkId.BYTES);
+                    for (long i = 0; i < count; i++) {
+                        chunkIds.add(read(ids));
+                    }
+                    done += count;
+                }
+            }
+
+            Path oldJournal = directory.resolve(OLD_JOURNAL);
+            interrupted = Files.exists(oldJournal); // a checkpoint did not finish
+            if (interrupted) {
+                try (FileChannel old = FileChannel.open(oldJournal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    replay(old);
+                }
+            }
+            journal = FileChannel.open(directory.resolve(JOURNAL), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journalRecords = replay(journal);
+            journal.position(journalRecords * RECORD_BYTES);
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted) {
+            checkpoint(); // so the next one can move the journal aside again
+        }
+        return true;
+    }
+
+    /**
+     * Applies the records of a journal to the live set and cuts off a torn record at its end.
+     *
+     * @return the number of records replayed
+     */
+    private long replay(FileChannel channel) throws IOException {
+        long records = channel.size() / RECORD_BYTES;
+        long replayed = 0;
+        while (replayed < records) {
+            long count = Math.min(MAP_RECORDS, records - replayed);
+            MappedByteBuffer changes = channel.map(FileChannel.MapMode.READ_ONLY, replayed * RECORD_BYTES, count * RECORD_BYTES);
+            long i = 0;
+            for (; i < count; i++) {
+                byte op = changes.get();
+                ChunkId chunkId = read(changes);
+                if (op == ADD) {
+                    chunkIds.add(chunkId);
+                } else if (op == REMOVE) {
+                    chunkIds.remove(chunkId);
+                } else {
+                    break; // garbage from a torn write; nothing valid follows
+                }
+            }
+            replayed += i;
+            if (i < count) {
+                break;
+            }
+        }
+        channel.truncate(replayed * RECORD_BYTES);
+        return replayed;
+    }
+
+    void added(ChunkId chunkId) throws IOException {
+        append(ADD, chunkId);
+    }
+
+    void removed(ChunkId chunkId) throws IOException {
+        append(REMOVE, chunkId);
+    }
+
+    private void append(byte op, ChunkId chunkId) throws IOException {
+        lock.lock();
+        try {
+            if (closed || journal == null) {
+                return; // no index was written; the next start lists the directory
+            }
+            record.clear();
+            record.put(op).putLong(chunkId.h0()).putLong(chunkId.h1()).putLong(chunkId.h2()).putLong(chunkId.h3());
+            record.flip();
+            writeFully(journal, record);
+            if (++journalRecords <= Math.max(CHECKPOINT_RECORDS, snapshotCount)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (checkpointPending.compareAndSet(false, true)) {
+            checkpointer.execute(this::checkpointInBackground);
+        }
+    }
+
+    private void checkpointInBackground() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Failed to checkpoint chunk index, the index will be rebuilt at the next start: " + e.getMessage());
+            discard();
+        } finally {
+            checkpointPending.set(false);
+        }
+    }
+
+    /**
+     * Writes the live set as the new snapshot and drops the journal it replaces. The journal is first moved aside
+     * and a new one opened, so changes racing with the snapshot are journaled in the new one: the store updates the
+     * live set before it journals a change, so a change either is in the old journal, and thus already in the live
+     * set the snapshot is written from, or is replayed from the new journal over the snapshot.
+     */
+    void checkpoint() throws IOException {
+        checkpointLock.lock();
+        try {
+            Files.createDirectories(directory);
+            Path oldJournal = directory.resolve(OLD_JOURNAL);
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                if (journal != null) {
+                    journal.close();
+                    Files.move(directory.resolve(JOURNAL), oldJournal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.deleteIfExists(oldJournal); // left from an index that could not be loaded
+                }
+                journal = FileChannel.open(directory.resolve(JOURNAL), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                journalRecords = 0;
+            } finally {
+                lock.unlock();
+            }
+
+            Path temp = directory.resolve(SNAPSHOT + ".tmp");
+            long count = 0;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                buffer.position(HEADER_BYTES);
+                for (ChunkId chunkId : chunkIds) {
+                    if (buffer.remaining() < ChunkId.BYTES) {
+                        buffer.flip();
+                        writeFully(channel, buffer);
+                        buffer.clear();
+                    }
+                    buffer.putLong(chunkId.h0()).putLong(chunkId.h1()).putLong(chunkId.h2()).putLong(chunkId.h3());
+                    count++;
+                }
+                buffer.flip();
+                writeFully(channel, buffer);
+                // the header goes last: the count is only known now
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putLong(count).flip();
+                channel.write(header, 0);
+                channel.force(true);
+            }
+            lock.lock();
+            try {
+                if (closed) {
+                    Files.deleteIfExists(temp); // discarded meanwhile; or closed, and the old journal still applies
+                    return;
+                }
+                Files.move(temp, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                snapshotCount = count;
+            } finally {
+                lock.unlock();
+            }
+            Files.deleteIfExists(oldJournal);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Gives up on the index after a failed write: it is deleted, so the next start lists the directory instead of
+     * loading a stale index, and nothing more is journaled.
+     */
+    void discard() {
+        lock.lock();
+        try {
+            Files.deleteIfExists(directory.resolve(SNAPSHOT));
+            close();
+        } catch (IOException e) {
+            System.err.println("Failed to delete chunk index: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the journal. A checkpoint still running gives up; the next load replays the journal it moved aside.
+     */
+    @Override
+    public void close() throws IOException {
+        checkpointer.shutdown();
+        lock.lock();
+        try {
+            closed = true;
+            if (journal != null && journal.isOpen()) {
+                journal.force(false);
+                journal.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ChunkId read(ByteBuffer buffer) {
+        return new ChunkId(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
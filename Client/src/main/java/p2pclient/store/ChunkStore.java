@@ -0,0 +1,245 @@
+package p2pclient.store;
+
+import p2pclient.utils.HashUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChunkStore - The chunks this node holds, stored as uploads/<chunk_hash>.
+ * Keeps an in-memory set of the held chunk ids so lookups and availability summaries do not hit the disk, and a
+ * ChunkIndex of it in uploads/.index, so startup reads one snapshot and a short journal instead of listing the
+ * directory. Without an index (first start, or one that cannot be read) the directory is listed and an index written.
+ * Received chunks are written to uploads/.incoming/<chunk_hash>.part, hashed on the way, and renamed into place only
+ * once they match their hash, so a chunk file that exists is always complete and correct.
+ */
+public class ChunkStore implements Closeable {
+    private static final String PART_SUFFIX = ".part";
+    private static final String INCOMING = ".incoming";
+
+    public enum IngestResult {
+        STORED,
+        /** already held, or stored meanwhile by a concurrent upload of the same chunk; the data was skipped */
+        DUPLICATE,
+        /** the data did not match the chunk hash and was discarded */
+        REJECTED
+    }
+
+    private final File directory;
+    private final File incoming;
+    private final ChunkIndex index;
+    private final Set<ChunkId> chunkIds = ConcurrentHashMap.newKeySet();
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentHashMap<ChunkId, CompletableFuture<Boolean>> ingests = new ConcurrentHashMap<>();
+
+    public ChunkStore(String directory) {
+        this.directory = new File(directory);
+        this.incoming = new File(this.directory, INCOMING);
+        this.index = new ChunkIndex(this.directory, chunkIds);
+        File[] parts = incoming.listFiles();
+        if (parts != null) {
+            for (File part : parts) {
+                part.delete(); // left behind by an interrupted upload
+            }
+        }
+        incoming.mkdirs();
+
+        try {
+            if (index.load()) {
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("Chunk index unreadable, rebuilding it: " + e.getMessage());
+            chunkIds.clear();
+        }
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && ChunkId.isHex(file.getName())) {
+                    chunkIds.add(ChunkId.fromHex(file.getName()));
+                } else if (file.isFile() && file.getName().endsWith(PART_SUFFIX)) {
+                    file.delete(); // left behind by an interrupted upload, from before .incoming
+                }
+            }
+        }
+        try {
+            index.checkpoint();
+        } catch (IOException e) {
+            System.err.println("Failed to write chunk index: " + e.getMessage());
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public File getChunkFile(ChunkId chunkId) {
+        return new File(directory, chunkId.toHex());
+    }
+
+    public boolean contains(ChunkId chunkId) {
+        return chunkIds.contains(chunkId);
+    }
+
+    /**
+     * Stores the next {@code length} bytes of {@code in} as the chunk, verifying them against its hash while they are
+     * written. Concurrent uploads of the same chunk are merged: later ones wait for the first and skip their data if
+     * it succeeded, or take over if it failed.
+     *
+     * @throws EOFException if the stream ends before {@code length} bytes
+     */
+    public IngestResult ingest(ChunkId chunkId, InputStream in, int length) throws IOException {
+        while (true) {
+            if (contains(chunkId)) {
+                in.skipNBytes(length);
+                return IngestResult.DUPLICATE;
+            }
+            CompletableFuture<Boolean> own = new CompletableFuture<>();
+            CompletableFuture<Boolean> running = ingests.putIfAbsent(chunkId, own);
+            if (running == null) {
+                boolean stored = false;
+                try {
+                    stored = write(chunkId, in, length);
+                    return stored ? IngestResult.STORED : IngestResult.REJECTED;
+                } finally {
+                    ingests.remove(chunkId, own);
+                    own.complete(stored);
+                }
+            }
+            try {
+                running.get(); // then stored (skip) or failed (try again with this upload's data)
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a concurrent upload of " + chunkId);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Stores a chunk whose data was already checked against its hash, such as one fetched by a download.
+     *
+     * @return true if the chunk is held now; false if another upload of it is in progress
+     */
+    public boolean put(ChunkId chunkId, byte[] data) throws IOException {
+        if (contains(chunkId)) {
+            return true;
+        }
+        CompletableFuture<Boolean> own = new CompletableFuture<>();
+        if (ingests.putIfAbsent(chunkId, own) != null) {
+            return false;
+        }
+        File partFile = new File(incoming, chunkId.toHex() + PART_SUFFIX);
+        try {
+            Files.write(partFile.toPath(), data);
+            Files.move(partFile.toPath(), getChunkFile(chunkId).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            added(chunkId);
+            return true;
+        } finally {
+            partFile.delete();
+            ingests.remove(chunkId, own);
+            own.complete(contains(chunkId));
+        }
+    }
+
+    private boolean write(ChunkId chunkId, InputStream in, int length) throws IOException {
+        File chunkFile = getChunkFile(chunkId);
+        File partFile = new File(incoming, chunkId.toHex() + PART_SUFFIX);
+        MessageDigest digest = HashUtils.sha256();
+        try {
+            try (OutputStream out = new FileOutputStream(partFile)) {
+                byte[] buffer = new byte[64 * 1024];
+                int remaining = length;
+                while (remaining > 0) {
+                    int bytesRead = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (bytesRead == -1) {
+                        throw new EOFException("Chunk " + chunkId + " ended after " + (length - remaining) + " of " + length + " bytes");
+                    }
+                    digest.update(buffer, 0, bytesRead);
+                    out.write(buffer, 0, bytesRead);
+                    remaining -= bytesRead;
+                }
+            }
+            if (!ChunkId.of(digest.digest()).equals(chunkId)) {
+                return false;
+            }
+            Files.move(partFile.toPath(), chunkFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            added(chunkId);
+            return true;
+        } finally {
+            partFile.delete();
+        }
+    }
+
+    /**
+     * Marks a chunk as held once its file has been fully written.
+     */
+    public void added(ChunkId chunkId) {
+        if (chunkIds.add(chunkId)) {
+            version.incrementAndGet();
+            journal(chunkId, true);
+        }
+    }
+
+    /**
+     * Deletes a held chunk, e.g. a replica that is no longer in demand. Transfers that already opened it finish.
+     */
+    public void delete(ChunkId chunkId) {
+        getChunkFile(chunkId).delete();
+        removed(chunkId);
+    }
+
+    public void removed(ChunkId chunkId) {
+        if (chunkIds.remove(chunkId)) {
+            version.incrementAndGet();
+            journal(chunkId, false);
+        }
+    }
+
+    // after the set changed, so a checkpoint running meanwhile cannot lose the change (see ChunkIndex.checkpoint)
+    private void journal(ChunkId chunkId, boolean added) {
+        try {
+            if (added) {
+                index.added(chunkId);
+            } else {
+                index.removed(chunkId);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to journal chunk " + chunkId + ", the index will be rebuilt at the next start: " + e.getMessage());
+            index.discard();
+        }
+    }
+
+    /**
+     * Changes whenever a chunk is added or removed, so summaries of the store can be cached.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    public List<ChunkId> list() {
+        return new ArrayList<>(chunkIds);
+    }
+
+    public int size() {
+        return chunkIds.size();
+    }
+
+    /**
+     * Flushes the index journal. The store is not used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+}
@@ -0,0 +1,38 @@
+package p2pclient.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Connection - One two-way byte stream between peers, opened or accepted through a {@link Transport}.
+ * The streams are unbuffered; callers wrap them as they did sockets.
+ */
+public interface Connection extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Half-closes the connection: the peer reads the end of the stream and can still reply.
+     */
+    void shutdownOutput() throws IOException;
+
+    /**
+     * @param millis how long a read waits before it throws {@link java.net.SocketTimeoutException}; 0 for ever
+     */
+    void setReadTimeout(int millis) throws IOException;
+
+    /**
+     * @return the peer's IP address
+     */
+    String getRemoteAddress();
+
+    /**
+     * Closes without a graceful shutdown: the peer's next read fails with a reset instead of reading the end of
+     * the stream.
+     */
+    void abort() throws IOException;
+}
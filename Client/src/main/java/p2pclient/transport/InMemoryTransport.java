@@ -0,0 +1,366 @@
+package p2pclient.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * InMemoryTransport - A network inside one JVM: listeners are found by port alone, and every connection is a pair of
+ * pipes, so benchmarks need no real ports and do not depend on the host's network stack. Every endpoint has the
+ * address 127.0.0.1.
+ * Each direction of a connection can be shaped like a link: bytes leave at most at bytesPerSecond, one after the
+ * other, and arrive latencyMillis later; connecting takes one round trip. A writer runs at most WINDOW_BYTES ahead
+ * of the reader, like a socket buffer, unless it is a virtual thread: those write through synchronized streams
+ * (DataOutputStream), so a writer waiting there would pin its carrier, and the reader, in the same JVM, might need
+ * that carrier to drain the pipe. Unshaped, the pipes only cost copying.
+ * All nodes of a simulated swarm must share one instance.
+ */
+public class InMemoryTransport implements Transport {
+    private static final String ADDRESS = "127.0.0.1";
+    private static final int FIRST_PORT = 20000;
+    private static final int WINDOW_BYTES = 256 * 1024;
+    private static final int MAX_SEGMENT_BYTES = 64 * 1024;
+
+    private final long bytesPerSecond;
+    private final long latencyNanos;
+    private final Map<Integer, MemoryListener> listeners = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPort = new AtomicInteger(FIRST_PORT);
+
+    /**
+     * Unshaped: as fast as the pipes can copy.
+     */
+    public InMemoryTransport() {
+        this(0, 0);
+    }
+
+    /**
+     * @param bytesPerSecond bandwidth of each direction of each connection; 0 for unlimited
+     * @param latencyMillis  one-way delay
+     */
+    public InMemoryTransport(long bytesPerSecond, long latencyMillis) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    }
+
+    @Override
+    public Listener listen(int port) throws IOException {
+        if (port != 0) {
+            MemoryListener listener = new MemoryListener(port);
+            if (listeners.putIfAbsent(port, listener) != null) {
+                throw new BindException("Port " + port + " is in use");
+            }
+            return listener;
+        }
+        while (true) {
+            MemoryListener listener = new MemoryListener(nextPort.getAndIncrement());
+            if (listeners.putIfAbsent(listener.port, listener) == null) {
+                return listener;
+            }
+        }
+    }
+
+    @Override
+    public Connection connect(String host, int port, int connectTimeoutMillis) throws IOException {
+        MemoryListener listener = listeners.get(port);
+        if (listener == null) {
+            throw new ConnectException("Connection refused: " + host + ":" + port);
+        }
+        if (latencyNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(2 * latencyNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while connecting");
+            }
+        }
+        Pipe toServer = new Pipe();
+        Pipe toClient = new Pipe();
+        MemoryConnection client = new MemoryConnection(toClient, toServer);
+        if (!listener.offer(new MemoryConnection(toServer, toClient))) {
+            throw new ConnectException("Connection refused: " + host + ":" + port);
+        }
+        return client;
+    }
+
+    @Override
+    public String getName() {
+        return bytesPerSecond > 0 || latencyNanos > 0 ? "memory (shaped)" : "memory";
+    }
+
+    private final class MemoryListener implements Listener {
+        private final int port;
+        private final BlockingQueue<MemoryConnection> pending = new LinkedBlockingQueue<>();
+        private volatile boolean closed;
+
+        MemoryListener(int port) {
+            this.port = port;
+        }
+
+        boolean offer(MemoryConnection connection) {
+            return !closed && pending.offer(connection);
+        }
+
+        @Override
+        public Connection accept() throws IOException {
+            try {
+                while (!closed) {
+                    MemoryConnection connection = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (connection != null) {
+                        return connection;
+                    }
+                }
+                throw new SocketException("Listener closed");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while accepting");
+            }
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            listeners.remove(port, this);
+            MemoryConnection connection;
+            while ((connection = pending.poll()) != null) {
+                connection.abort();
+            }
+        }
+    }
+
+    private static final class MemoryConnection implements Connection {
+        private final Pipe in;
+        private final Pipe out;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+        private volatile int readTimeoutMillis;
+
+        MemoryConnection(Pipe in, Pipe out) {
+            this.in = in;
+            this.out = out;
+            this.inputStream = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return in.read(b, off, len, readTimeoutMillis);
+                }
+            };
+            this.outputStream = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public void shutdownOutput() {
+            out.finish();
+        }
+
+        @Override
+        public void setReadTimeout(int millis) {
+            this.readTimeoutMillis = millis;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return ADDRESS;
+        }
+
+        @Override
+        public void abort() {
+            out.reset();
+            in.discard();
+        }
+
+        @Override
+        public void close() {
+            out.finish();
+            in.discard();
+        }
+    }
+
+    /**
+     * One direction of a connection: segments queued by the writer, each readable from its arrival time on.
+     */
+    private final class Pipe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+        private int buffered;
+        private long linkFreeNanos; // when the link has sent everything queued so far
+        private boolean finished; // the writer half-closed: end of stream after the queued data
+        private boolean reset; // the writer aborted
+        private boolean discarded; // the reader closed: writes fail
+
+        void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                boolean windowed = !Thread.currentThread().isVirtual();
+                while (len > 0) {
+                    while (windowed && buffered >= WINDOW_BYTES && !discarded && !reset) {
+                        awaitUninterruptibly();
+                    }
+                    if (discarded || reset || finished) {
+                        throw new SocketException(finished ? "Output shut down" : "Connection reset by peer");
+                    }
+                    int n = Math.min(len, MAX_SEGMENT_BYTES);
+                    long now = System.nanoTime();
+                    long departure = Math.max(now, linkFreeNanos);
+                    linkFreeNanos = bytesPerSecond > 0 ? departure + n * 1_000_000_000L / bytesPerSecond : departure;
+                    byte[] data = new byte[n];
+                    System.arraycopy(b, off, data, 0, n);
+                    segments.add(new Segment(data, linkFreeNanos + latencyNanos));
+                    buffered += n;
+                    off += n;
+                    len -= n;
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int read(byte[] b, int off, int len, int timeoutMillis) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+                while (true) {
+                    if (reset) {
+                        throw new SocketException("Connection reset");
+                    }
+                    if (discarded) {
+                        throw new SocketException("Connection closed");
+                    }
+                    long now = System.nanoTime();
+                    Segment head = segments.peek();
+                    if (head != null && head.arrivalNanos <= now) {
+                        return take(b, off, len, now);
+                    }
+                    if (head == null && finished) {
+                        return -1;
+                    }
+                    long wait = head != null ? head.arrivalNanos - now : Long.MAX_VALUE;
+                    if (deadline - now <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    wait = Math.min(wait, deadline - now);
+                    try {
+                        changed.awaitNanos(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading");
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // copies from the segments that have arrived
+        private int take(byte[] b, int off, int len, long now) {
+            int copied = 0;
+            Segment head;
+            while (copied < len && (head = segments.peek()) != null && head.arrivalNanos <= now) {
+                int n = Math.min(len - copied, head.data.length - head.position);
+                System.arraycopy(head.data, head.position, b, off + copied, n);
+                head.position += n;
+                copied += n;
+                if (head.position == head.data.length) {
+                    segments.poll();
+                }
+            }
+            buffered -= copied;
+            changed.signalAll();
+            return copied;
+        }
+
+        void finish() {
+            update(() -> finished = true);
+        }
+
+        void reset() {
+            update(() -> reset = true);
+        }
+
+        void discard() {
+            update(() -> {
+                discarded = true;
+                segments.clear();
+                buffered = 0;
+            });
+        }
+
+        private void update(Runnable change) {
+            lock.lock();
+            try {
+                change.run();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void awaitUninterruptibly() {
+            changed.awaitUninterruptibly();
+        }
+    }
+
+    private static final class Segment {
+        final byte[] data;
+        final long arrivalNanos;
+        int position;
+
+        Segment(byte[] data, long arrivalNanos) {
+            this.data = data;
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+}
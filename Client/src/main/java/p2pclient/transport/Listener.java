@@ -0,0 +1,21 @@
+package p2pclient.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Listener - The accepting end of a {@link Transport}, bound to a port.
+ */
+public interface Listener extends Closeable {
+
+    /**
+     * Waits for the next connection.
+     *
+     * @throws IOException once the listener is closed
+     */
+    Connection accept() throws IOException;
+
+    int getPort();
+
+    boolean isClosed();
+}
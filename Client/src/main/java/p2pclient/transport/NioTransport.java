@@ -0,0 +1,219 @@
+package p2pclient.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * NioTransport - Non-blocking socket channels. A read or write that would block waits on a selector of its own
+ * direction, so the two directions of a connection can be driven by different threads (as a relay does) and read
+ * timeouts work, which the blocking streams of a socket channel do not support.
+ * Accepting blocks on the server channel, like TcpTransport.
+ */
+public class NioTransport implements Transport {
+
+    @Override
+    public Listener listen(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(port));
+            return new NioListener(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection connect(String host, int port, int connectTimeoutMillis) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            if (!channel.connect(new InetSocketAddress(host, port))) {
+                try (Selector selector = Selector.open()) {
+                    channel.register(selector, SelectionKey.OP_CONNECT);
+                    if (selector.select(connectTimeoutMillis) == 0) {
+                        throw new SocketTimeoutException("Connect timed out");
+                    }
+                }
+                channel.finishConnect();
+            }
+            return new NioConnection(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "nio";
+    }
+
+    private record NioListener(ServerSocketChannel channel) implements Listener {
+        @Override
+        public Connection accept() throws IOException {
+            SocketChannel accepted = channel.accept();
+            try {
+                accepted.configureBlocking(false);
+                return new NioConnection(accepted);
+            } catch (IOException e) {
+                accepted.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getPort() {
+            return channel.socket().getLocalPort();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return !channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class NioConnection implements Connection {
+        private final SocketChannel channel;
+        private final InputStream in = new ChannelInputStream();
+        private final OutputStream out = new ChannelOutputStream();
+        private Selector readSelector; // opened on the first read that would block
+        private Selector writeSelector;
+        private volatile int readTimeoutMillis;
+
+        NioConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            channel.shutdownOutput();
+        }
+
+        @Override
+        public void setReadTimeout(int millis) {
+            this.readTimeoutMillis = millis;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            try {
+                return ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+
+        @Override
+        public void abort() throws IOException {
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0); // RST instead of FIN
+            close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                synchronized (this) {
+                    if (readSelector != null) readSelector.close();
+                    if (writeSelector != null) writeSelector.close();
+                }
+            }
+        }
+
+        /**
+         * @return false if the timeout passed first
+         */
+        private boolean await(boolean read, int timeoutMillis) throws IOException {
+            Selector selector = selector(read);
+            try {
+                boolean ready = selector.select(timeoutMillis) > 0;
+                selector.selectedKeys().clear();
+                return ready;
+            } catch (ClosedSelectorException e) {
+                throw new ClosedChannelException(); // closed by another thread
+            }
+        }
+
+        private synchronized Selector selector(boolean read) throws IOException {
+            if (read && readSelector == null) {
+                readSelector = Selector.open();
+                channel.register(readSelector, SelectionKey.OP_READ);
+            } else if (!read && writeSelector == null) {
+                writeSelector = Selector.open();
+                channel.register(writeSelector, SelectionKey.OP_WRITE);
+            }
+            return read ? readSelector : writeSelector;
+        }
+
+        private final class ChannelInputStream extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (true) {
+                    int n = channel.read(buffer);
+                    if (n != 0) {
+                        return n;
+                    }
+                    int timeout = readTimeoutMillis;
+                    if (!await(true, timeout) && timeout > 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                }
+            }
+        }
+
+        private final class ChannelOutputStream extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    if (channel.write(buffer) == 0) {
+                        await(false, 0);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package p2pclient.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * TcpTransport - Blocking java.net sockets, one thread per connection end.
+ */
+public class TcpTransport implements Transport {
+
+    @Override
+    public Listener listen(int port) throws IOException {
+        return new TcpListener(new ServerSocket(port));
+    }
+
+    @Override
+    public Connection connect(String host, int port, int connectTimeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            return new TcpConnection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "tcp";
+    }
+
+    private record TcpListener(ServerSocket serverSocket) implements Listener {
+        @Override
+        public Connection accept() throws IOException {
+            return new TcpConnection(serverSocket.accept());
+        }
+
+        @Override
+        public int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return serverSocket.isClosed();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    private record TcpConnection(Socket socket) implements Connection {
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            socket.shutdownOutput();
+        }
+
+        @Override
+        public void setReadTimeout(int millis) throws IOException {
+            socket.setSoTimeout(millis);
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return socket.getInetAddress().getHostAddress();
+        }
+
+        @Override
+        public void abort() throws IOException {
+            socket.setSoLinger(true, 0); // RST instead of FIN
+            socket.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package p2pclient.transport;
+
+import java.io.IOException;
+
+/**
+ * Transport - How peers reach each other: P2PServer accepts {@link Connection}s from a {@link Listener}, and the
+ * downloader, upload pipeline, gossip and replica services open them with {@link #connect}. The peer protocol only
+ * sees byte streams, so transports can be swapped and compared without touching it:
+ * {@link TcpTransport} (blocking sockets, the default), {@link NioTransport} (socket channels driven by selectors)
+ * and {@link InMemoryTransport} (in-process pipes with optional bandwidth and latency shaping, for benchmarks).
+ */
+public interface Transport {
+
+    /**
+     * @param port the port to listen on; 0 for any free one
+     */
+    Listener listen(int port) throws IOException;
+
+    /**
+     * @param connectTimeoutMillis 0 to wait as long as the transport does
+     */
+    Connection connect(String host, int port, int connectTimeoutMillis) throws IOException;
+
+    String getName();
+
+    /**
+     * @param name "tcp" (also for null or empty) or "nio"; an in-memory transport has to be shared by the nodes that
+     *             talk over it, so it is created by the caller instead
+     */
+    static Transport named(String name) {
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("tcp")) {
+            return new TcpTransport();
+        }
+        if (name.equalsIgnoreCase("nio")) {
+            return new NioTransport();
+        }
+        throw new IllegalArgumentException("Unknown transport: " + name);
+    }
+}
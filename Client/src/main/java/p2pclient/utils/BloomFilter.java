@@ -0,0 +1,92 @@
+package p2pclient.utils;
+
+import p2pclient.store.ChunkId;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * BloomFilter - Compact set of chunk ids with no false negatives.
+ * The ids are SHA-256 digests and already uniformly distributed, so the bit positions are derived directly from
+ * two of their 64-bit words (double hashing) instead of hashing again.
+ */
+public class BloomFilter {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MIN_BITS = 1024;
+
+    private final long[] words;
+    private final int bits;
+    private final int hashFunctions;
+
+    private BloomFilter(long[] words, int hashFunctions) {
+        this.words = words;
+        this.bits = words.length * 64;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * Sizes the filter for the given chunks at a 1% false positive rate and adds them.
+     */
+    public static BloomFilter of(Collection<ChunkId> chunkIds) {
+        int n = Math.max(1, chunkIds.size());
+        long bits = (long) Math.ceil(-n * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(MIN_BITS, bits);
+        int hashFunctions = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        BloomFilter filter = new BloomFilter(new long[(int) ((bits + 63) / 64)], hashFunctions);
+        for (ChunkId chunkId : chunkIds) {
+            filter.add(chunkId);
+        }
+        return filter;
+    }
+
+    public void add(ChunkId chunkId) {
+        long h1 = chunkId.h0();
+        long h2 = chunkId.h1() | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            int bit = (int) Long.remainderUnsigned(h1 + i * h2, bits);
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if the chunk is definitely not in the set
+     */
+    public boolean mightContain(ChunkId chunkId) {
+        long h1 = chunkId.h0();
+        long h2 = chunkId.h1() | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            int bit = (int) Long.remainderUnsigned(h1 + i * h2, bits);
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getSizeInBytes() {
+        return words.length * 8;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(words.length);
+        out.writeByte(hashFunctions);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    public static BloomFilter read(DataInputStream in, int maxWords) throws IOException {
+        int length = in.readInt();
+        int hashFunctions = in.readUnsignedByte();
+        if (length <= 0 || length > maxWords || hashFunctions == 0) {
+            throw new IOException("Invalid bloom filter: " + length + " words, " + hashFunctions + " hash functions");
+        }
+        long[] words = new long[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = in.readLong();
+        }
+        return new BloomFilter(words, hashFunctions);
+    }
+}
@@ -0,0 +1,53 @@
+package p2pclient.utils;
+
+import p2pclient.store.ChunkId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * ChunkReader - Splits a file into fixed size chunks and hashes each one (the read loop of P2PUploader).
+ */
+public class ChunkReader {
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(int chunkIndex, byte[] chunkData, ChunkId chunkId) throws IOException;
+    }
+
+    /**
+     * Reads the file sequentially in `chunkSize` pieces (the last one may be shorter),
+     * computes the SHA-256 of every chunk and passes it to the consumer in index order.
+     *
+     * @return the number of chunks read
+     */
+    public static int readChunks(File file, int chunkSize, ChunkConsumer consumer) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int chunkIndex = 0;
+            byte[] buffer = new byte[chunkSize];
+
+            while (true) {
+                int bytesRead = fill(raf, buffer);
+                if (bytesRead <= 0) break;
+
+                byte[] chunkData = Arrays.copyOf(buffer, bytesRead);
+                consumer.accept(chunkIndex, chunkData, HashUtils.hash(chunkData, 0, bytesRead));
+                chunkIndex++;
+            }
+            return chunkIndex;
+        }
+    }
+
+    // read() may return less than requested; keep chunk boundaries fixed
+    private static int fill(RandomAccessFile raf, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = raf.read(buffer, total, buffer.length - total);
+            if (n == -1) break;
+            total += n;
+        }
+        return total;
+    }
+}
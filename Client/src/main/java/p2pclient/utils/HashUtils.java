@@ -1,12 +1,23 @@
 package p2pclient.utils;
 
+import p2pclient.store.ChunkId;
+
 import java.io.*;
-import java.security.DigestInputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class HashUtils {
 
+    // MessageDigest.getInstance is a provider lookup; one digest per thread is reset and reused
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
     /**
      * Computes SHA-256 hash for either a full file or a given byte array (chunk).
      *
@@ -16,25 +27,57 @@ public class HashUtils {
      * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
      */
     public static String computeHash(Object input) throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-
         if (input instanceof File file) {
-            try (InputStream fis = new FileInputStream(file);
-                 DigestInputStream dis = new DigestInputStream(fis, digest)) {
-                while (dis.read() != -1) {} // Read entire file
-            }
+            return hash(file).toHex();
         } else if (input instanceof byte[] chunkData) {
-            // per byte
-            digest.update(chunkData);
+            return hash(chunkData, 0, chunkData.length).toHex();
         } else {
             throw new IllegalArgumentException("Invalid input type. Must be File or byte[].");
         }
+    }
 
-        byte[] hashBytes = digest.digest();
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hashBytes) {
-            hexString.append(String.format("%02x", b));
+    /**
+     * @return the calling thread's SHA-256 digest, reset; for hashing data while it streams past
+     */
+    public static MessageDigest sha256() {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * SHA-256 of {@code length} bytes of {@code data} starting at {@code offset}.
+     */
+    public static ChunkId hash(byte[] data, int offset, int length) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        digest.update(data, offset, length);
+        return ChunkId.of(digest.digest());
+    }
+
+    /**
+     * SHA-256 of the remaining bytes of {@code data}; the buffer's position is moved to its limit.
+     */
+    public static ChunkId hash(ByteBuffer data) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        digest.update(data);
+        return ChunkId.of(digest.digest());
+    }
+
+    /**
+     * SHA-256 of a whole file, read through a 64 KB buffer.
+     */
+    public static ChunkId hash(File file) throws IOException {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        try (InputStream fis = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+            }
         }
-        return hexString.toString();
+        return ChunkId.of(digest.digest());
     }
-}
\ No newline at end of file
+}
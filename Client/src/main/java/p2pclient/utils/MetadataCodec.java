@@ -0,0 +1,261 @@
+package p2pclient.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBuilder;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * MetadataCodec - Encodes file metadata exchanged with the tracker as Smile (binary JSON with the same data model)
+ * when the tracker speaks it, and as JSON otherwise.
+ * Requests offer Smile in their Accept header, and responses are decoded by their Content-Type straight from the
+ * response stream. Request bodies switch to Smile once the tracker has answered in Smile, so a tracker that only
+ * knows JSON (the Python tracker) never receives it.
+ * Smile sends every property name and every repeated short string (peer addresses) once and refers back to it, and
+ * the SHA-256 hashes of the *_hash properties as their 32 raw bytes instead of 64 hex characters, so a manifest of
+ * many chunks shrinks to about a third. Both ends see the same DTOs with hex strings.
+ * Request bodies are encoded while they are sent, so a large manifest is never held in memory as a whole.
+ */
+public class MetadataCodec {
+    public static final String SMILE = "application/x-jackson-smile";
+    public static final String JSON = "application/json";
+    private static final HexFormat HEX = HexFormat.of();
+    private static final int HASH_HEX_LENGTH = 64;
+    private static final int BODY_BUFFERS = 16; // encoded writes in flight before the encoder waits for the client
+
+    private final ObjectMapper json;
+    private final ObjectMapper smile;
+    private final boolean offerSmile;
+    private volatile boolean trackerSpeaksSmile;
+
+    /**
+     * @param json       the mapper for JSON; Smile uses a copy with the same configuration
+     * @param offerSmile false to always use JSON
+     */
+    public MetadataCodec(ObjectMapper json, boolean offerSmile) {
+        this.json = json;
+        this.smile = smileMapper(json);
+        this.offerSmile = offerSmile;
+    }
+
+    /**
+     * @return a Smile mapper configured like the given JSON mapper, back-referencing repeated string values too and
+     *         writing hashes as binary
+     */
+    public static ObjectMapper smileMapper(ObjectMapper json) {
+        ObjectMapper smile = json.copyWith(SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT)
+                .build());
+        return smile.registerModule(new SimpleModule("binary-hashes")
+                .setSerializerModifier(new BeanSerializerModifier() {
+                    @Override
+                    public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription bean,
+                                                                     List<BeanPropertyWriter> properties) {
+                        for (BeanPropertyWriter property : properties) {
+                            if (isHashProperty(property.getName(), property.getType().getRawClass())) {
+                                property.assignSerializer(HashSerializer.INSTANCE);
+                            }
+                        }
+                        return properties;
+                    }
+                })
+                .setDeserializerModifier(new BeanDeserializerModifier() {
+                    @Override
+                    public BeanDeserializerBuilder updateBuilder(DeserializationConfig config, BeanDescription bean,
+                                                                 BeanDeserializerBuilder builder) {
+                        List<SettableBeanProperty> hashes = new ArrayList<>();
+                        builder.getProperties().forEachRemaining(property -> {
+                            if (isHashProperty(property.getName(), property.getType().getRawClass())) {
+                                hashes.add(property);
+                            }
+                        });
+                        for (SettableBeanProperty property : hashes) {
+                            builder.addOrReplaceProperty(property.withValueDeserializer(HashDeserializer.INSTANCE), true);
+                        }
+                        return builder;
+                    }
+                }));
+    }
+
+    private static boolean isHashProperty(String name, Class<?> type) {
+        return type == String.class && name.endsWith("_hash");
+    }
+
+    /**
+     * Adds the body, encoded while it is sent, its Content-Type and the Accept header.
+     */
+    public HttpRequest.Builder post(HttpRequest.Builder request, Object body) {
+        boolean binary = offerSmile && trackerSpeaksSmile;
+        ObjectWriter writer = (binary ? smile : json).writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return accept(request.POST(new EncodingPublisher(writer, body)).header("Content-Type", binary ? SMILE : JSON));
+    }
+
+    public HttpRequest.Builder accept(HttpRequest.Builder request) {
+        return request.header("Accept", offerSmile ? SMILE + ", " + JSON + ";q=0.5" : JSON);
+    }
+
+    public <T> T read(HttpResponse<InputStream> response, Class<T> type) throws IOException {
+        try (InputStream body = response.body()) {
+            return mapperFor(response).readValue(body, type);
+        }
+    }
+
+    public <T> T read(HttpResponse<InputStream> response, TypeReference<T> type) throws IOException {
+        try (InputStream body = response.body()) {
+            return mapperFor(response).readValue(body, type);
+        }
+    }
+
+    /**
+     * @return the body of an error response as text, for logging
+     */
+    public String readText(HttpResponse<InputStream> response) throws IOException {
+        try (InputStream body = response.body()) {
+            if (isSmile(response)) {
+                return smile.readTree(body).toString();
+            }
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private ObjectMapper mapperFor(HttpResponse<InputStream> response) {
+        if (isSmile(response)) {
+            trackerSpeaksSmile = true;
+            return smile;
+        }
+        return json;
+    }
+
+    private static boolean isSmile(HttpResponse<InputStream> response) {
+        return response.headers().firstValue("Content-Type").orElse("").startsWith(SMILE);
+    }
+
+    /**
+     * Streams a body as the writer encodes it (chunked, no Content-Length). Every subscription, including the
+     * client's retries, encodes on a virtual thread of its own into a SubmissionPublisher, which holds the encoder
+     * back while BODY_BUFFERS writes wait to be sent and discards the rest once the client cancels, so an
+     * abandoned request never leaves the encoder blocked. An encoding error fails the request.
+     */
+    private static final class EncodingPublisher implements HttpRequest.BodyPublisher {
+        private final ObjectWriter writer;
+        private final Object body;
+
+        EncodingPublisher(ObjectWriter writer, Object body) {
+            this.writer = writer;
+            this.body = body;
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            SubmissionPublisher<ByteBuffer> buffers = new SubmissionPublisher<>(ForkJoinPool.commonPool(), BODY_BUFFERS);
+            buffers.subscribe(subscriber);
+            Thread.ofVirtual().name("metadata-encoder").start(() -> {
+                try {
+                    writer.writeValue(new OutputStream() {
+                        @Override
+                        public void write(int b) {
+                            write(new byte[]{(byte) b}, 0, 1);
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) {
+                            buffers.submit(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+                        }
+                    }, body);
+                    buffers.close();
+                } catch (Exception e) {
+                    buffers.closeExceptionally(e);
+                }
+            });
+        }
+    }
+
+    // a lowercase hex SHA-256 as its 32 bytes; anything else stays a string, so every value reads back unchanged
+    private static final class HashSerializer extends StdSerializer<Object> {
+        private static final long serialVersionUID = 1L;
+        static final HashSerializer INSTANCE = new HashSerializer();
+
+        private HashSerializer() {
+            super(Object.class); // assigned to bean properties, which take serializers of Object
+        }
+
+        @Override
+        public void serialize(Object value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            String hash = (String) value;
+            if (isLowercaseHash(hash)) {
+                gen.writeBinary(HEX.parseHex(hash));
+            } else {
+                gen.writeString(hash);
+            }
+        }
+
+        private static boolean isLowercaseHash(String value) {
+            if (value.length() != HASH_HEX_LENGTH) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class HashDeserializer extends StdScalarDeserializer<String> {
+        private static final long serialVersionUID = 1L;
+        static final HashDeserializer INSTANCE = new HashDeserializer();
+
+        private HashDeserializer() {
+            super(String.class);
+        }
+
+        @Override
+        public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.currentToken() == JsonToken.VALUE_EMBEDDED_OBJECT) {
+                return HEX.formatHex(p.getBinaryValue());
+            }
+            return StringDeserializer.instance.deserialize(p, ctxt);
+        }
+    }
+}
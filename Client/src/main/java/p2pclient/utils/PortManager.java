@@ -1,32 +1,36 @@
 package p2pclient.utils;
 
+import p2pclient.transport.Listener;
+import p2pclient.transport.Transport;
+
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.util.Enumeration;
 import java.net.*;
 
 public class PortManager {
-    private ServerSocket serverSocket;
+    private final Transport transport;
+    private Listener listener;
     private int listeningPort;
     private String localIPAddress;
 
-    public PortManager(int preferredPort) {
+    public PortManager(int preferredPort, Transport transport) {
+        this.transport = transport;
         this.listeningPort = findAvailablePort(preferredPort);
         this.localIPAddress = findLocalIPAddress(true);
     }
 
     private int findAvailablePort(int preferredPort) {
         try {
-            this.serverSocket = new ServerSocket(preferredPort);
-            this.listeningPort = preferredPort;
+            this.listener = transport.listen(preferredPort);
+            this.listeningPort = listener.getPort(); // preferredPort may be 0 (ephemeral)
             return this.listeningPort;
         } catch (IOException e) {
             System.err.println("Port " + preferredPort + " is in use. Selecting a random available port...");
         }
 
         try {
-            this.serverSocket = new ServerSocket(0);
-            this.listeningPort = serverSocket.getLocalPort();
+            this.listener = transport.listen(0);
+            this.listeningPort = listener.getPort();
             System.out.println("Using port " + this.listeningPort);
             return this.listeningPort;
         } catch (IOException e) {
@@ -66,18 +70,18 @@ public class PortManager {
         return listeningPort;
     }
 
-    public ServerSocket getServerSocket() {
-        return serverSocket;
+    public Listener getListener() {
+        return listener;
     }
 
     public void close() {
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            if (listener != null && !listener.isClosed()) {
+                listener.close();
                 System.out.println("Server socket closed on port " + listeningPort);
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("Error closing server socket on port " + listeningPort + ": " + e.getMessage());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+package p2pclient.utils;
+
+import java.util.Arrays;
+
+/**
+ * ReedSolomon - Systematic Reed-Solomon code over GF(2^8) with k data and m parity shards.
+ * The data shards are the original bytes, so reading them needs no decoding; any k of the k + m shards
+ * rebuild the data. The encoding matrix is a Vandermonde matrix normalized so its top k rows are the identity,
+ * which keeps every k-row subset invertible.
+ */
+public final class ReedSolomon {
+    private static final int FIELD_SIZE = 256;
+    private static final int POLYNOMIAL = 0x11D;
+    private static final byte[] EXP = new byte[2 * FIELD_SIZE];
+    private static final int[] LOG = new int[FIELD_SIZE];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < FIELD_SIZE - 1; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= FIELD_SIZE) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+            EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final byte[][] matrix; // (k + m) x k, top k rows are the identity
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards >= FIELD_SIZE) {
+            throw new IllegalArgumentException("Invalid shard counts: " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        int total = dataShards + parityShards;
+        byte[][] vandermonde = new byte[total][dataShards];
+        for (int r = 0; r < total; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                vandermonde[r][c] = power(r, c);
+            }
+        }
+        byte[][] topInverse = invert(subMatrix(vandermonde, 0, dataShards));
+        this.matrix = multiply(vandermonde, topInverse);
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    /**
+     * Fills shards[k .. k+m-1] with parity computed from shards[0 .. k-1]; all shards have the same length.
+     */
+    public void encode(byte[][] shards) {
+        int length = shards[0].length;
+        for (int p = 0; p < parityShards; p++) {
+            byte[] row = matrix[dataShards + p];
+            byte[] parity = shards[dataShards + p];
+            Arrays.fill(parity, 0, length, (byte) 0);
+            for (int d = 0; d < dataShards; d++) {
+                addMultiple(parity, shards[d], row[d], length);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the missing data shards in place from any k present shards.
+     *
+     * @param shards  k + m shards of equal length; missing ones may be null and are allocated
+     * @param present which shards hold data
+     * @throws IllegalArgumentException if fewer than k shards are present
+     */
+    public void decodeData(byte[][] shards, boolean[] present) {
+        int length = -1;
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < shards.length && found < dataShards; i++) {
+            if (present[i]) {
+                rows[found++] = i;
+                length = shards[i].length;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Need " + dataShards + " shards, have " + found);
+        }
+        boolean missingData = false;
+        for (int d = 0; d < dataShards; d++) {
+            missingData |= !present[d];
+        }
+        if (!missingData) {
+            return;
+        }
+
+        byte[][] chosen = new byte[dataShards][];
+        for (int r = 0; r < dataShards; r++) {
+            chosen[r] = matrix[rows[r]];
+        }
+        byte[][] decode = invert(chosen);
+        byte[][] rebuilt = new byte[dataShards][];
+        for (int d = 0; d < dataShards; d++) {
+            if (present[d]) {
+                continue;
+            }
+            rebuilt[d] = new byte[length];
+            for (int r = 0; r < dataShards; r++) {
+                addMultiple(rebuilt[d], shards[rows[r]], decode[d][r], length);
+            }
+        }
+        for (int d = 0; d < dataShards; d++) {
+            if (rebuilt[d] != null) {
+                shards[d] = rebuilt[d];
+                present[d] = true;
+            }
+        }
+    }
+
+    // =======================
+    //  GF(2^8) arithmetic
+    // =======================
+
+    private static byte multiply(byte a, byte b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a & 0xFF] + LOG[b & 0xFF]];
+    }
+
+    private static byte divide(byte a, byte b) {
+        if (a == 0) {
+            return 0;
+        }
+        return EXP[LOG[a & 0xFF] - LOG[b & 0xFF] + FIELD_SIZE - 1];
+    }
+
+    private static byte power(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP[(LOG[base] * exponent) % (FIELD_SIZE - 1)];
+    }
+
+    // target ^= source * factor, byte by byte
+    private static void addMultiple(byte[] target, byte[] source, byte factor, int length) {
+        if (factor == 0) {
+            return;
+        }
+        int logFactor = LOG[factor & 0xFF];
+        for (int i = 0; i < length; i++) {
+            int s = source[i] & 0xFF;
+            if (s != 0) {
+                target[i] ^= EXP[LOG[s] + logFactor];
+            }
+        }
+    }
+
+    private static byte[][] subMatrix(byte[][] m, int fromRow, int toRow) {
+        byte[][] result = new byte[toRow - fromRow][];
+        for (int r = fromRow; r < toRow; r++) {
+            result[r - fromRow] = m[r].clone();
+        }
+        return result;
+    }
+
+    private static byte[][] multiply(byte[][] a, byte[][] b) {
+        byte[][] result = new byte[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                byte value = 0;
+                for (int i = 0; i < b.length; i++) {
+                    value ^= multiply(a[r][i], b[i][c]);
+                }
+                result[r][c] = value;
+            }
+        }
+        return result;
+    }
+
+    // Gauss-Jordan elimination on a copy of the square matrix
+    private static byte[][] invert(byte[][] m) {
+        int n = m.length;
+        byte[][] work = new byte[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(m[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Singular matrix");
+            }
+            byte[] swap = work[col];
+            work[col] = work[pivot];
+            work[pivot] = swap;
+
+            byte scale = work[col][col];
+            for (int c = 0; c < 2 * n; c++) {
+                work[col][c] = divide(work[col][c], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                byte factor = work[r][col];
+                if (r != col && factor != 0) {
+                    for (int c = 0; c < 2 * n; c++) {
+                        work[r][c] ^= multiply(factor, work[col][c]);
+                    }
+                }
+            }
+        }
+        byte[][] inverse = new byte[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, inverse[r], 0, n);
+        }
+        return inverse;
+    }
+}
@@ -9,4 +9,6 @@ class ReqChunkDto(BaseModel):
     chunk_index : int
     chunk_hash : str
     chunk_size : int
+    chunk_offset : Optional[int] = None   # packed files: this file's range within the chunk
+    chunk_length : Optional[int] = None
     chunk_peers : List[ReqPeerDto]
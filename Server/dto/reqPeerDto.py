@@ -3,7 +3,9 @@ from typing import Optional
 
 # None for add / remove peers on proxy
 # chunk_id is need for hard add / remove peers on Database
+# chunk_hash instead of chunk_id: every chunk with that hash (replicas pushed by peers, which only know hashes)
 class ReqPeerDto(BaseModel):
     chunk_id : Optional[int] = None
+    chunk_hash : Optional[str] = None
     peer_ip : str
     peer_port : int
@@ -8,4 +8,6 @@ class ResChunkDto(BaseModel):
     chunk_index : int
     chunk_hash : str
     chunk_size : int
+    chunk_offset : Optional[int] = None   # packed files: this file's range within the chunk
+    chunk_length : Optional[int] = None
     chunk_peers : List[ResPeerDto] 
@@ -9,4 +9,7 @@ class ResFileDto(BaseModel):
     file_hash : str
     file_size : int 
     file_enc : bool 
+    file_data_shards : Optional[int] = None     # erasure coding: k data shards per chunk group
+    file_parity_shards : Optional[int] = None   # and m parity shards
+    file_previous_id : Optional[int] = None     # the version this file was uploaded against
     file_chunks : List[ResChunkDto] 
\ No newline at end of file
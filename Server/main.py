@@ -226,6 +226,89 @@ async def api_get_all_files():
         raise HTTPException(status_code=500, detail=str(e))
     
 
+async def store_file(file_info: ReqFileDto) -> int:
+    """
+    Stores a file's metadata, chunks and chunk peers; returns its file_id.
+    Shared by the single and the batch upload routes.
+    """
+    # Insert file metadata into the database
+    file_id = await insert_file(
+        DB_PATH,
+        file_info.file_name,
+        file_info.file_hash,
+        file_info.file_size,
+        file_info.file_enc,
+        file_info.file_data_shards,
+        file_info.file_parity_shards,
+        file_info.file_previous_id
+    )
+
+    # If no file_chunks provided, only the file entry is created
+    if not file_info.file_chunks:
+        return file_id
+
+    # Process file chunks
+    total_number_of_chunks = 0
+    chunks = []
+    peers = {}
+
+    for chunk in file_info.file_chunks:
+        if chunk.chunk_index >= total_number_of_chunks:
+            total_number_of_chunks = chunk.chunk_index + 1
+
+        chunks.append({
+            "file_id": file_id,
+            "chunk_index": chunk.chunk_index,
+            "chunk_hash": chunk.chunk_hash,
+            "chunk_size": chunk.chunk_size,
+            "chunk_offset": chunk.chunk_offset,
+            "chunk_length": chunk.chunk_length
+        })
+
+        if chunk.chunk_index not in peers:
+            peers[chunk.chunk_index] = []
+
+        # {{chunk_index_1: [peer1, peer2, peer3]}, {chunk_index_2: [peer1, peer2]}}
+        if chunk.chunk_peers:
+            for peer in chunk.chunk_peers:
+                peers[chunk.chunk_index].append({
+                    "peer_ip": peer.peer_ip,
+                    "peer_port": peer.peer_port
+                })
+
+    # Track uploaded chunks
+    chunk_upload_status = [False] * total_number_of_chunks
+
+    # Insert chunks and peers
+    for chunk in chunks:
+        if not chunk_upload_status[chunk["chunk_index"]]:
+            chunk_id = await insert_chunk(
+                DB_PATH,
+                chunk["file_id"],
+                chunk["chunk_index"],
+                chunk["chunk_hash"],
+                chunk["chunk_size"],
+                chunk["chunk_offset"],
+                chunk["chunk_length"]
+            )
+
+            for peer in peers.get(chunk["chunk_index"], []):
+                await insert_peer(DB_PATH, chunk_id, peer["peer_ip"], peer["peer_port"])
+
+            chunk_upload_status[chunk["chunk_index"]] = True
+
+    return file_id
+
+
+def upload_result(file_info: ReqFileDto, file_id: int) -> dict:
+    return {
+        "file_id": file_id,
+        "file_name": file_info.file_name,
+        "file_hash": file_info.file_hash,
+        "message": "File and chunks uploaded successfully" if file_info.file_chunks else "File uploaded without chunks"
+    }
+
+
 @app.post("/files/upload_file")
 async def api_upload_file(file_info: ReqFileDto):
     """
@@ -234,98 +317,99 @@ async def api_upload_file(file_info: ReqFileDto):
     - If file_chunks is missing, only the file entry is created.
     """
 
+    try:
+        file_id = await store_file(file_info)
+        return JSONResponse(status_code=200, content=upload_result(file_info, file_id))
+
+    except Exception as e:
+        logging.error(f"Error while uploading file: {e}")
+        raise HTTPException(
+            status_code=500,
+            detail=f"Failed to upload file: '{file_info.file_name}'"
+        )
+
+
+@app.post("/files/upload_files")
+async def api_upload_files(files: List[ReqFileDto]):
+    """
+    Batch version of /files/upload_file for directory uploads: one request for many files.
+    Returns one result per file, in request order.
+    """
+
+    results = []
+    for file_info in files:
+        try:
+            file_id = await store_file(file_info)
+        except Exception as e:
+            logging.error(f"Error while uploading file: {e}")
+            raise HTTPException(
+                status_code=500,
+                detail=f"Failed to upload file: '{file_info.file_name}' ({len(results)} of {len(files)} files stored)"
+            )
+        results.append(upload_result(file_info, file_id))
+
+    return JSONResponse(status_code=200, content=results)
+
+@app.post("/chunks/placements")
+async def api_add_placements(placements: List[ReqPeerDto]):
+    """
+    Adds placements of existing chunks in one batch, e.g. chunks a downloader now seeds or replicas a peer pushed.
+    Every placement needs chunk_id or chunk_hash; unknown chunks and known placements are skipped.
+    """
+
+    if any(placement.chunk_id is None and placement.chunk_hash is None for placement in placements):
+        return JSONResponse(
+            status_code=status.HTTP_422_UNPROCESSABLE_ENTITY,
+            content={"detail": "chunk_id or chunk_hash, peer_ip and peer_port are required for every placement"}
+        )
 
     try:
-        # Insert file metadata into the database
-        file_id = await insert_file(
+        added = await insert_placements(
             DB_PATH,
-            file_info.file_name,
-            file_info.file_hash,
-            file_info.file_size,
-            file_info.file_enc
+            [(placement.chunk_id, placement.chunk_hash, placement.peer_ip, placement.peer_port) for placement in placements]
+        )
+    except Exception as e:
+        logging.error(f"Error while adding placements: {e}")
+        raise HTTPException(
+            status_code=500,
+            detail="Failed to add placements"
         )
 
-        # If no file_chunks provided, return early
-        if not file_info.file_chunks:
-            return JSONResponse(
-                status_code=200,
-                content={
-                    "file_id": file_id,
-                    "file_name": file_info.file_name,
-                    "file_hash": file_info.file_hash,
-                    "message": "File uploaded without chunks"
-                }
-            )
+    return {"status": "success", "added": added}
 
-        # Process file chunks
-        total_number_of_chunks = 0
-        chunks = []
-        peers = {}
-
-        for chunk in file_info.file_chunks:
-            if chunk.chunk_index >= total_number_of_chunks:
-                total_number_of_chunks = chunk.chunk_index + 1
-
-            chunks.append({
-                "file_id": file_id,
-                "chunk_index": chunk.chunk_index,
-                "chunk_hash": chunk.chunk_hash,
-                "chunk_size": chunk.chunk_size
-            })
-
-            if chunk.chunk_index not in peers:
-                peers[chunk.chunk_index] = []
-
-            # {{chunk_index_1: [peer1, peer2, peer3]}, {chunk_index_2: [peer1, peer2]}}
-            if chunk.chunk_peers:
-                for peer in chunk.chunk_peers:
-                    peers[chunk.chunk_index].append({
-                        "peer_ip": peer.peer_ip,
-                        "peer_port": peer.peer_port
-                    })
-
-        # Track uploaded chunks
-        chunk_upload_status = [False] * total_number_of_chunks
-
-        # Insert chunks and peers
-        for chunk in chunks:
-            if not chunk_upload_status[chunk["chunk_index"]]:
-                chunk_id = await insert_chunk(
-                    DB_PATH,
-                    chunk["file_id"],
-                    chunk["chunk_index"],
-                    chunk["chunk_hash"],
-                    chunk["chunk_size"]
-                )
-
-                for peer in peers.get(chunk["chunk_index"], []):
-                    await insert_peer(DB_PATH, chunk_id, peer["peer_ip"], peer["peer_port"])
-
-                chunk_upload_status[chunk["chunk_index"]] = True
+@app.post("/chunks/placements/remove")
+async def api_remove_placements(placements: List[ReqPeerDto]):
+    """
+    Removes placements in one batch, e.g. replicas a peer dropped once they were no longer in demand.
+    Every placement needs chunk_id or chunk_hash; the last placement of a chunk is kept.
+    """
 
+    if any(placement.chunk_id is None and placement.chunk_hash is None for placement in placements):
         return JSONResponse(
-            status_code=200,
-            content={
-                "file_id": file_id,
-                "file_name": file_info.file_name,
-                "file_hash": file_info.file_hash,
-                "message": "File and chunks uploaded successfully"
-            }
+            status_code=status.HTTP_422_UNPROCESSABLE_ENTITY,
+            content={"detail": "chunk_id or chunk_hash, peer_ip and peer_port are required for every placement"}
         )
 
+    try:
+        removed = await delete_placements(
+            DB_PATH,
+            [(placement.chunk_id, placement.chunk_hash, placement.peer_ip, placement.peer_port) for placement in placements]
+        )
     except Exception as e:
-        logging.error(f"Error while uploading file: {e}")
+        logging.error(f"Error while removing placements: {e}")
         raise HTTPException(
             status_code=500,
-            detail=f"Failed to upload file: '{file_info.file_name}'"
+            detail="Failed to remove placements"
         )
 
+    return {"status": "success", "removed": removed}
+
 # @app.post("/files/upload_chunks")
 # async def api_upload_file(request: ReqFileDto):
 #     return None
 
 
-@app.get("/files/download_file/{file_id}", response_model=ResFileDto)
+@app.get("/files/download_file/{file_id}", response_model=ResFileDto, response_model_exclude_none=True)
 async def api_download_file(file_id: int) -> ResFileDto:
     """
     Retrieves file details along with its chunks and active peers.
@@ -367,6 +451,8 @@ async def api_download_file(file_id: int) -> ResFileDto:
                 chunk_index=chunk["chunk_index"],
                 chunk_hash=chunk["chunk_hash"],
                 chunk_size=chunk["chunk_size"],
+                chunk_offset=chunk["chunk_offset"],
+                chunk_length=chunk["chunk_length"],
                 chunk_peers=chunk_peers
             ))
 
@@ -376,6 +462,9 @@ async def api_download_file(file_id: int) -> ResFileDto:
             file_hash=file_data["file_hash"],
             file_size=file_data["file_size"],
             file_enc=file_data["file_enc"],
+            file_data_shards=file_data["file_data_shards"],
+            file_parity_shards=file_data["file_parity_shards"],
+            file_previous_id=file_data["file_previous_id"],
             file_chunks=file_chunks
         )
 
@@ -9,6 +9,8 @@ __all__ = [
     "insert_file",
     "insert_chunk",
     "insert_peer",
+    "insert_placements",
+    "delete_placements",
     "get_file_by_id",
     "get_chunks_by_file",  
     "get_peers_by_chunk",
@@ -35,10 +37,19 @@ def create_tables(db_path="database/p2p_database.db"):
         file_name TEXT NOT NULL,
         file_hash TEXT NOT NULL,
         file_size BIGINT NOT NULL,
-        file_enc BOOLEAN NOT NULL
+        file_enc BOOLEAN NOT NULL,
+        file_data_shards INTEGER,
+        file_parity_shards INTEGER,
+        file_previous_id INTEGER
     );
     """)
 
+    # Databases created before erasure coding / versions existed lack these columns
+    columns = [row[1] for row in cur.execute("PRAGMA table_info(files)").fetchall()]
+    for column in ("file_data_shards", "file_parity_shards", "file_previous_id"):
+        if column not in columns:
+            cur.execute(f"ALTER TABLE files ADD COLUMN {column} INTEGER")
+
     # Create 'chunks' table
     cur.execute("""
     CREATE TABLE IF NOT EXISTS chunks (
@@ -47,10 +58,21 @@ def create_tables(db_path="database/p2p_database.db"):
         chunk_index INTEGER NOT NULL,
         chunk_hash TEXT NOT NULL,
         chunk_size INTEGER NOT NULL,
+        chunk_offset INTEGER,
+        chunk_length INTEGER,
         FOREIGN KEY(file_id) REFERENCES files(file_id)
     );
     """)
 
+    # Databases created before packed files existed lack the extent columns
+    columns = [row[1] for row in cur.execute("PRAGMA table_info(chunks)").fetchall()]
+    for column in ("chunk_offset", "chunk_length"):
+        if column not in columns:
+            cur.execute(f"ALTER TABLE chunks ADD COLUMN {column} INTEGER")
+
+    # Placements pushed by peers name chunks by hash
+    cur.execute("CREATE INDEX IF NOT EXISTS idx_chunks_hash ON chunks (chunk_hash)")
+
     # Create 'peers' table
     cur.execute("""
     CREATE TABLE IF NOT EXISTS peers (
@@ -67,10 +89,14 @@ def create_tables(db_path="database/p2p_database.db"):
     print("Database tables (files, chunks, peers) have been created:", db_path)
 
 
-async def insert_file(db_path, file_name, file_hash, file_size, file_enc):
+async def insert_file(db_path, file_name, file_hash, file_size, file_enc, file_data_shards=None, file_parity_shards=None,
+                      file_previous_id=None):
     """
     Asynchronously inserts a new file record into the 'files' table.
-    Ensures that (file_name, file_hash, file_size, file_enc) is unique before inserting.
+    file_data_shards / file_parity_shards are set for erasure coded files: every chunk group is stored as
+    k data and m parity shards, each an ordinary chunk with chunk_index = group * (k + m) + shard.
+    file_previous_id links a new version of a file to the version it was uploaded against.
+    Ensures that (file_name, file_hash, file_size, file_enc, shards) is unique before inserting.
     Returns the file_id if successful, or the existing file_id if already present.
     """
     file_id = None
@@ -80,7 +106,8 @@ async def insert_file(db_path, file_name, file_hash, file_size, file_enc):
             cur = await conn.execute("""
                 SELECT file_id FROM files 
                 WHERE file_name = ? AND file_hash = ? AND file_size = ? AND file_enc = ?
-            """, (file_name, file_hash, file_size, file_enc))
+                  AND file_data_shards IS ? AND file_parity_shards IS ?
+            """, (file_name, file_hash, file_size, file_enc, file_data_shards, file_parity_shards))
             row = await cur.fetchone()
 
             # If file already exists, return the existing file_id
@@ -90,9 +117,9 @@ async def insert_file(db_path, file_name, file_hash, file_size, file_enc):
 
             # If no duplicate found, insert into DB
             cur = await conn.execute("""
-                INSERT INTO files (file_name, file_hash, file_size, file_enc)
-                VALUES (?, ?, ?, ?)
-            """, (file_name, file_hash, file_size, file_enc))
+                INSERT INTO files (file_name, file_hash, file_size, file_enc, file_data_shards, file_parity_shards, file_previous_id)
+                VALUES (?, ?, ?, ?, ?, ?, ?)
+            """, (file_name, file_hash, file_size, file_enc, file_data_shards, file_parity_shards, file_previous_id))
 
             await conn.commit()
             file_id = cur.lastrowid  # Get the last inserted file_id
@@ -109,9 +136,10 @@ async def insert_file(db_path, file_name, file_hash, file_size, file_enc):
     return file_id
 
 
-async def insert_chunk(db_path, file_id, chunk_index, chunk_hash, chunk_size):
+async def insert_chunk(db_path, file_id, chunk_index, chunk_hash, chunk_size, chunk_offset=None, chunk_length=None):
     """
     Asynchronously inserts a new chunk record into the 'chunks' table.
+    chunk_offset / chunk_length are set when the file is packed: it is only that range of the chunk.
     Ensures that (file_id, chunk_index, chunk_hash) is unique before inserting.
     Returns the chunk_id if successful, or the existing chunk_id if already present.
     """
@@ -132,9 +160,9 @@ async def insert_chunk(db_path, file_id, chunk_index, chunk_hash, chunk_size):
 
             # If no duplicate found, insert into DB
             cur = await conn.execute("""
-                INSERT INTO chunks (file_id, chunk_index, chunk_hash, chunk_size)
-                VALUES (?, ?, ?, ?)
-            """, (file_id, chunk_index, chunk_hash, chunk_size))
+                INSERT INTO chunks (file_id, chunk_index, chunk_hash, chunk_size, chunk_offset, chunk_length)
+                VALUES (?, ?, ?, ?, ?, ?)
+            """, (file_id, chunk_index, chunk_hash, chunk_size, chunk_offset, chunk_length))
 
             await conn.commit()
             chunk_id = cur.lastrowid  # Get the last inserted chunk_id
@@ -180,6 +208,85 @@ async def insert_peer(db_path, chunk_id, peer_ip, peer_port):
         print(f"Error inserting peer: {e}")
         raise
 
+async def _placement_chunk_ids(conn, chunk_id, chunk_hash):
+    """
+    The chunks a placement refers to: chunk_id, or every chunk with chunk_hash.
+    """
+    if chunk_id is not None:
+        cur = await conn.execute("SELECT chunk_id FROM chunks WHERE chunk_id = ?", (chunk_id,))
+    else:
+        cur = await conn.execute("SELECT chunk_id FROM chunks WHERE chunk_hash = ?", (chunk_hash,))
+    return [row[0] for row in await cur.fetchall()]
+
+
+async def insert_placements(db_path, placements):
+    """
+    Inserts many (chunk_id, chunk_hash, peer_ip, peer_port) placements in one transaction.
+    A placement without chunk_id applies to every chunk with chunk_hash.
+    Placements of unknown chunks and placements that already exist are skipped.
+    Returns the number of placements inserted.
+    """
+    added = 0
+    try:
+        async with aiosqlite.connect(db_path) as conn:
+            for chunk_id, chunk_hash, peer_ip, peer_port in placements:
+                for placed_id in await _placement_chunk_ids(conn, chunk_id, chunk_hash):
+                    cur = await conn.execute("""
+                        SELECT COUNT(*) FROM peers WHERE chunk_id = ? AND peer_ip = ? AND peer_port = ?
+                    """, (placed_id, peer_ip, peer_port))
+                    if (await cur.fetchone())[0] > 0:
+                        continue
+
+                    await conn.execute("""
+                        INSERT INTO peers (chunk_id, peer_ip, peer_port)
+                        VALUES (?, ?, ?)
+                    """, (placed_id, peer_ip, peer_port))
+                    added += 1
+
+            await conn.commit()
+            print(f"[peers] Inserted {added} placements for {len(placements)} announced")
+
+    except Exception as e:
+        print(f"Error inserting placements: {e}")
+        raise
+
+    return added
+
+
+async def delete_placements(db_path, placements):
+    """
+    Deletes many (chunk_id, chunk_hash, peer_ip, peer_port) placements in one transaction, e.g. replicas a peer
+    dropped because demand cooled down. The last placement of a chunk is never deleted.
+    Returns the number of placements deleted.
+    """
+    removed = 0
+    try:
+        async with aiosqlite.connect(db_path) as conn:
+            for chunk_id, chunk_hash, peer_ip, peer_port in placements:
+                for placed_id in await _placement_chunk_ids(conn, chunk_id, chunk_hash):
+                    cur = await conn.execute("""
+                        SELECT
+                            (SELECT COUNT(*) FROM peers WHERE chunk_id = ?),
+                            (SELECT COUNT(*) FROM peers WHERE chunk_id = ? AND peer_ip = ? AND peer_port = ?)
+                    """, (placed_id, placed_id, peer_ip, peer_port))
+                    total, matching = await cur.fetchone()
+                    if matching == 0 or total <= matching:
+                        continue
+
+                    await conn.execute("""
+                        DELETE FROM peers WHERE chunk_id = ? AND peer_ip = ? AND peer_port = ?
+                    """, (placed_id, peer_ip, peer_port))
+                    removed += 1
+
+            await conn.commit()
+            print(f"[peers] Deleted {removed} placements for {len(placements)} dropped")
+
+    except Exception as e:
+        print(f"Error deleting placements: {e}")
+        raise
+
+    return removed
+
 
 async def get_file_by_id(db_path: str, file_id: int):
     """
@@ -189,7 +296,7 @@ async def get_file_by_id(db_path: str, file_id: int):
     try:
         async with aiosqlite.connect(db_path) as conn:
             cur = await conn.execute("""
-                SELECT file_id, file_name, file_hash, file_size, file_enc 
+                SELECT file_id, file_name, file_hash, file_size, file_enc, file_data_shards, file_parity_shards, file_previous_id
                 FROM files WHERE file_id = ?
             """, (file_id,))
             row = await cur.fetchone()
@@ -200,7 +307,10 @@ async def get_file_by_id(db_path: str, file_id: int):
                 "file_name": row[1],
                 "file_hash": row[2],
                 "file_size": row[3],
-                "file_enc": bool(row[4])
+                "file_enc": bool(row[4]),
+                "file_data_shards": row[5],
+                "file_parity_shards": row[6],
+                "file_previous_id": row[7]
             }
         return None
 
@@ -221,7 +331,7 @@ async def get_chunks_by_file(db_path: str, file_id: int):
     try:
         async with aiosqlite.connect(db_path) as conn:
             cur = await conn.execute("""
-                SELECT chunk_id, chunk_index, chunk_hash, chunk_size
+                SELECT chunk_id, chunk_index, chunk_hash, chunk_size, chunk_offset, chunk_length
                 FROM chunks 
                 WHERE file_id = ?
                 ORDER BY chunk_index ASC
@@ -239,7 +349,9 @@ async def get_chunks_by_file(db_path: str, file_id: int):
                 "chunk_id": row[0],  # Internal use only, NOT returned in response
                 "chunk_index": row[1],
                 "chunk_hash": row[2],
-                "chunk_size": row[3]
+                "chunk_size": row[3],
+                "chunk_offset": row[4],
+                "chunk_length": row[5]
             }
             for row in rows
         ]
@@ -306,17 +418,23 @@ def get_all_peers(db_path):
 async def get_all_files(db_path):
     """
     Asynchronously retrieves all files from the 'files' table.
-    Returns a list of dictionaries containing 'file_id', 'file_name', 'file_hash', file_size and file_enc.
+    Returns a list of dictionaries containing 'file_id', 'file_name', 'file_hash', file_size, file_enc and,
+    for new versions of a file, file_previous_id.
     """
     try:
         async with aiosqlite.connect(db_path) as conn:
-            cur = await conn.execute("SELECT * FROM files")
+            cur = await conn.execute("""
+                SELECT file_id, file_name, file_hash, file_size, file_enc, file_previous_id FROM files
+            """)
             rows = await cur.fetchall()
 
-        return [
-            {"file_id": row[0], "file_name": row[1], "file_hash": row[2], "file_size": row[3], "file_enc": bool(row[4])}
-            for row in rows
-        ]
+        files = []
+        for row in rows:
+            file = {"file_id": row[0], "file_name": row[1], "file_hash": row[2], "file_size": row[3], "file_enc": bool(row[4])}
+            if row[5] is not None:
+                file["file_previous_id"] = row[5]
+            files.append(file)
+        return files
 
     except Exception as e:
         print(f"Error retrieving files: {e}")
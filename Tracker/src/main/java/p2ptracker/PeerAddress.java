@@ -0,0 +1,12 @@
+package p2ptracker;
+
+/**
+ * PeerAddress - ip:port of a peer's P2PServer.
+ */
+public record PeerAddress(String ip, int port) {
+
+    @Override
+    public String toString() {
+        return ip + ":" + port;
+    }
+}
@@ -0,0 +1,116 @@
+package p2ptracker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * PeerRegistry - Set of active peers plus the heartbeat that drops peers not answering "ping".
+ * Peers are pinged in parallel (virtual threads) so one slow peer does not delay the whole round.
+ */
+public class PeerRegistry {
+    private static final int TIME_OUT_MILLIS = 3000;
+
+    private final Set<PeerAddress> activePeers = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    private final boolean debug;
+
+    public PeerRegistry(boolean debug) {
+        this.debug = debug;
+    }
+
+    public boolean add(PeerAddress peer) {
+        boolean added = activePeers.add(peer);
+        if (added) {
+            System.out.println("Added peer: " + peer);
+        }
+        return added;
+    }
+
+    public boolean remove(PeerAddress peer) {
+        boolean removed = activePeers.remove(peer);
+        if (removed) {
+            System.out.println("Removed peer: " + peer);
+        }
+        return removed;
+    }
+
+    public boolean isActive(PeerAddress peer) {
+        return activePeers.contains(peer);
+    }
+
+    public List<PeerAddress> list() {
+        return new ArrayList<>(activePeers);
+    }
+
+    /**
+     * Pings the given candidates once and keeps the ones that answer (server start-up).
+     */
+    public void seed(Collection<PeerAddress> candidates) {
+        activePeers.addAll(candidates);
+        heartCheck();
+    }
+
+    public void startHeartbeat(long intervalSeconds) {
+        scheduler.scheduleWithFixedDelay(this::heartCheck, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Sends a TCP ping to every active peer and removes the ones that do not answer "pong".
+     */
+    public void heartCheck() {
+        List<PeerAddress> peers = list();
+        if (debug) {
+            System.out.println("HeartCheck: Checking " + peers.size() + " peers...");
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Map<PeerAddress, Future<Boolean>> results = new LinkedHashMap<>();
+            for (PeerAddress peer : peers) {
+                results.put(peer, executor.submit(() -> ping(peer)));
+            }
+            for (Map.Entry<PeerAddress, Future<Boolean>> entry : results.entrySet()) {
+                boolean alive;
+                try {
+                    alive = entry.getValue().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    alive = false;
+                }
+                if (!alive) {
+                    System.out.println("Peer " + entry.getKey() + " not responding. Removing.");
+                    activePeers.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    static boolean ping(PeerAddress peer) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(peer.ip(), peer.port()), TIME_OUT_MILLIS);
+            socket.setSoTimeout(TIME_OUT_MILLIS);
+            OutputStream os = socket.getOutputStream();
+            os.write("ping      ".getBytes(StandardCharsets.US_ASCII)); // 10 bytes message type
+            os.flush();
+            InputStream is = socket.getInputStream();
+            String response = new String(is.readNBytes(10), StandardCharsets.US_ASCII).trim();
+            return "pong".equals(response);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package p2ptracker;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBuilder;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * SmileMapper - The Smile encoding of tracker bodies, as the client's MetadataCodec writes and reads it: repeated
+ * strings are back-referenced, and the SHA-256 hashes of *_hash properties travel as their 32 raw bytes. The DTOs
+ * and the write-ahead log keep hex strings.
+ */
+final class SmileMapper {
+    private static final HexFormat HEX = HexFormat.of();
+    private static final int HASH_HEX_LENGTH = 64;
+
+    private SmileMapper() {}
+
+    static ObjectMapper of(ObjectMapper json) {
+        ObjectMapper smile = json.copyWith(SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT)
+                .build());
+        return smile.registerModule(new SimpleModule("binary-hashes")
+                .setSerializerModifier(new BeanSerializerModifier() {
+                    @Override
+                    public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription bean,
+                                                                     List<BeanPropertyWriter> properties) {
+                        for (BeanPropertyWriter property : properties) {
+                            if (isHashProperty(property.getName(), property.getType().getRawClass())) {
+                                property.assignSerializer(HashSerializer.INSTANCE);
+                            }
+                        }
+                        return properties;
+                    }
+                })
+                .setDeserializerModifier(new BeanDeserializerModifier() {
+                    @Override
+                    public BeanDeserializerBuilder updateBuilder(DeserializationConfig config, BeanDescription bean,
+                                                                 BeanDeserializerBuilder builder) {
+                        List<SettableBeanProperty> hashes = new ArrayList<>();
+                        builder.getProperties().forEachRemaining(property -> {
+                            if (isHashProperty(property.getName(), property.getType().getRawClass())) {
+                                hashes.add(property);
+                            }
+                        });
+                        for (SettableBeanProperty property : hashes) {
+                            builder.addOrReplaceProperty(property.withValueDeserializer(HashDeserializer.INSTANCE), true);
+                        }
+                        return builder;
+                    }
+                }));
+    }
+
+    private static boolean isHashProperty(String name, Class<?> type) {
+        return type == String.class && name.endsWith("_hash");
+    }
+
+    // a lowercase hex SHA-256 as its 32 bytes; anything else stays a string, so every value reads back unchanged
+    private static final class HashSerializer extends StdSerializer<Object> {
+        private static final long serialVersionUID = 1L;
+        static final HashSerializer INSTANCE = new HashSerializer();
+
+        private HashSerializer() {
+            super(Object.class); // assigned to bean properties, which take serializers of Object
+        }
+
+        @Override
+        public void serialize(Object value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            String hash = (String) value;
+            if (isLowercaseHash(hash)) {
+                gen.writeBinary(HEX.parseHex(hash));
+            } else {
+                gen.writeString(hash);
+            }
+        }
+
+        private static boolean isLowercaseHash(String value) {
+            if (value.length() != HASH_HEX_LENGTH) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class HashDeserializer extends StdScalarDeserializer<String> {
+        private static final long serialVersionUID = 1L;
+        static final HashDeserializer INSTANCE = new HashDeserializer();
+
+        private HashDeserializer() {
+            super(String.class);
+        }
+
+        @Override
+        public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.currentToken() == JsonToken.VALUE_EMBEDDED_OBJECT) {
+                return HEX.formatHex(p.getBinaryValue());
+            }
+            return StringDeserializer.instance.deserialize(p, ctxt);
+        }
+    }
+}
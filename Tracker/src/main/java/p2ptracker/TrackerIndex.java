@@ -0,0 +1,371 @@
+package p2ptracker;
+
+import p2ptracker.dto.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * TrackerIndex - In-memory catalog of files, chunks and chunk-to-peer placements.
+ * Replaces the per-query SQLite lookups of the Python tracker: a file's whole manifest, with the
+ * active holders of every chunk, is assembled from memory under one read lock.
+ * Every mutation is first made durable in the {@link WriteAheadLog}, then applied.
+ */
+public class TrackerIndex {
+
+    /**
+     * dataShards / parityShards are null for replicated files, previousId for the first version of a file.
+     */
+    public record FileRecord(int fileId, String name, String hash, long size, boolean enc, Integer dataShards, Integer parityShards,
+                             Integer previousId) {}
+
+    static final class ChunkRecord {
+        final int chunkId;
+        final int fileId;
+        final long index;
+        final String hash;
+        final int size;
+        final Long offset; // set for packed files only
+        final Integer length;
+        final List<PeerAddress> peers = new ArrayList<>(2);
+
+        ChunkRecord(int chunkId, int fileId, long index, String hash, int size, Long offset, Integer length) {
+            this.chunkId = chunkId;
+            this.fileId = fileId;
+            this.index = index;
+            this.hash = hash;
+            this.size = size;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final WriteAheadLog wal;
+
+    private final Map<Integer, FileRecord> files = new LinkedHashMap<>();
+    private final Map<FileKey, Integer> fileIds = new HashMap<>();
+    private final Map<Integer, List<ChunkRecord>> chunksByFile = new HashMap<>(); // sorted by chunk index
+    private final Map<Integer, ChunkRecord> chunksById = new HashMap<>();
+    private final Map<String, List<ChunkRecord>> chunksByHash = new HashMap<>();
+    private int nextFileId = 1;
+    private int nextChunkId = 1;
+
+    private record FileKey(String name, String hash, long size, boolean enc, Integer dataShards, Integer parityShards) {}
+
+    public TrackerIndex(WriteAheadLog wal) {
+        this.wal = wal;
+    }
+
+    /**
+     * Rebuilds the index from the write-ahead log.
+     */
+    public int load() throws IOException {
+        lock.writeLock().lock();
+        try {
+            return wal.replay(this::apply);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // =======================
+    //  Writes
+    // =======================
+
+    /**
+     * Registers a file with its chunks and placements (POST /files/upload_file). Like the Python tracker,
+     * an identical (name, hash, size, enc, shards) file, an identical (file, index, hash) chunk and an identical
+     * placement are reused instead of inserted twice.
+     *
+     * @return the file's id
+     */
+    public int registerFile(ReqFileDto request) throws IOException {
+        return registerFiles(List.of(request)).getFirst();
+    }
+
+    /**
+     * Registers many files with one write-ahead log append (POST /files/upload_files).
+     * Records are applied as they are built, so files later in the batch see the earlier ones;
+     * if the append fails, the index is rebuilt from the log so memory never runs ahead of it.
+     *
+     * @return the files' ids, in request order
+     */
+    public List<Integer> registerFiles(List<ReqFileDto> requests) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<WalRecord> records = new ArrayList<>();
+            List<Integer> ids = new ArrayList<>(requests.size());
+            for (ReqFileDto request : requests) {
+                ids.add(collect(request, records));
+            }
+            append(records);
+            return ids;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds and applies the records that register one file; caller holds the write lock.
+     */
+    private int collect(ReqFileDto request, List<WalRecord> records) {
+        boolean enc = Boolean.TRUE.equals(request.file_enc);
+        int fileId;
+        Integer existingId = fileIds.get(new FileKey(request.file_name, request.file_hash, request.file_size, enc,
+                request.file_data_shards, request.file_parity_shards));
+        if (existingId != null) {
+            fileId = existingId;
+        } else {
+            fileId = nextFileId;
+            add(records, WalRecord.file(fileId, request.file_name, request.file_hash, request.file_size, enc,
+                    request.file_data_shards, request.file_parity_shards, request.file_previous_id));
+        }
+
+        List<ReqChunkDto> chunks = request.file_chunks != null ? request.file_chunks : List.of();
+        for (ReqChunkDto chunk : chunks) {
+            ChunkRecord record = findChunk(fileId, chunk.chunk_index, chunk.chunk_hash);
+            if (record == null) {
+                int chunkId = nextChunkId;
+                add(records, WalRecord.chunk(chunkId, fileId, chunk.chunk_index, chunk.chunk_hash, chunk.chunk_size,
+                        chunk.chunk_offset, chunk.chunk_length));
+                record = chunksById.get(chunkId);
+            }
+            if (chunk.chunk_peers == null) continue;
+            for (ReqPeerDto peer : chunk.chunk_peers) {
+                PeerAddress address = new PeerAddress(peer.peer_ip, peer.peer_port);
+                if (!record.peers.contains(address)) {
+                    add(records, WalRecord.placement(record.chunkId, address));
+                }
+            }
+        }
+        return fileId;
+    }
+
+    /**
+     * Adds placements of existing chunks, e.g. chunks a downloader now seeds or replicas a peer pushed
+     * (POST /chunks/placements), with one write-ahead log append. A placement without chunk_id applies to every
+     * chunk with its chunk_hash. Placements of unknown chunks and placements already known are skipped.
+     *
+     * @return the number of placements added
+     */
+    public int addPlacements(List<ReqPeerDto> placements) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<WalRecord> records = new ArrayList<>();
+            for (ReqPeerDto placement : placements) {
+                PeerAddress address = new PeerAddress(placement.peer_ip, placement.peer_port);
+                for (ChunkRecord chunk : placed(placement)) {
+                    if (!chunk.peers.contains(address)) {
+                        add(records, WalRecord.placement(chunk.chunkId, address));
+                    }
+                }
+            }
+            append(records);
+            return records.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes placements, e.g. replicas a peer dropped once they were no longer in demand
+     * (POST /chunks/placements/remove), with one write-ahead log append. The last placement of a chunk is kept.
+     *
+     * @return the number of placements removed
+     */
+    public int removePlacements(List<ReqPeerDto> placements) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<WalRecord> records = new ArrayList<>();
+            for (ReqPeerDto placement : placements) {
+                PeerAddress address = new PeerAddress(placement.peer_ip, placement.peer_port);
+                for (ChunkRecord chunk : placed(placement)) {
+                    if (chunk.peers.size() > 1 && chunk.peers.contains(address)) {
+                        add(records, WalRecord.unplace(chunk.chunkId, address));
+                    }
+                }
+            }
+            append(records);
+            return records.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<ChunkRecord> placed(ReqPeerDto placement) {
+        if (placement.chunk_id != null) {
+            ChunkRecord chunk = chunksById.get(placement.chunk_id);
+            return chunk != null ? List.of(chunk) : List.of();
+        }
+        return chunksByHash.getOrDefault(placement.chunk_hash, List.of());
+    }
+
+    // makes applied records durable; if that fails, rebuilds the index from the log so memory never runs ahead of it
+    private void append(List<WalRecord> records) throws IOException {
+        try {
+            wal.append(records);
+        } catch (IOException e) {
+            clear();
+            wal.replay(this::apply);
+            throw e;
+        }
+    }
+
+    private void add(List<WalRecord> records, WalRecord record) {
+        apply(record);
+        records.add(record);
+    }
+
+    private void clear() {
+        files.clear();
+        fileIds.clear();
+        chunksByFile.clear();
+        chunksById.clear();
+        chunksByHash.clear();
+        nextFileId = 1;
+        nextChunkId = 1;
+    }
+
+    private void apply(WalRecord record) {
+        switch (record.op) {
+            case WalRecord.FILE -> {
+                FileRecord file = new FileRecord(record.file_id, record.file_name, record.file_hash, record.file_size, record.file_enc,
+                        record.file_data_shards, record.file_parity_shards, record.file_previous_id);
+                files.put(file.fileId(), file);
+                fileIds.put(new FileKey(file.name(), file.hash(), file.size(), file.enc(), file.dataShards(), file.parityShards()), file.fileId());
+                chunksByFile.putIfAbsent(file.fileId(), new ArrayList<>());
+                nextFileId = Math.max(nextFileId, file.fileId() + 1);
+            }
+            case WalRecord.CHUNK -> {
+                ChunkRecord chunk = new ChunkRecord(record.chunk_id, record.file_id, record.chunk_index, record.chunk_hash, record.chunk_size,
+                        record.chunk_offset, record.chunk_length);
+                List<ChunkRecord> fileChunks = chunksByFile.computeIfAbsent(chunk.fileId, k -> new ArrayList<>());
+                int position = fileChunks.size();
+                // chunks mostly arrive in order; walk back only for out-of-order ones
+                while (position > 0 && fileChunks.get(position - 1).index > chunk.index) {
+                    position--;
+                }
+                fileChunks.add(position, chunk);
+                chunksById.put(chunk.chunkId, chunk);
+                chunksByHash.computeIfAbsent(chunk.hash, k -> new ArrayList<>(1)).add(chunk);
+                nextChunkId = Math.max(nextChunkId, chunk.chunkId + 1);
+            }
+            case WalRecord.PLACEMENT -> {
+                ChunkRecord chunk = chunksById.get(record.chunk_id);
+                PeerAddress peer = new PeerAddress(record.peer_ip, record.peer_port);
+                if (chunk != null && !chunk.peers.contains(peer)) {
+                    chunk.peers.add(peer);
+                }
+            }
+            case WalRecord.UNPLACE -> {
+                ChunkRecord chunk = chunksById.get(record.chunk_id);
+                if (chunk != null) {
+                    chunk.peers.remove(new PeerAddress(record.peer_ip, record.peer_port));
+                }
+            }
+            default -> System.err.println("WAL: unknown record type " + record.op);
+        }
+    }
+
+    private ChunkRecord findChunk(int fileId, long index, String hash) {
+        for (ChunkRecord chunk : chunksByHash.getOrDefault(hash, List.of())) {
+            if (chunk.fileId == fileId && chunk.index == index) {
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    // =======================
+    //  Reads
+    // =======================
+
+    public List<ResFileDto> listFiles() {
+        lock.readLock().lock();
+        try {
+            List<ResFileDto> result = new ArrayList<>(files.size());
+            for (FileRecord file : files.values()) {
+                result.add(new ResFileDto(file.fileId(), file.name(), file.hash(), file.size(), file.enc(), file.dataShards(), file.parityShards(), file.previousId(), null));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public FileRecord getFile(int fileId) {
+        lock.readLock().lock();
+        try {
+            return files.get(fileId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Full manifest of a file; placements are filtered to peers accepted by {@code isActive}.
+     *
+     * @return null if the file does not exist
+     */
+    public ResFileDto getManifest(int fileId, Predicate<PeerAddress> isActive) {
+        lock.readLock().lock();
+        try {
+            FileRecord file = files.get(fileId);
+            if (file == null) {
+                return null;
+            }
+            List<ChunkRecord> fileChunks = chunksByFile.getOrDefault(fileId, List.of());
+            List<ResChunkDto> chunks = new ArrayList<>(fileChunks.size());
+            for (ChunkRecord chunk : fileChunks) {
+                List<ResPeerDto> peers = new ArrayList<>(chunk.peers.size());
+                for (PeerAddress peer : chunk.peers) {
+                    if (isActive.test(peer)) {
+                        peers.add(new ResPeerDto(peer.ip(), peer.port()));
+                    }
+                }
+                chunks.add(new ResChunkDto(chunk.chunkId, chunk.index, chunk.hash, chunk.size, chunk.offset, chunk.length, peers));
+            }
+            return new ResFileDto(file.fileId(), file.name(), file.hash(), file.size(), file.enc(), file.dataShards(), file.parityShards(), file.previousId(), chunks);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return every peer that holds at least one chunk (used to seed the active set at startup)
+     */
+    public Set<PeerAddress> getPlacementPeers() {
+        lock.readLock().lock();
+        try {
+            Set<PeerAddress> peers = new LinkedHashSet<>();
+            for (ChunkRecord chunk : chunksById.values()) {
+                peers.addAll(chunk.peers);
+            }
+            return peers;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getFileCount() {
+        lock.readLock().lock();
+        try {
+            return files.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getChunkCount() {
+        lock.readLock().lock();
+        try {
+            return chunksById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
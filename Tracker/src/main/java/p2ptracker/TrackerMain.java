@@ -0,0 +1,65 @@
+package p2ptracker;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * TrackerMain - Entry point of the Java tracker.
+ *
+ * Usage: java -jar Tracker.jar <hostname> <port> [-d|--debug] [--data-dir <dir>]
+ */
+public class TrackerMain {
+    private static final long HEART_BEAT_INTERVAL = 60; // seconds
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TrackerMain <hostname> <port> [-d|--debug] [--data-dir <dir>]");
+            System.exit(2);
+        }
+        String hostname = args[0];
+        int port = Integer.parseInt(args[1]);
+        boolean debug = false;
+        Path dataDirectory = Path.of("database");
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "-d", "--debug" -> debug = true;
+                case "--data-dir" -> dataDirectory = Path.of(args[++i]);
+                default -> {
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+        // 1) rebuild the index from the write-ahead log
+        WriteAheadLog wal = new WriteAheadLog(dataDirectory.resolve("tracker.wal"), mapper);
+        TrackerIndex index = new TrackerIndex(wal);
+        long start = System.nanoTime();
+        int records = index.load();
+        System.out.printf("Loaded %d files, %d chunks (%d log records) in %.1f ms%n",
+                index.getFileCount(), index.getChunkCount(), records, (System.nanoTime() - start) / 1e6);
+
+        // 2) peers known from placements, minus the ones that do not answer
+        PeerRegistry peers = new PeerRegistry(debug);
+        peers.seed(index.getPlacementPeers());
+        peers.startHeartbeat(HEART_BEAT_INTERVAL);
+
+        TrackerServer server = new TrackerServer(hostname, port, mapper, index, peers, debug);
+        server.start();
+        System.out.println("Server initialized");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            peers.stop();
+            try {
+                wal.close();
+            } catch (IOException ignored) {
+            }
+        }));
+    }
+}
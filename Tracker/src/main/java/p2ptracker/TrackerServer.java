@@ -0,0 +1,249 @@
+package p2ptracker;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import p2ptracker.dto.ReqFileDto;
+import p2ptracker.dto.ReqPeerDto;
+import p2ptracker.dto.ResFileDto;
+import p2ptracker.dto.ResPeerDto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * TrackerServer - HTTP routes of the tracker, same paths and JSON bodies as Server/main.py:
+ *   POST /peers/add, POST /peers/remove, GET /peers,
+ *   GET /files, POST /files/upload_file, POST /files/upload_files, GET /files/download_file/{file_id},
+ *   POST /chunks/placements, POST /chunks/placements/remove
+ * Bodies may also be Smile (binary JSON, see the client's MetadataCodec): requests by their Content-Type, responses
+ * if the request's Accept header names it.
+ */
+public class TrackerServer {
+    private static final String SMILE = "application/x-jackson-smile";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ObjectMapper mapper;
+    private final ObjectMapper smileMapper;
+    private final TrackerIndex index;
+    private final PeerRegistry peers;
+    private final boolean debug;
+
+    public TrackerServer(String hostname, int port, ObjectMapper mapper, TrackerIndex index, PeerRegistry peers, boolean debug) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(hostname, port), 128);
+        this.mapper = mapper;
+        this.smileMapper = SmileMapper.of(mapper);
+        this.index = index;
+        this.peers = peers;
+        this.debug = debug;
+        server.setExecutor(executor);
+        server.createContext("/peers", exchange -> handle(exchange, this::routePeers));
+        server.createContext("/files", exchange -> handle(exchange, this::routeFiles));
+        server.createContext("/chunks", exchange -> handle(exchange, this::routeChunks));
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Tracker listening on " + server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // =======================
+    //  Routes
+    // =======================
+
+    private void routePeers(HttpExchange exchange, String route) throws IOException {
+        switch (route) {
+            case "POST /peers/add" -> {
+                PeerAddress peer = readPeer(exchange);
+                if (peer == null) {
+                    return;
+                }
+                if (peers.add(peer)) {
+                    respond(exchange, 200, status("success", "Peer " + peer + " added."));
+                } else {
+                    respond(exchange, 409, status("error", "Peer " + peer + " already exists."));
+                }
+            }
+            case "POST /peers/remove" -> {
+                PeerAddress peer = readPeer(exchange);
+                if (peer == null) {
+                    return;
+                }
+                if (peers.remove(peer)) {
+                    respond(exchange, 200, status("success", "Peer " + peer + " removed."));
+                } else {
+                    respond(exchange, 404, status("error", "Peer " + peer + " not found."));
+                }
+            }
+            case "GET /peers" -> {
+                List<ResPeerDto> result = new ArrayList<>();
+                for (PeerAddress peer : peers.list()) {
+                    result.add(new ResPeerDto(peer.ip(), peer.port()));
+                }
+                respond(exchange, 200, result);
+            }
+            default -> respond(exchange, 404, Map.of("detail", "Not Found"));
+        }
+    }
+
+    private void routeFiles(HttpExchange exchange, String route) throws IOException {
+        if (route.equals("GET /files")) {
+            respond(exchange, 200, index.listFiles());
+        } else if (route.equals("POST /files/upload_file")) {
+            ReqFileDto file = requestMapper(exchange).readValue(exchange.getRequestBody(), ReqFileDto.class);
+            if (!isValid(file)) {
+                respond(exchange, 422, Map.of("detail", "file_name, file_hash and file_size are required, shard counts must be valid"));
+                return;
+            }
+            respond(exchange, 200, uploadResult(file, index.registerFile(file)));
+        } else if (route.equals("POST /files/upload_files")) {
+            List<ReqFileDto> files = requestMapper(exchange).readValue(exchange.getRequestBody(), new TypeReference<List<ReqFileDto>>() {});
+            if (!files.stream().allMatch(TrackerServer::isValid)) {
+                respond(exchange, 422, Map.of("detail", "file_name, file_hash and file_size are required for every file, shard counts must be valid"));
+                return;
+            }
+            List<Integer> fileIds = index.registerFiles(files);
+            List<Map<String, Object>> results = new ArrayList<>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                results.add(uploadResult(files.get(i), fileIds.get(i)));
+            }
+            respond(exchange, 200, results);
+        } else if (route.startsWith("GET /files/download_file/")) {
+            int fileId;
+            try {
+                fileId = Integer.parseInt(route.substring("GET /files/download_file/".length()));
+            } catch (NumberFormatException e) {
+                respond(exchange, 422, Map.of("detail", "file_id must be an integer"));
+                return;
+            }
+            ResFileDto file = index.getManifest(fileId, peers::isActive);
+            if (file == null) {
+                respond(exchange, 404, Map.of("detail", "File with ID " + fileId + " not found"));
+            } else {
+                respond(exchange, 200, file);
+            }
+        } else {
+            respond(exchange, 404, Map.of("detail", "Not Found"));
+        }
+    }
+
+    private void routeChunks(HttpExchange exchange, String route) throws IOException {
+        boolean add = route.equals("POST /chunks/placements");
+        if (!add && !route.equals("POST /chunks/placements/remove")) {
+            respond(exchange, 404, Map.of("detail", "Not Found"));
+            return;
+        }
+        List<ReqPeerDto> placements = requestMapper(exchange).readValue(exchange.getRequestBody(), new TypeReference<List<ReqPeerDto>>() {});
+        if (!placements.stream().allMatch(p -> p != null && (p.chunk_id != null || p.chunk_hash != null) && p.peer_ip != null && p.peer_port != null)) {
+            respond(exchange, 422, Map.of("detail", "chunk_id or chunk_hash, peer_ip and peer_port are required for every placement"));
+            return;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", "success");
+        if (add) {
+            result.put("added", index.addPlacements(placements));
+        } else {
+            result.put("removed", index.removePlacements(placements));
+        }
+        respond(exchange, 200, result);
+    }
+
+    // =======================
+    //  Helpers
+    // =======================
+
+    @FunctionalInterface
+    private interface Route {
+        void handle(HttpExchange exchange, String route) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Route route) {
+        long start = System.nanoTime();
+        String routeKey = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+        try (exchange) {
+            try {
+                route.handle(exchange, routeKey);
+            } catch (JsonProcessingException e) {
+                respond(exchange, 422, Map.of("detail", "Invalid request body: " + e.getOriginalMessage()));
+            } catch (Exception e) {
+                System.err.println("Error handling " + routeKey + ": " + e.getMessage());
+                respond(exchange, 500, Map.of("detail", "Unexpected server error"));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to respond to " + routeKey + ": " + e.getMessage());
+        }
+        if (debug) {
+            System.out.printf("%s -> %d (%.2f ms)%n", routeKey, exchange.getResponseCode(), (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private static boolean isValid(ReqFileDto file) {
+        return file != null && file.file_name != null && file.file_hash != null && file.file_size != null
+                && (file.file_data_shards == null) == (file.file_parity_shards == null)
+                && (file.file_data_shards == null || file.file_data_shards > 0 && file.file_parity_shards >= 0
+                        && file.file_data_shards + file.file_parity_shards <= 255);
+    }
+
+    private static Map<String, Object> uploadResult(ReqFileDto file, int fileId) {
+        boolean hasChunks = file.file_chunks != null && !file.file_chunks.isEmpty();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("file_id", fileId);
+        result.put("file_name", file.file_name);
+        result.put("file_hash", file.file_hash);
+        result.put("message", hasChunks ? "File and chunks uploaded successfully" : "File uploaded without chunks");
+        return result;
+    }
+
+    // null after answering 422 if peer_ip or peer_port is missing
+    private PeerAddress readPeer(HttpExchange exchange) throws IOException {
+        ReqPeerDto peer = requestMapper(exchange).readValue(exchange.getRequestBody(), ReqPeerDto.class);
+        if (peer == null || peer.peer_ip == null || peer.peer_port == null) {
+            respond(exchange, 422, Map.of("detail", "peer_ip and peer_port are required"));
+            return null;
+        }
+        return new PeerAddress(peer.peer_ip, peer.peer_port);
+    }
+
+    private static Map<String, String> status(String status, String message) {
+        Map<String, String> body = new LinkedHashMap<>();
+        body.put("status", status);
+        body.put("message", message);
+        return body;
+    }
+
+    // by the request's Content-Type
+    private ObjectMapper requestMapper(HttpExchange exchange) {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        return contentType != null && contentType.startsWith(SMILE) ? smileMapper : mapper;
+    }
+
+    // streams the body (chunked) instead of building the whole JSON string first
+    private void respond(HttpExchange exchange, int statusCode, Object body) throws IOException {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        boolean smile = accept != null && accept.contains(SMILE);
+        exchange.getResponseHeaders().set("Content-Type", smile ? SMILE : "application/json");
+        exchange.sendResponseHeaders(statusCode, 0);
+        try (OutputStream os = exchange.getResponseBody()) {
+            (smile ? smileMapper : mapper).writeValue(os, body);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package p2ptracker;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * WalRecord - One line of the write-ahead log. Only the fields of the given op are set.
+ *   file      : file_id, file_name, file_hash, file_size, file_enc [, file_data_shards, file_parity_shards] [, file_previous_id]
+ *   chunk     : chunk_id, file_id, chunk_index, chunk_hash, chunk_size [, chunk_offset, chunk_length]
+ *   placement : chunk_id, peer_ip, peer_port
+ *   unplace   : chunk_id, peer_ip, peer_port (a placement removed)
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WalRecord {
+    public static final String FILE = "file";
+    public static final String CHUNK = "chunk";
+    public static final String PLACEMENT = "placement";
+    public static final String UNPLACE = "unplace";
+
+    public String op;
+    public Integer file_id;
+    public String file_name;
+    public String file_hash;
+    public Long file_size;
+    public Boolean file_enc;
+    public Integer file_data_shards;
+    public Integer file_parity_shards;
+    public Integer file_previous_id;
+    public Integer chunk_id;
+    public Long chunk_index;
+    public String chunk_hash;
+    public Integer chunk_size;
+    public Long chunk_offset;
+    public Integer chunk_length;
+    public String peer_ip;
+    public Integer peer_port;
+
+    public WalRecord() {}
+
+    public static WalRecord file(int fileId, String name, String hash, long size, boolean enc) {
+        WalRecord r = new WalRecord();
+        r.op = FILE;
+        r.file_id = fileId;
+        r.file_name = name;
+        r.file_hash = hash;
+        r.file_size = size;
+        r.file_enc = enc;
+        return r;
+    }
+
+    /**
+     * A file that may be erasure coded (every chunk group stored as dataShards + parityShards chunks)
+     * and may be a new version of previousId; null where not.
+     */
+    public static WalRecord file(int fileId, String name, String hash, long size, boolean enc, Integer dataShards, Integer parityShards,
+                                 Integer previousId) {
+        WalRecord r = file(fileId, name, hash, size, enc);
+        r.file_data_shards = dataShards;
+        r.file_parity_shards = parityShards;
+        r.file_previous_id = previousId;
+        return r;
+    }
+
+    public static WalRecord chunk(int chunkId, int fileId, long index, String hash, int size) {
+        WalRecord r = new WalRecord();
+        r.op = CHUNK;
+        r.chunk_id = chunkId;
+        r.file_id = fileId;
+        r.chunk_index = index;
+        r.chunk_hash = hash;
+        r.chunk_size = size;
+        return r;
+    }
+
+    /**
+     * A chunk of which the file is only the range [offset, offset + length), i.e. a packed small file.
+     */
+    public static WalRecord chunk(int chunkId, int fileId, long index, String hash, int size, Long offset, Integer length) {
+        WalRecord r = chunk(chunkId, fileId, index, hash, size);
+        r.chunk_offset = offset;
+        r.chunk_length = length;
+        return r;
+    }
+
+    public static WalRecord placement(int chunkId, PeerAddress peer) {
+        WalRecord r = new WalRecord();
+        r.op = PLACEMENT;
+        r.chunk_id = chunkId;
+        r.peer_ip = peer.ip();
+        r.peer_port = peer.port();
+        return r;
+    }
+
+    public static WalRecord unplace(int chunkId, PeerAddress peer) {
+        WalRecord r = placement(chunkId, peer);
+        r.op = UNPLACE;
+        return r;
+    }
+}
@@ -0,0 +1,97 @@
+package p2ptracker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * WriteAheadLog - Append-only JSON-lines log of every index mutation. Each request's records are
+ * written with a single write and forced to disk before the request is acknowledged; on startup the
+ * log is replayed to rebuild the in-memory index. A torn last line (crash mid-write) is truncated away.
+ */
+public class WriteAheadLog implements Closeable {
+    private final Path path;
+    private final ObjectMapper mapper;
+    private final FileChannel channel;
+
+    public WriteAheadLog(Path path, ObjectMapper mapper) throws IOException {
+        this.path = path;
+        this.mapper = mapper;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Feeds every complete record to the consumer, then positions the log for appending.
+     *
+     * @return number of records replayed
+     */
+    public int replay(Consumer<WalRecord> consumer) throws IOException {
+        int count = 0;
+        long validLength = 0;
+        ObjectReader recordReader = mapper.readerFor(WalRecord.class);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long lineLength = line.getBytes(StandardCharsets.UTF_8).length + 1L;
+                if (validLength + lineLength > channel.size()) {
+                    break; // no trailing newline: the write never completed
+                }
+                if (!line.isBlank()) {
+                    WalRecord record;
+                    try {
+                        record = recordReader.readValue(line);
+                    } catch (IOException e) {
+                        break;
+                    }
+                    consumer.accept(record);
+                    count++;
+                }
+                validLength += lineLength;
+            }
+        }
+        if (validLength < channel.size()) {
+            System.err.println("WAL: truncating " + (channel.size() - validLength) + " bytes of incomplete records");
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+        return count;
+    }
+
+    /**
+     * Appends the records and forces them to disk.
+     */
+    public synchronized void append(List<WalRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() * 128);
+        for (WalRecord record : records) {
+            mapper.writeValue(bytes, record);
+            bytes.write('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
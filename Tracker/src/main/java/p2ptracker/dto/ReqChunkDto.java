@@ -0,0 +1,14 @@
+package p2ptracker.dto;
+
+import java.util.List;
+
+public class ReqChunkDto {
+    public Long chunk_index;
+    public String chunk_hash;
+    public Integer chunk_size;
+    public Long chunk_offset;    // packed file: its range within the chunk, null for a whole chunk
+    public Integer chunk_length;
+    public List<ReqPeerDto> chunk_peers;
+
+    public ReqChunkDto() {}
+}
@@ -0,0 +1,17 @@
+package p2ptracker.dto;
+
+import java.util.List;
+
+// Upload File Request
+public class ReqFileDto {
+    public String file_name;
+    public String file_hash;
+    public Long file_size;
+    public Boolean file_enc;
+    public Integer file_data_shards;   // erasure coding: k data and m parity shards per chunk group, null if replicated
+    public Integer file_parity_shards;
+    public Integer file_previous_id;   // the version this file was uploaded against, null for a first version
+    public List<ReqChunkDto> file_chunks;
+
+    public ReqFileDto() {}
+}
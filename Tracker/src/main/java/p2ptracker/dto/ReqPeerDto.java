@@ -0,0 +1,11 @@
+package p2ptracker.dto;
+
+// chunk_id is only needed for hard add / remove of placements; chunk_hash instead of chunk_id means every chunk with that hash
+public class ReqPeerDto {
+    public Integer chunk_id;
+    public String chunk_hash;
+    public String peer_ip;
+    public Integer peer_port;
+
+    public ReqPeerDto() {}
+}
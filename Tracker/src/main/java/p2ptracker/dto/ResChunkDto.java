@@ -0,0 +1,33 @@
+package p2ptracker.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ResChunkDto {
+    public int chunk_id;
+    public long chunk_index;
+    public String chunk_hash;
+    public int chunk_size;
+    public Long chunk_offset;    // packed file: its range within the chunk, null for a whole chunk
+    public Integer chunk_length;
+    public List<ResPeerDto> chunk_peers;
+
+    public ResChunkDto() {}
+
+    public ResChunkDto(int chunk_id, long chunk_index, String chunk_hash, int chunk_size, List<ResPeerDto> chunk_peers) {
+        this.chunk_id = chunk_id;
+        this.chunk_index = chunk_index;
+        this.chunk_hash = chunk_hash;
+        this.chunk_size = chunk_size;
+        this.chunk_peers = chunk_peers;
+    }
+
+    public ResChunkDto(int chunk_id, long chunk_index, String chunk_hash, int chunk_size, Long chunk_offset, Integer chunk_length,
+                       List<ResPeerDto> chunk_peers) {
+        this(chunk_id, chunk_index, chunk_hash, chunk_size, chunk_peers);
+        this.chunk_offset = chunk_offset;
+        this.chunk_length = chunk_length;
+    }
+}
@@ -0,0 +1,37 @@
+package p2ptracker.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ResFileDto {
+    public int file_id;
+    public String file_name;
+    public String file_hash;
+    public long file_size;
+    public boolean file_enc;
+    public Integer file_data_shards;   // erasure coding: k data and m parity shards per chunk group, null if replicated
+    public Integer file_parity_shards;
+    public Integer file_previous_id;   // the version this file was uploaded against, null for a first version
+    public List<ResChunkDto> file_chunks; // only for /files/download_file/{file_id}
+
+    public ResFileDto() {}
+
+    public ResFileDto(int file_id, String file_name, String file_hash, long file_size, boolean file_enc, List<ResChunkDto> file_chunks) {
+        this.file_id = file_id;
+        this.file_name = file_name;
+        this.file_hash = file_hash;
+        this.file_size = file_size;
+        this.file_enc = file_enc;
+        this.file_chunks = file_chunks;
+    }
+
+    public ResFileDto(int file_id, String file_name, String file_hash, long file_size, boolean file_enc,
+                      Integer file_data_shards, Integer file_parity_shards, Integer file_previous_id, List<ResChunkDto> file_chunks) {
+        this(file_id, file_name, file_hash, file_size, file_enc, file_chunks);
+        this.file_data_shards = file_data_shards;
+        this.file_parity_shards = file_parity_shards;
+        this.file_previous_id = file_previous_id;
+    }
+}
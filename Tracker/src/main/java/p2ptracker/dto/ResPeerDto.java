@@ -0,0 +1,13 @@
+package p2ptracker.dto;
+
+public class ResPeerDto {
+    public String peer_ip;
+    public int peer_port;
+
+    public ResPeerDto() {}
+
+    public ResPeerDto(String peer_ip, int peer_port) {
+        this.peer_ip = peer_ip;
+        this.peer_port = peer_port;
+    }
+}